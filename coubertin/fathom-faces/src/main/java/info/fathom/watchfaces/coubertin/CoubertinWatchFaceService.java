@@ -4,38 +4,67 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Path;
+import android.graphics.PorterDuff;
 import android.graphics.Rect;
 import android.graphics.Typeface;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
+import android.hardware.SensorEventListener2;
 import android.hardware.SensorManager;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Message;
+import android.os.Process;
+import android.os.SystemClock;
 import android.support.wearable.watchface.CanvasWatchFaceService;
 import android.support.wearable.watchface.WatchFaceStyle;
-import android.text.format.Time;
 import android.util.Log;
+import android.util.SparseBooleanArray;
+import android.view.Choreographer;
 import android.view.SurfaceHolder;
 import android.view.WindowInsets;
-
-import java.text.DecimalFormat;
+import android.view.WindowManager;
+
+import java.text.DecimalFormatSymbols;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TimeZone;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
-public class CoubertinWatchFaceService extends CanvasWatchFaceService implements SensorEventListener {
+public class CoubertinWatchFaceService extends CanvasWatchFaceService {
 
     private static final String TAG = "CoubertinWatchFaceService";
 
     private static final float TAU = (float) (2 * Math.PI);
 
-    private static final long INTERACTIVE_UPDATE_RATE_MS = 33;
+    private static final long FRAME_INTERVAL_NORMAL_MS = 33;  // 30 fps, bubble cascade, splash screen and step counter rolling
+    private static final long FRAME_INTERVAL_SLOW_MS = 66;    // 15 fps, bubbles drifting
+    private static final long SIMULATION_STEP_MS = 33;        // bubbles and labels animate in fixed steps
+    private static final int SENSOR_RING_CAPACITY = 64;       // accelerometer samples buffered between simulation steps, a power of two
+    private static final int ACCELEROMETER_MAX_LATENCY_US = 100000;  // the hardware FIFO may hold accelerometer samples this long before waking us up
+    private static final float GRAVITY_TIME_CONSTANT = 0.8f;  // seconds, what alpha = 0.8 at the nominal 200ms SENSOR_DELAY_NORMAL rate amounted to
+    private static final float ACCELEROMETER_FAST_ENERGY = 0.25f;  // squared m/s2 of motion that switches the accelerometer to game rate
+    private static final float ACCELEROMETER_SLOW_ENERGY = 0.10f;  // and under which it may drop back to the slow rate...
+    private static final long  ACCELEROMETER_SLOW_HOLD_MS = 2000;  // ...once it has stayed there this long
+    private static final int STEP_COUNTER_SCREEN_OFF_LATENCY_US = Integer.MAX_VALUE;  // counts are cumulative, the FIFO can batch them for as long as it likes
+    private static final long IDLE_WAKEUP_PERIOD_MS = TimeUnit.MINUTES.toMillis(1);  // parked timer still wakes on each minute change
 
     private static final int BACKGROUND_COLOR_INTERACTIVE = Color.BLACK;
     private static final int BACKGROUND_COLOR_AMBIENT = Color.BLACK;
@@ -50,6 +79,7 @@ public class CoubertinWatchFaceService extends CanvasWatchFaceService implements
     private static final float   TEXT_DIGITS_LETTER_SPACING = 0.00f;                                // in 'em' units
     private static final float   TEXT_DIGITS_BASELINE_HEIGHT = 0.43f;                               // as a factor of screen height
     private static final float   TEXT_DIGITS_RIGHT_MARGIN = 0.08f;                                  // as a factor of screen width
+    private static final String  TEXT_DIGITS_GLYPHS = "0123456789:";                                // all the time display can show
 
     private static final int     TEXT_STEPS_COLOR_INTERACTIVE = Color.WHITE;
     private static final int     TEXT_STEPS_COLOR_AMBIENT = Color.WHITE;
@@ -57,6 +87,7 @@ public class CoubertinWatchFaceService extends CanvasWatchFaceService implements
     private static final float   TEXT_STEPS_LETTER_SPACING = 0.00f;                                 // in 'em' units
     private static final float   TEXT_STEPS_BASELINE_HEIGHT = TEXT_DIGITS_BASELINE_HEIGHT + 0.15f;  // as a factor of screen height
     private static final float   TEXT_STEPS_RIGHT_MARGIN = 0.07f;                                   // as a factor of screen width
+    private static final String  TEXT_STEPS_GLYPHS = "0123456789#";                                 // plus the locale's grouping separator
     private static final float   TEXT_STEPS_ROLL_EASE_SPEED = 0.45f;                                // 0...1
 
     private static final int     TEXT_AMBIENT_SHADOW_RADIUS = 1;
@@ -65,11 +96,19 @@ public class CoubertinWatchFaceService extends CanvasWatchFaceService implements
 
     // DEBUG
     private static final boolean DEBUG_LOGS = false;
+    private static final boolean DEBUG_RECORD_SENSOR_TRACE = false;  // append sensor and lifecycle events to a binary trace in the files dir
+    private static final String  DEBUG_REPLAY_SENSOR_TRACE = null;  // trace in the files dir to play back instead of the live sensors
+    private static final boolean DEBUG_REPLAY_REAL_TIME = true;  // through the sensors at the pace it was recorded, or stepping the models straight from it as fast as possible
     private static final boolean GENERATE_FAKE_STEPS = false;
     private static final int     RANDOM_FAKE_STEPS = 3000;
     private static final boolean SHOW_BUBBLE_VALUE_TAGS = false;
     private static final boolean RANDOM_TIME_PER_GLANCE = false;  // this will add an hour to the time at each glance
     private static final int     RANDOM_MINUTES_INC = 60;
+    private static final float   DEBUG_CLOCK_RATE = 1;  // run the time this many times faster than real time
+    private static final boolean DEBUG_SOAK_DAY = false;  // play a day of glances through a TimeManager at startup, on the simulation thread
+    private static final long    SOAK_GLANCE_INTERVAL = TimeUnit.MINUTES.toMillis(10);
+    private static final long    SOAK_GLANCE_LENGTH = TimeUnit.SECONDS.toMillis(5);
+    private static final long    SOAK_FRAME_INTERVAL = 16;
     private static final boolean DEBUG_STEP_COUNTERS = false;
 
     private static final boolean DEBUG_FAKE_START_TIME = false;
@@ -98,49 +137,260 @@ public class CoubertinWatchFaceService extends CanvasWatchFaceService implements
         return new Engine();
     }
 
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        // Sensor events are delivered here rather than on the main looper, away from onDraw()
+        mSensorThread = new HandlerThread(TAG + "Sensors", Process.THREAD_PRIORITY_DISPLAY);
+        mSensorThread.start();
+        mSensorHandler = new Handler(mSensorThread.getLooper());
+
+        if (DEBUG_REPLAY_SENSOR_TRACE != null && DEBUG_REPLAY_REAL_TIME) {
+            mSensorSource = new ReplaySensorSource(new File(getFilesDir(), DEBUG_REPLAY_SENSOR_TRACE));
+        } else {
+            mSensorSource = new LiveSensorSource((SensorManager) getSystemService(Context.SENSOR_SERVICE));
+        }
+
+        // One of each, shared by all the engines, see SensorWrapper.subscribe()
+        mSensorAccelerometer = new SensorWrapper("Accelerometer", Sensor.TYPE_ACCELEROMETER, 3, mSensorSource);
+        mSensorGravity = new SensorWrapper("Gravity", Sensor.TYPE_GRAVITY, 3, mSensorSource);
+        mSensorLinearAcceleration = new SensorWrapper("LinearAcceleration", Sensor.TYPE_LINEAR_ACCELERATION, 3,
+                mSensorSource);
+
+        // Prefer gravity and linear acceleration fused by the sensor hub, rather than filtered here
+        mUseFusedSensors = mSensorGravity.isActive && mSensorLinearAcceleration.isActive;
+        SensorWrapper motionSensor = mUseFusedSensors ? mSensorLinearAcceleration : mSensorAccelerometer;
+        mSensorGravity.maxReportLatencyUs = ACCELEROMETER_MAX_LATENCY_US;
+        motionSensor.maxReportLatencyUs = ACCELEROMETER_MAX_LATENCY_US;
+        motionSensor.setAdaptiveRate(ACCELEROMETER_FAST_ENERGY, ACCELEROMETER_SLOW_ENERGY,
+                ACCELEROMETER_SLOW_HOLD_MS);
+        if (DEBUG_LOGS) Log.v(TAG, "Fused motion sensors: " + mUseFusedSensors);
+        mSensorStep = new SensorWrapper("Steps", Sensor.TYPE_STEP_COUNTER, 1, mSensorSource);
+        mSensorStepDetector = new SensorWrapper("StepDetector", Sensor.TYPE_STEP_DETECTOR, 1, mSensorSource);
+
+        if (DEBUG_RECORD_SENSOR_TRACE) {
+            mTraceRecorder = new SensorTraceRecorder(
+                    new File(getFilesDir(), "sensors-" + System.currentTimeMillis() + ".trace"));
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        mSensorSource.unregisterAll();
+        if (mTraceRecorder != null) {
+            mSensorHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mTraceRecorder.close();
+                }
+            });
+        }
+        mSensorThread.quitSafely();  // after the trace is written out
+        super.onDestroy();
+    }
+
+    /**
+     * Decides at which rate the face should be rendering in interactive mode. Each Engine
+     * overrides {@link #selectFrameInterval()} to pick a tier from its current model state,
+     * and the policy is re-evaluated on every frame.
+     */
+    private abstract class FramePolicy {
+
+        long frameIntervalMs = FRAME_INTERVAL_NORMAL_MS;
+
+        abstract long selectFrameInterval();
+
+        // Returns true if the frame interval changed
+        boolean update() {
+            long intervalMs = selectFrameInterval();
+            if (intervalMs == frameIntervalMs) return false;
+            if (DEBUG_LOGS) Log.v(TAG, "Frame interval: " + frameIntervalMs + " -> " + intervalMs + "ms");
+            frameIntervalMs = intervalMs;
+            return true;
+        }
+
+        void reset() {
+            frameIntervalMs = FRAME_INTERVAL_NORMAL_MS;
+        }
+    }
+
+    /**
+     * Fixed-timestep clock for the face's simulation. Frame times are accumulated and paid
+     * out as whole {@link #SIMULATION_STEP_MS} steps, so the models move at the same speed
+     * whatever the frame rate or the number of dropped frames. The remainder left in the
+     * accumulator is exposed as {@link #alpha}, to interpolate rendering between the
+     * previous and the current step.
+     *
+     * Tweens catch up on every elapsed step in closed form, see {@link #tweenFactor}; only
+     * the integrated physics is iterated, and at most {@link #physicsSteps} times a frame.
+     */
+    private class SimulationClock {
+
+        private static final int MAX_PHYSICS_STEPS_PER_FRAME = 5;  // beyond this, drop time rather than stall catching up
+
+        final long stepNanos = TimeUnit.MILLISECONDS.toNanos(SIMULATION_STEP_MS);
+        long lastTimeNanos;
+        long accumulatorNanos;
+        int physicsSteps;  // steps the physics should iterate this frame
+        float alpha;  // 0 renders the previous step, 1 the current one
+
+        void reset() {
+            lastTimeNanos = 0;
+            accumulatorNanos = 0;
+            physicsSteps = 0;
+            alpha = 1;
+        }
+
+        // Returns how many steps have elapsed since the previous frame, uncapped
+        int advance(long timeNanos) {
+            if (lastTimeNanos == 0) {
+                // First frame after a (re)start: take a single step, don't catch up on the pause
+                lastTimeNanos = timeNanos;
+                accumulatorNanos = 0;
+                physicsSteps = 1;
+                alpha = 0;
+                return 1;
+            }
+
+            accumulatorNanos += timeNanos - lastTimeNanos;
+            lastTimeNanos = timeNanos;
+            int steps = (int) (accumulatorNanos / stepNanos);
+            accumulatorNanos -= steps * stepNanos;
+            physicsSteps = Math.min(steps, MAX_PHYSICS_STEPS_PER_FRAME);
+            alpha = (float) accumulatorNanos / stepNanos;
+
+            return steps;
+        }
+
+        // When the i-th of this frame's physics steps falls, in the frame timebase
+        long physicsStepTimeNanos(int i) {
+            return lastTimeNanos - accumulatorNanos - (physicsSteps - 1 - i) * stepNanos;
+        }
+    }
+
+    /**
+     * How much of the remaining distance an exponential approach covers after a number of
+     * steps, when it covers a fraction rate of it on each one. Lets an eased value jump
+     * straight to where per-step easing would have taken it, however many steps were missed.
+     */
+    static float tweenFactor(float rate, int steps) {
+        if (steps == 1) return rate;
+        return 1 - (float) Math.pow(1 - rate, steps);
+    }
+
     private class Engine extends CanvasWatchFaceService.Engine {
 
         private static final int MSG_UPDATE_TIMER = 0;
 
-        /* Handler to update the screen depending on the message */
+        /* Handler to wake the frame pump back up after it was parked */
         final Handler mMainHandler = new Handler() {
             @Override
             public void handleMessage(Message message) {
-//                Log.v(TAG, "Handler tick");
                 switch (message.what) {
                     case MSG_UPDATE_TIMER:
-                        invalidate();
-                        if (shouldTimerBeRunning()) {
-                            long timeMs = System.currentTimeMillis();
-                            long delayMs = INTERACTIVE_UPDATE_RATE_MS
-                                    - (timeMs % INTERACTIVE_UPDATE_RATE_MS);
-                            mMainHandler.sendEmptyMessageDelayed(MSG_UPDATE_TIMER, delayMs);
-                        }
+                        updateTimer();
                         break;
                 }
             }
         };
 
+        private FramePump mFramePump;
+        private final SimulationClock mSimulationClock = new SimulationClock();
+
+        /*
+         * Bubbles, step counts and the splash screen are stepped on their own thread, which
+         * holds mSimulationLock while touching them; anything else reaching into them must hold
+         * it too. Each step is published as a SceneSnapshot: the front one is only read by
+         * onDraw(), the back one only written by whoever holds mSimulationLock, and they are
+         * swapped under mSnapshotLock.
+         */
+        private HandlerThread mSimulationThread;
+        private Handler mSimulationHandler;
+        private final Object mSimulationLock = new Object();
+        private final Object mSnapshotLock = new Object();
+        private SceneSnapshot mFrontSnapshot = new SceneSnapshot();
+        private SceneSnapshot mBackSnapshot = new SceneSnapshot();
+        private volatile long mSimulationFrameTimeNanos;
+        private volatile boolean mSimulationStepPosted;
+
+        // Motion readings handed over by the sensor thread: raw accelerometer ones are filtered
+        // on the simulation side, fused ones taken as they are
+        private final SensorRing mAccelerometerRing = new SensorRing(SENSOR_RING_CAPACITY, 3);
+        private final SensorRing mGravityRing = new SensorRing(SENSOR_RING_CAPACITY, 3);
+        private final SensorRing mLinearAccelerationRing = new SensorRing(SENSOR_RING_CAPACITY, 3);
+        private final float[] mAccelerometerSample = new float[3];
+        private long mLastAccelerometerTimestamp;
+        private final float[] mFilteredGravity = new float[3];  // filter state, when filtering here
+        private final float[] mFilteredLinearAcceleration = new float[3];
+        private final float[] mMotionSample = new float[3];
+
+        // Readings are kept with their timestamps, and estimated at the instant of each
+        // physics step rather than held at the last one, which may be 200ms old
+        private final SensorHistory mGravityHistory = new SensorHistory(3);
+        private final SensorHistory mLinearAccelerationHistory = new SensorHistory(3);
+        private long mSensorTimeOffsetNanos;  // from the frame timebase to the sensors' one
+        private boolean mTraceReplayed;  // with DEBUG_REPLAY_SENSOR_TRACE, but not DEBUG_REPLAY_REAL_TIME
+        private final float[] gravity = new float[3];
+        private final float[] linear_acceleration = new float[3];
+        private Paint mSnapshotBubblePaint, mSnapshotSplashDigitsPaint, mSnapshotSplashStepsPaint;
+        private final StepFormatter mSnapshotStepFormatter = new StepFormatter("#");  // the step label, main thread only
+
+        private final Runnable mSimulationStep = new Runnable() {
+            @Override
+            public void run() {
+                mSimulationStepPosted = false;  // frames after this point post again
+                synchronized (mSimulationLock) {
+                    drainSensors();
+                    updateSimulation(mSimulationClock.advance(mSimulationFrameTimeNanos));
+                    publishSnapshot(mSimulationClock.alpha);
+                }
+                postInvalidate();
+            }
+        };
+
+        private final FramePolicy mFramePolicy = new FramePolicy() {
+            @Override
+            long selectFrameInterval() {
+                return bubbleManager.isCascading() || splashScreen.active || bubbleManager.isShaken()
+                        || mStepCountDisplay != mCurrentSteps ?
+                        FRAME_INTERVAL_NORMAL_MS : FRAME_INTERVAL_SLOW_MS;
+            }
+        };
+        private volatile boolean mTimerParked = false;
+
         //        private boolean mLowBitAmbient;
         //        private boolean mBurnInProtection;
         private boolean mAmbient, mScreenOn;
+        private boolean mGlanceActive;
 
+        private Clock mClock;
+        private VirtualClock mVirtualClock;  // the same clock, when a debug option needs one
         private TimeManager mTimeManager;
-        private String mTimeStr;
+        private final char[] mTimeChars = new char[5];  // "h:mm" or "hh:mm"
+        private int mTimeLength;
+        private long mTimeExpiry;  // TimeManager.nextMinute() when mTimeChars were built
         private int mLastAmbientHour;
         private int glances;
 
         private Paint mTextDigitsPaintInteractive, mTextDigitsPaintAmbient;
+        private GlyphAtlas mTextDigitsAtlasInteractive, mTextDigitsAtlasAmbient;
         private float mTextDigitsHeight, mTextDigitsBaselineHeight, mTextDigitsRightMargin;
         private Paint mTextStepsPaintInteractive, mTextStepsPaintAmbient;
+        private GlyphAtlas mTextStepsAtlasInteractive, mTextStepsAtlasAmbient;
+        private final OdometerText mStepsOdometer = new OdometerText();
         private float mTextStepsHeight, mTextStepsBaselineHeight, mTextStepsRightMargin;
         private Paint mTextDigitsShadowPaintInteractive, mTextStepsShadowPaintInteractive;
+        private final OutlinedText mAmbientTimeText = new OutlinedText();
+        private final OutlinedText mAmbientStepsText = new OutlinedText();
         private Typeface mTextTypeface, mTextTypefaceMed, mTextTypefaceSemi;
-        private DecimalFormat mTestStepFormatter = new DecimalFormat("##,###");
+        private final StepFormatter mTestStepFormatter = new StepFormatter("");  // bubble tags and splash, under mSimulationLock
         private final Rect textBounds = new Rect();
         private int mTextAlpha = 255;
 
         private int mStepBuffer = 0;
+        private int mStepCountSeen = -1;  // the last mLiveStepCount picked up by the simulation
+        private volatile boolean mWereStepCountsUpdatedThisGlance = false;
         private boolean firstLoad = true;
         private int mPrevSteps = 0;
         private int mCurrentSteps = 0;
@@ -165,12 +415,20 @@ public class CoubertinWatchFaceService extends CanvasWatchFaceService implements
         public void onCreate(SurfaceHolder holder) {
             super.onCreate(holder);
 
+            mEngines.add(this);
+
             setWatchFaceStyle(new WatchFaceStyle.Builder(CoubertinWatchFaceService.this)
                     .setCardPeekMode(WatchFaceStyle.PEEK_MODE_SHORT)
                     .setBackgroundVisibility(WatchFaceStyle.BACKGROUND_VISIBILITY_INTERRUPTIVE)
                     .setShowSystemUiTime(false)
                     .build());
 
+            mFramePump = new FramePump();
+
+            mSimulationThread = new HandlerThread(TAG + "Simulation", Process.THREAD_PRIORITY_DISPLAY);
+            mSimulationThread.start();
+            mSimulationHandler = new Handler(mSimulationThread.getLooper());
+
             mTextTypeface = Typeface.createFromAsset(getApplicationContext().getAssets(),
                     RALEWAY_TYPEFACE_PATH);
             mTextTypefaceMed = Typeface.createFromAsset(getApplicationContext().getAssets(),
@@ -227,31 +485,65 @@ public class CoubertinWatchFaceService extends CanvasWatchFaceService implements
             bubbleManager = new BubbleManager();
             splashScreen = new SplashScreen();
 
-            mTimeManager = new TimeManager() {
+            mSnapshotBubblePaint = new Paint();
+            mSnapshotBubblePaint.setAntiAlias(true);
+            mSnapshotBubblePaint.setStyle(Paint.Style.FILL_AND_STROKE);
+
+            mSnapshotSplashDigitsPaint = new Paint();
+            mSnapshotSplashDigitsPaint.setColor(BACKGROUND_COLOR_AMBIENT);
+            mSnapshotSplashDigitsPaint.setTypeface(mTextTypefaceMed);
+            mSnapshotSplashDigitsPaint.setAntiAlias(true);
+            mSnapshotSplashDigitsPaint.setTextAlign(Paint.Align.LEFT);
+
+            mSnapshotSplashStepsPaint = new Paint();
+            mSnapshotSplashStepsPaint.setColor(BACKGROUND_COLOR_AMBIENT);
+            mSnapshotSplashStepsPaint.setTypeface(mTextTypefaceSemi);
+            mSnapshotSplashStepsPaint.setAntiAlias(true);
+            mSnapshotSplashStepsPaint.setTextAlign(Paint.Align.LEFT);
+
+            if (RANDOM_TIME_PER_GLANCE || DEBUG_FAKE_START_TIME || DEBUG_CLOCK_RATE != 1) {
+                // Frozen between the random jumps, otherwise running at the debug rate
+                mVirtualClock = new VirtualClock(System.currentTimeMillis(),
+                        RANDOM_TIME_PER_GLANCE ? 0 : DEBUG_CLOCK_RATE);
+                mClock = mVirtualClock;
+            } else {
+                mClock = new RealClock();
+            }
+
+            mTimeManager = new TimeManager(mClock) {
                 @Override
                 public void onReset() {
                     if (DEBUG_LOGS) Log.v(TAG, "RESETTING!!");
-                    mStepBuffer = (int) mSensorStep.values[0];
-                    mPrevSteps = 0;
-                    mCurrentSteps = 0;
-                    bubbleManager.clearBubbles();
-                    bubbleManager.prevSteps = 0;
-                    bubbleManager.currentSteps = 0;
+                    synchronized (mSimulationLock) {
+                        mStepBuffer = (int) mSensorStep.values[0];
+                        mPrevSteps = 0;
+                        mCurrentSteps = 0;
+                        bubbleManager.clearBubbles();
+                        bubbleManager.resetSteps();
+                    }
                 }
             };
+            if (DEBUG_FAKE_START_TIME) {
+                mVirtualClock.set(mTimeManager.todayAt(DEBUG_FAKE_START_HOUR, DEBUG_FAKE_START_MINUTE, 0));
+                mTimeManager.setToNow();
+            }
             if (RESET_HOUR >= 0) {
                 mTimeManager.setOvernightResetHour(RESET_HOUR);
             }
+            if (DEBUG_SOAK_DAY) {
+                mSimulationHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        runSoakDay();
+                    }
+                });
+            }
 
             glances = 0;
 
-            mSensorManager = (SensorManager) getSystemService(Context.SENSOR_SERVICE);
-            mSensorAccelerometer = new SensorWrapper("Accelerometer", Sensor.TYPE_ACCELEROMETER, 3,
-                    CoubertinWatchFaceService.this, mSensorManager);
-            mSensorAccelerometer.register();
-            mSensorStep = new SensorWrapper("Steps", Sensor.TYPE_STEP_COUNTER, 1,
-                    CoubertinWatchFaceService.this, mSensorManager);
-            mSensorStep.register();
+            registerMotionSensors();
+            mSensorStep.subscribe();  // for as long as the engine lives, see batchStepSensors()
+            registerStepSensors();
 
             registerScreenReceiver();
         }
@@ -260,23 +552,59 @@ public class CoubertinWatchFaceService extends CanvasWatchFaceService implements
         public void onDestroy() {
             if (DEBUG_LOGS) Log.v(TAG, "onDestroy()");
             mMainHandler.removeMessages(MSG_UPDATE_TIMER);
+            mFramePump.stop();
+            mSimulationHandler.removeCallbacks(mSimulationStep);
+            mSimulationHandler.removeCallbacks(mWakeCheck);
+            mSimulationThread.quit();
+            if (mTextDigitsAtlasInteractive != null) {  // created with the surface
+                mTextDigitsAtlasInteractive.recycle();
+                mTextDigitsAtlasAmbient.recycle();
+                mTextDigitsAtlasInteractive = mTextDigitsAtlasAmbient = null;
+            }
+            if (mTextStepsAtlasInteractive != null) {
+                mTextStepsAtlasInteractive.recycle();
+                mTextStepsAtlasAmbient.recycle();
+                mTextStepsAtlasInteractive = mTextStepsAtlasAmbient = null;
+            }
+            mStepsOdometer.recycle();
+            mAmbientTimeText.recycle();
+            mAmbientStepsText.recycle();
             unregisterTimeZoneReceiver();
             unregisterScreenReceiver();
-            mSensorStep.unregister();
-            mSensorAccelerometer.unregister();
+            unregisterStepSensors();
+            unregisterMotionSensors();
+            mEngines.remove(this);
             super.onDestroy();
         }
 
         @Override
         public void onTimeTick() {
             super.onTimeTick();
+            traceLifecycle(SensorTraceRecorder.TIME_TICK);
+            if (isInAmbientMode()) {
+                // Draw once the step counts batched since the last tick are in, see onStepCountsFlushed()
+                mStepFlushPending = true;
+                if (flushStepCounts()) return;
+                mStepFlushPending = false;
+            }
             invalidate();
         }
 
+        private volatile boolean mStepFlushPending;  // an ambient frame waits on the counter's FIFO
+
+        // Called on the sensor thread once the counter's FIFO has been delivered
+        void onStepCountsFlushed() {
+            if (mStepFlushPending) {
+                mStepFlushPending = false;
+                postInvalidate();
+            }
+        }
+
         @Override
         public void onAmbientModeChanged(boolean inAmbientMode) {
             if (DEBUG_LOGS) Log.v(TAG, "onAmbientModeChanged: " + inAmbientMode);
             super.onAmbientModeChanged(inAmbientMode);
+            traceLifecycle(inAmbientMode ? SensorTraceRecorder.AMBIENT_ON : SensorTraceRecorder.AMBIENT_OFF);
 
             if (mAmbient != inAmbientMode) {
                 mAmbient = inAmbientMode;
@@ -286,9 +614,14 @@ public class CoubertinWatchFaceService extends CanvasWatchFaceService implements
             // Last bubble must be updated here because onDraw() happens before
             // receiving the SCREEN_OFF Intent, and this is useless in non-ambient mode anyway...
             if (inAmbientMode) {
-                bubbleManager.updateLatestBubble();
+                synchronized (mSimulationLock) {
+                    bubbleManager.updateLatestBubble();
+                }
             }
 
+            // Start the glance before the first interactive frame, not after it
+            onScreenChange(!inAmbientMode && isVisible());
+
             /*
              * Whether the timer should be running depends on whether we're visible (as well as
              * whether we're in ambient mode), so we may need to start or stop the timer.
@@ -300,16 +633,19 @@ public class CoubertinWatchFaceService extends CanvasWatchFaceService implements
         public void onVisibilityChanged(boolean visible) {
             if (DEBUG_LOGS) Log.v(TAG, "onVisibilityChanged: " + visible);
             super.onVisibilityChanged(visible);
+            traceLifecycle(visible ? SensorTraceRecorder.VISIBLE : SensorTraceRecorder.INVISIBLE);
 
             if (visible) {
-                mSensorStep.register();
-                mSensorAccelerometer.register();
+                registerStepSensors();
+                registerMotionSensors();
 
             } else {
-                mSensorStep.unregister();
-                mSensorAccelerometer.unregister();
+                batchStepSensors();
+                unregisterMotionSensors();
             }
 
+            onScreenChange(visible && !isInAmbientMode());
+
             /*
             * Whether the timer should be running depends on whether we're visible
             * (as well as whether we're in ambient mode),
@@ -326,10 +662,13 @@ public class CoubertinWatchFaceService extends CanvasWatchFaceService implements
                 if (DEBUG_LOGS) Log.v(TAG, "Received intent: " + action);
                 if (action.equals(Intent.ACTION_SCREEN_ON)) {
                     if (DEBUG_LOGS) Log.v(TAG, "Screen ON");
+                    traceLifecycle(SensorTraceRecorder.SCREEN_ON);
                     mScreenOn = true;
                     onScreenChange(true);
                 } else if (action.equals(Intent.ACTION_SCREEN_OFF)) {
                     if (DEBUG_LOGS) Log.v(TAG, "Screen OFF");
+                    traceLifecycle(SensorTraceRecorder.SCREEN_OFF);
+                    flushSensorTrace();
                     mScreenOn = false;
                     onScreenChange(false);
                 }
@@ -352,38 +691,49 @@ public class CoubertinWatchFaceService extends CanvasWatchFaceService implements
          * This is a dedicated method to account for screen changes, which will happen when
          * the watch goes to ambient mode (if active), or if visibility changes (if ambient
          * mode is off).
-         * This method should be called from a Broadcast receiver targeting Intent.ACTION_SCREEN_ON/OFF
+         * It is called from onAmbientModeChanged() and onVisibilityChanged(), which arrive before
+         * the first frame is drawn, and again from the Broadcast receiver targeting
+         * Intent.ACTION_SCREEN_ON/OFF, which arrives after it. Whichever comes first starts or
+         * ends the glance, the others are ignored.
          * @param turnedOn
          */
         public void onScreenChange(boolean turnedOn) {
+            if (turnedOn == mGlanceActive) return;
+            mGlanceActive = turnedOn;
             if (DEBUG_LOGS) Log.v(TAG, "onScreenChange: " + turnedOn);
+            if (turnedOn) mFramePump.onWake();
 
             if (turnedOn) {
-                mWasStepSensorUpdatedThisGlance = false;
+                mTimeManager.setToNow();  // fire the time events due since the last frame before the glance reads them
                 mWereStepCountsUpdatedThisGlance = false;
 
                 glances++;
 
-                bubbleManager.newGlance();
+                synchronized (mSimulationLock) {
+                    bubbleManager.newGlance();
+                    pickUpStepCount();  // what the batched counter had before the screen came on
+                }
 
                 if (RANDOM_TIME_PER_GLANCE) {
-                    mTimeManager.addRandomInc();
+                    addRandomTime();
                 }
 
                 registerTimeZoneReceiver();
-                mSensorStep.register();
-                mSensorAccelerometer.register();
+                registerStepSensors();
+                registerMotionSensors();
 
             } else {
-                bubbleManager.byeGlance();
+                synchronized (mSimulationLock) {
+                    bubbleManager.byeGlance();
+                    bubbleManager.resetMotion();
+                    splashScreen.deactivate();
+                }
 
                 unregisterTimeZoneReceiver();
-                mSensorStep.unregister();
-                mSensorAccelerometer.unregister();
+                batchStepSensors();
+                unregisterMotionSensors();
 
-                bubbleManager.resetMotion();
-
-                splashScreen.deactivate();
+                if (DEBUG_LOGS) mFramePump.toDebugLog();
             }
 
             /*
@@ -394,6 +744,48 @@ public class CoubertinWatchFaceService extends CanvasWatchFaceService implements
             updateTimer();
         }
 
+        // Debug: jumps the virtual clock a random amount ahead, as if the watch had been left alone
+        private void addRandomTime() {
+            long rInc = (long) (TimeUnit.MINUTES.toMillis(RANDOM_MINUTES_INC) * Math.random());
+            if (DEBUG_LOGS) Log.v(TAG, "Adding randomInc: " + rInc);
+
+            mVirtualClock.advance(rInc);
+            mTimeManager.setToNow();
+        }
+
+        /**
+         * Debug: plays a whole day of glances, a frame at a time, through a TimeManager of its own
+         * on a frozen VirtualClock, and logs how long that took. Only the time keeping is soaked:
+         * nothing is simulated or drawn, and the face's own state is left alone. Runs on the
+         * simulation thread, where it holds up the frames rather than the UI.
+         */
+        private void runSoakDay() {
+            final VirtualClock clock = new VirtualClock(mClock.currentTimeMillis(), 0);
+            final int[] resets = new int[1];
+            TimeManager timeManager = new TimeManager(clock) {
+                @Override
+                public void onReset() {
+                    resets[0]++;
+                }
+            };
+            if (RESET_HOUR >= 0) {
+                timeManager.setOvernightResetHour(RESET_HOUR);
+            }
+
+            int frames = 0;
+            long startNanos = System.nanoTime();
+            for (long t = 0; t < TimeUnit.DAYS.toMillis(1); t += SOAK_GLANCE_INTERVAL) {
+                for (long f = 0; f < SOAK_GLANCE_LENGTH; f += SOAK_FRAME_INTERVAL) {
+                    timeManager.setToNow();
+                    clock.advance(SOAK_FRAME_INTERVAL);
+                    frames++;
+                }
+                clock.advance(SOAK_GLANCE_INTERVAL - SOAK_GLANCE_LENGTH);
+            }
+            Log.v(TAG, "Soak day: " + frames + " frames, " + resets[0] + " resets in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) + "ms");
+        }
+
         @Override
         public void onSurfaceChanged(SurfaceHolder holder, int format, int width, int height) {
             if (DEBUG_LOGS) Log.v(TAG, "onSurfaceChanged: " + format + " " + width + " " + height);
@@ -405,25 +797,50 @@ public class CoubertinWatchFaceService extends CanvasWatchFaceService implements
             mCenterY = 0.50f * mHeight;
             mRadius = 0.50f * mWidth;
 
-            splashScreen.reset();
-
             mTextDigitsHeight = TEXT_DIGITS_HEIGHT * mHeight;
             mTextDigitsBaselineHeight = TEXT_DIGITS_BASELINE_HEIGHT * mHeight;
             mTextDigitsRightMargin = TEXT_DIGITS_RIGHT_MARGIN * mWidth;
             mTextDigitsPaintInteractive.setTextSize(mTextDigitsHeight);
             mTextDigitsPaintAmbient.setTextSize(mTextDigitsHeight);
+            if (mTextDigitsAtlasInteractive != null) {
+                mTextDigitsAtlasInteractive.recycle();
+                mTextDigitsAtlasAmbient.recycle();
+            }
+            mTextDigitsAtlasInteractive = new GlyphAtlas(TEXT_DIGITS_GLYPHS, mTextDigitsPaintInteractive);
+            mTextDigitsAtlasAmbient = new GlyphAtlas(TEXT_DIGITS_GLYPHS, mTextDigitsPaintAmbient);
 
             mTextStepsHeight = TEXT_STEPS_HEIGHT * mHeight;
             mTextStepsBaselineHeight = TEXT_STEPS_BASELINE_HEIGHT * mHeight;
             mTextStepsRightMargin = TEXT_STEPS_RIGHT_MARGIN * mWidth;
             mTextStepsPaintInteractive.setTextSize(mTextStepsHeight);
             mTextStepsPaintAmbient.setTextSize(mTextStepsHeight);
+            if (mTextStepsAtlasInteractive != null) {
+                mTextStepsAtlasInteractive.recycle();
+                mTextStepsAtlasAmbient.recycle();
+            }
+            String stepsGlyphs = TEXT_STEPS_GLYPHS + mSnapshotStepFormatter.separator;
+            mTextStepsAtlasInteractive = new GlyphAtlas(stepsGlyphs, mTextStepsPaintInteractive);
+            mTextStepsAtlasAmbient = new GlyphAtlas(stepsGlyphs, mTextStepsPaintAmbient);
 
             mTextDigitsShadowPaintInteractive.setTextSize(mTextDigitsHeight);
             mTextStepsShadowPaintInteractive.setTextSize(mTextStepsHeight);
 
+            mSnapshotSplashDigitsPaint.setTextSize(mTextDigitsHeight);
+            mSnapshotSplashStepsPaint.setTextSize(mTextStepsHeight);
 
-            bubbleManager.setScreenWidth(mWidth);
+            synchronized (mSimulationLock) {
+                splashScreen.reset();
+                bubbleManager.setScreenWidth(mWidth);
+            }
+            if (DEBUG_REPLAY_SENSOR_TRACE != null && !DEBUG_REPLAY_REAL_TIME && !mTraceReplayed) {
+                mTraceReplayed = true;  // once the bubbles have a screen to move in
+                mSimulationHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        replaySensorTrace(new File(getFilesDir(), DEBUG_REPLAY_SENSOR_TRACE));
+                    }
+                });
+            }
         }
 
         @Override
@@ -438,21 +855,37 @@ public class CoubertinWatchFaceService extends CanvasWatchFaceService implements
         @Override
         public void onDraw(Canvas canvas, Rect bounds) {
 //            if (DEBUG_LOGS) Log.v(TAG, "Drawing canvas");
+            mFramePump.onDrawStart();
 
-            mTimeManager.setToNow();  // if RANDOM_TIME_PER_GLANCE it won't update toNow
-            mTimeStr = (mTimeManager.hour % 12 == 0 ? 12 : mTimeManager.hour % 12) + ":" + String.format("%02d", mTimeManager.minute);
+            mTimeManager.setToNow();
+            if (mTimeManager.nextMinute() != mTimeExpiry) {  // only rebuilt when the minute turns
+                int hour = mTimeManager.hour % 12 == 0 ? 12 : mTimeManager.hour % 12;
+                mTimeLength = 0;
+                if (hour >= 10) mTimeChars[mTimeLength++] = (char) ('0' + hour / 10);
+                mTimeChars[mTimeLength++] = (char) ('0' + hour % 10);
+                mTimeChars[mTimeLength++] = ':';
+                mTimeChars[mTimeLength++] = (char) ('0' + mTimeManager.minute / 10);
+                mTimeChars[mTimeLength++] = (char) ('0' + mTimeManager.minute % 10);
+                mTimeExpiry = mTimeManager.nextMinute();
+            }
 
             if (mAmbient) {
                 if (DEBUG_LOGS) Log.v(TAG, "Drawing ambient canvas");
 
                 canvas.drawColor(BACKGROUND_COLOR_AMBIENT);
 
-                bubbleManager.renderAmbient(canvas);
+                int steps;
+                synchronized (mSimulationLock) {
+                    pickUpStepCount();
+                    bubbleManager.renderAmbient(canvas);
+                    steps = mCurrentSteps;
+                }
+                int stepsLength = mSnapshotStepFormatter.format(steps);
 
-                drawFakeShadowedText(canvas, mTimeStr,
+                mAmbientTimeText.draw(canvas, mTextDigitsAtlasAmbient, mTimeChars, mTimeLength,
                         mWidth - (int) mTextDigitsRightMargin, (int) mTextDigitsBaselineHeight,
                         TEXT_AMBIENT_SHADOW_RADIUS, mTextDigitsShadowPaintInteractive, mTextDigitsPaintAmbient);
-                drawFakeShadowedText(canvas, mTestStepFormatter.format(mCurrentSteps) + "#",
+                mAmbientStepsText.draw(canvas, mTextStepsAtlasAmbient, mSnapshotStepFormatter.chars, stepsLength,
                         mWidth - (int) mTextStepsRightMargin, (int) mTextStepsBaselineHeight,
                         TEXT_AMBIENT_SHADOW_RADIUS, mTextStepsShadowPaintInteractive, mTextStepsPaintAmbient);
 
@@ -464,50 +897,104 @@ public class CoubertinWatchFaceService extends CanvasWatchFaceService implements
                 }
 
             } else {
+                canvas.drawColor(BACKGROUND_COLOR_INTERACTIVE);
 
-                if (mWasStepSensorUpdatedThisGlance && !mWereStepCountsUpdatedThisGlance) {
-                    if (DEBUG_LOGS) Log.v(TAG, "Triggered updateStepCounts()");
-                    updateStepCounts();
-                    mWereStepCountsUpdatedThisGlance = true;
+                synchronized (mSnapshotLock) {
+                    renderSnapshot(canvas, mFrontSnapshot);
                 }
 
-                canvas.drawColor(BACKGROUND_COLOR_INTERACTIVE);
+            }
 
-                // draw bubbles
-                bubbleManager.update();
-                bubbleManager.render(canvas);
+            mFramePump.onDrawEnd();
+        }
 
-                if (mCurrentSteps != mStepCountDisplay) {
-//                    if (DEBUG_LOGS) Log.v(TAG, "Updating step counter: " + mStepCountDisplay + " -> " + mCurrentSteps);
-                    float diff = mCurrentSteps - mStepCountDisplay;
-                    if (Math.abs(diff) > 1) {
-                        mStepCountDisplay += TEXT_STEPS_ROLL_EASE_SPEED * diff;
-                    } else {
-                        mStepCountDisplay = mCurrentSteps;
-                    }
-                }
+        private void renderSnapshot(Canvas canvas, SceneSnapshot s) {
+            // draw bubbles
+            float[] d = s.bubbleData;
+            for (int i = 0; i < s.bubbleCount; i++) {
+                float x = d[3 * i], y = d[3 * i + 1], radius = d[3 * i + 2];
+                mSnapshotBubblePaint.setColor(s.bubbleColors[i]);
+
+                canvas.save();
+                canvas.translate(x, y);
+                canvas.scale(radius, radius);
+                if (s.bubbleLabels[i] != null) canvas.drawCircle(0, 0, 1.0f, mSnapshotBubblePaint);
+                canvas.drawPath(s.bubblePaths[i], mSnapshotBubblePaint);
+                canvas.restore();
 
-                if (splashScreen.active) {
-                    mTextAlpha -= splashScreen.FADE_IN_SPEED;
-                    if (mTextAlpha < 0) mTextAlpha = 0;
-                    mTextDigitsPaintInteractive.setColor(Color.argb(mTextAlpha, 255, 255, 255));
-                    mTextStepsPaintInteractive.setColor(Color.argb(mTextAlpha, 255, 255, 255));
+                // Doing this outside the transform to avoid weirdness with tiny heighted text
+                if (s.bubbleLabels[i] != null) {
+                    mBubbleTextPaint.setTextSize(2 * Bubble.TEXT_HEIGHT_FACTOR * radius);  // bubble size might be animated
+                    drawTextVerticallyCentered(canvas, mBubbleTextPaint, s.bubbleLabels[i], x, y);
                 }
+            }
 
-                canvas.drawText(mTimeStr, mWidth - mTextDigitsRightMargin,
-                        mTextDigitsBaselineHeight, mTextDigitsPaintInteractive);
-                canvas.drawText(mTestStepFormatter.format(mStepCountDisplay) + "#", mWidth - mTextStepsRightMargin,
-                        mTextStepsBaselineHeight, mTextStepsPaintInteractive);
+            // texts fade out under the splash screen
+            mTextDigitsPaintInteractive.setColor(s.splashActive ?
+                    Color.argb(s.textAlpha, 255, 255, 255) : TEXT_DIGITS_COLOR_INTERACTIVE);
+            mTextStepsPaintInteractive.setColor(s.splashActive ?
+                    Color.argb(s.textAlpha, 255, 255, 255) : TEXT_STEPS_COLOR_INTERACTIVE);
 
-                if (DEBUG_STEP_COUNTERS) {
-                    canvas.drawText((int) mSensorStep.values[0] + " S", 0.75f * mWidth,
-                            0.75f * mHeight, mTextStepsPaintInteractive);
-                    canvas.drawText(mStepBuffer + " B", 0.75f * mWidth,
-                            0.85f * mHeight, mTextStepsPaintInteractive);
-                }
+            mTextDigitsAtlasInteractive.drawRight(canvas, mTimeChars, 0, mTimeLength,
+                    mWidth - mTextDigitsRightMargin, mTextDigitsBaselineHeight, mTextDigitsPaintInteractive);
+            int stepsLength = mSnapshotStepFormatter.format(Math.round(s.stepCountDisplay));
+            mStepsOdometer.draw(canvas, mTextStepsAtlasInteractive, mSnapshotStepFormatter.chars, stepsLength,
+                    mWidth - (int) mTextStepsRightMargin, (int) mTextStepsBaselineHeight, mTextStepsPaintInteractive);
 
-                if (splashScreen.active) splashScreen.render(canvas);
+            if (DEBUG_STEP_COUNTERS) {
+                canvas.drawText((int) mSensorStep.values[0] + " S", 0.75f * mWidth,
+                        0.75f * mHeight, mTextStepsPaintInteractive);
+                canvas.drawText(mStepBuffer + " B", 0.75f * mWidth,
+                        0.85f * mHeight, mTextStepsPaintInteractive);
+            }
+
+            if (s.splashActive) {
+                canvas.drawColor(s.splashColor);
+                canvas.drawText(s.splashText, 0, s.splashText.length, s.splashTextX, s.splashDigitsY,
+                        mSnapshotSplashDigitsPaint);
+                canvas.drawText("steps", s.splashTextX, s.splashStepsY, mSnapshotSplashStepsPaint);
+            }
+        }
+
+        /**
+         * Fills the back snapshot from the models, bubbles interpolated by alpha, and swaps it
+         * to the front. Must be called holding mSimulationLock.
+         */
+        private void publishSnapshot(float alpha) {
+            SceneSnapshot s = mBackSnapshot;
+            bubbleManager.snapshot(s, alpha);
+            splashScreen.snapshot(s);
+            s.stepCountDisplay = mStepCountDisplay;
+            s.textAlpha = mTextAlpha;
+            s.animating = isAnimating();
+            mFramePolicy.update();
+            s.frameIntervalMs = mFramePolicy.frameIntervalMs;
+
+            synchronized (mSnapshotLock) {
+                mBackSnapshot = mFrontSnapshot;
+                mFrontSnapshot = s;
+            }
+        }
+
+        // Catches everything that animates up on the simulation steps elapsed since the last frame
+        private void updateSimulation(int steps) {
+            pickUpStepCount();
+            bubbleManager.update(steps);
+
+            if (mCurrentSteps != mStepCountDisplay) {
+//                if (DEBUG_LOGS) Log.v(TAG, "Updating step counter: " + mStepCountDisplay + " -> " + mCurrentSteps);
+                float diff = mCurrentSteps - mStepCountDisplay;
+                if (Math.abs(diff) > 1) {
+                    mStepCountDisplay += tweenFactor(TEXT_STEPS_ROLL_EASE_SPEED, steps) * diff;
+                } else {
+                    mStepCountDisplay = mCurrentSteps;
+                }
+            }
 
+            if (splashScreen.active) {
+                splashScreen.update(steps);
+                mTextAlpha -= steps * splashScreen.FADE_IN_SPEED;
+                if (mTextAlpha < 0) mTextAlpha = 0;
             }
         }
 
@@ -517,6 +1004,7 @@ public class CoubertinWatchFaceService extends CanvasWatchFaceService implements
             @Override
             public void onReceive(Context context, Intent intent) {
                 mTimeManager.setTimeZone(intent);
+                mTimeExpiry = 0;  // the minute may end at the same instant in the new zone
             }
         };
 
@@ -540,148 +1028,470 @@ public class CoubertinWatchFaceService extends CanvasWatchFaceService implements
 
         private void updateTimer() {
             mMainHandler.removeMessages(MSG_UPDATE_TIMER);
+            mTimerParked = false;
             if (shouldTimerBeRunning()) {
-                mMainHandler.sendEmptyMessage(MSG_UPDATE_TIMER);
+                mFramePump.start();
+            } else {
+                mFramePump.stop();
             }
         }
 
         /**
-         * Returns whether the {@link #mMainHandler} timer should be running. The timer
-         * should only run when we're visible and in interactive mode.
+         * Stops the frame pump while nothing is animating. It is woken up again on the next
+         * minute change (for the digits), by sensor motion, or by a new glance.
+         */
+        private void parkTimer() {
+            mFramePump.stop();
+            mTimerParked = true;
+            long timeMs = System.currentTimeMillis();
+            long delayMs = IDLE_WAKEUP_PERIOD_MS - (timeMs % IDLE_WAKEUP_PERIOD_MS);
+            mMainHandler.sendEmptyMessageDelayed(MSG_UPDATE_TIMER, delayMs);
+        }
+
+        /**
+         * Returns whether the {@link #mFramePump} should be running. It should only run
+         * when we're visible and in interactive mode.
          */
         private boolean shouldTimerBeRunning() {
             return isVisible() && !isInAmbientMode();
         }
 
-        @Override
-        public void onPeekCardPositionUpdate(Rect rect) {
-            super.onPeekCardPositionUpdate(rect);
-//            mCardBounds.set(rect);
+        /**
+         * Returns whether anything on screen will change on the next frame: bubbles moving
+         * or resizing, the step counter rolling, the splash screen fading in or a step
+         * update waiting to be picked up.
+         */
+        private boolean isAnimating() {
+            return bubbleManager.isAnimating()
+                    || splashScreen.active
+                    || mStepCountDisplay != mCurrentSteps
+                    || hasNewStepCount();
         }
 
-        @Override
-        public void onPropertiesChanged(Bundle properties) {
-            super.onPropertiesChanged(properties);
-//            mLowBitAmbient = properties.getBoolean(PROPERTY_LOW_BIT_AMBIENT, false);
-//            mBurnInProtection = properties.getBoolean(PROPERTY_BURN_IN_PROTECTION, false);
+        /**
+         * Returns whether the step sensors have counted on since the simulation last looked,
+         * or it hasn't looked yet this glance.
+         */
+        private boolean hasNewStepCount() {
+            int stepCount = mLiveStepCount;
+            return stepCount >= 0 && (stepCount != mStepCountSeen || !mWereStepCountsUpdatedThisGlance);
         }
 
+        // Takes in the latest step count, if it moved on. Must hold mSimulationLock.
+        private void pickUpStepCount() {
+            if (!hasNewStepCount()) return;
+            if (DEBUG_LOGS) Log.v(TAG, "Triggered updateStepCounts()");
+            boolean glanceStart = !mWereStepCountsUpdatedThisGlance;
+            mStepCountSeen = mLiveStepCount;
+            mWereStepCountsUpdatedThisGlance = true;
+            updateStepCounts(mStepCountSeen, glanceStart);
+        }
 
+        private boolean mStepSensorsLive;
 
+        private void registerStepSensors() {
+            if (mStepSensorsLive) return;
+            mStepSensorsLive = true;
+            mSensorStepDetector.subscribe();
+            updateStepCounterLatency();
+        }
 
+        /**
+         * While the screen is off the step counter stays registered, batched in the FIFO
+         * without waking the CPU, so the count is at hand on the next ambient tick or glance
+         * rather than waiting for the first reading of a new registration. The detector only
+         * matters for live updates, it goes. The counter is batched once no engine counts
+         * live anymore.
+         */
+        private void batchStepSensors() {
+            if (!mStepSensorsLive) return;
+            mStepSensorsLive = false;
+            mSensorStepDetector.unsubscribe();
+            updateStepCounterLatency();
+        }
 
+        private void unregisterStepSensors() {
+            batchStepSensors();
+            mSensorStep.unsubscribe();
+        }
 
+        private volatile boolean mMotionSensorsSubscribed;  // readings are only fanned out to engines subscribed to them
 
+        private void registerMotionSensors() {
+            if (mMotionSensorsSubscribed) return;
+            mMotionSensorsSubscribed = true;
+            if (mUseFusedSensors) {
+                mSensorGravity.subscribe();
+                mSensorLinearAcceleration.subscribe();
+            } else {
+                mSensorAccelerometer.subscribe();
+            }
+        }
 
-        private class TimeManager {
+        private void unregisterMotionSensors() {
+            if (!mMotionSensorsSubscribed) return;
+            mMotionSensorsSubscribed = false;
+            if (mUseFusedSensors) {
+                mSensorGravity.unsubscribe();
+                mSensorLinearAcceleration.unsubscribe();
+            } else {
+                mSensorAccelerometer.unsubscribe();
+            }
+        }
 
-            private static final boolean DEBUG_FAKE_TIME = RANDOM_TIME_PER_GLANCE;
-            private final long DEBUG_FAKE_TIME_INC = TimeUnit.MINUTES.toMillis(RANDOM_MINUTES_INC);
-            private static final long DAY_IN_MILLIS = 86400000;
+        /**
+         * Called on the sensor thread for every accelerometer, gravity or linear acceleration
+         * reading.
+         */
+        void onMotionSample(int type, long timestampNanos, float[] values) {
+            if (!mMotionSensorsSubscribed) return;
+            switch (type) {
+                case Sensor.TYPE_ACCELEROMETER:
+                    mAccelerometerRing.offer(values, timestampNanos);
+                    break;
+                case Sensor.TYPE_GRAVITY:
+                    mGravityRing.offer(values, timestampNanos);
+                    break;
+                case Sensor.TYPE_LINEAR_ACCELERATION:
+                    mLinearAccelerationRing.offer(values, timestampNanos);
+                    break;
+            }
+            onMotion();
+        }
 
-            private static final boolean FAKE_START_TIME = DEBUG_FAKE_START_TIME;
-            private static final int     FAKE_START_HOUR = DEBUG_FAKE_START_HOUR;
-            private static final int     FAKE_START_MINUTE = DEBUG_FAKE_START_MINUTE;
+        /**
+         * Called on the sensor thread on every new sensor reading. If the timer was parked
+         * because the bubbles had settled, have the simulation thread check whether the new
+         * readings get things moving again.
+         */
+        void onMotion() {
+            // A FIFO batch arrives as a burst of readings, it only needs checking once
+            if (mTimerParked && !mWakeCheckPosted) {
+                mWakeCheckPosted = true;
+                mSimulationHandler.post(mWakeCheck);
+            }
+        }
 
+        private volatile boolean mWakeCheckPosted;
+        private final Runnable mWakeCheck = new Runnable() {
+            @Override
+            public void run() {
+                mWakeCheckPosted = false;  // readings after this point post again
+                boolean animating;
+                synchronized (mSimulationLock) {
+                    drainSensors();
+                    animating = isAnimating();
+                }
+                if (animating && mTimerParked) {
+                    if (DEBUG_LOGS) Log.v(TAG, "Waking up parked timer");
+                    mMainHandler.sendEmptyMessage(MSG_UPDATE_TIMER);
+                }
+            }
+        };
 
+        // Feeds the readings buffered since the last step through the filters into the
+        // histories, and estimates them at the current time. Must hold mSimulationLock.
+        private void drainSensors() {
+            while (mAccelerometerRing.poll(mAccelerometerSample)) {
+                addMotionSample(Sensor.TYPE_ACCELEROMETER, mAccelerometerSample, mAccelerometerRing.timestamp);
+            }
+            while (mGravityRing.poll(mMotionSample)) {
+                addMotionSample(Sensor.TYPE_GRAVITY, mMotionSample, mGravityRing.timestamp);
+            }
+            while (mLinearAccelerationRing.poll(mMotionSample)) {
+                addMotionSample(Sensor.TYPE_LINEAR_ACCELERATION, mMotionSample, mLinearAccelerationRing.timestamp);
+            }
 
-            private Time currentTime;
-            public int year, month, monthDay, hour, minute, second;
+            long frameTimeNanos = System.nanoTime();
+            mSensorTimeOffsetNanos = SystemClock.elapsedRealtimeNanos() - frameTimeNanos;
+            estimateMotion(frameTimeNanos);
+        }
 
-            private boolean overnightReset;
-            private int overnightResetHour;
-            private Time nextResetTime;
+        // Feeds a reading through the filters into the histories. Must hold mSimulationLock.
+        private void addMotionSample(int type, float[] values, long timestampNanos) {
+            switch (type) {
+                case Sensor.TYPE_ACCELEROMETER:
+                    updateGravity(values, timestampNanos);
+                    mGravityHistory.add(mFilteredGravity, timestampNanos);
+                    mLinearAccelerationHistory.add(mFilteredLinearAcceleration, timestampNanos);
+                    break;
+                // Fused readings are already filtered
+                case Sensor.TYPE_GRAVITY:
+                    mGravityHistory.add(values, timestampNanos);
+                    break;
+                case Sensor.TYPE_LINEAR_ACCELERATION:
+                    mLinearAccelerationHistory.add(values, timestampNanos);
+                    break;
+            }
+        }
 
-            TimeManager() {
-                overnightReset = false;
-                overnightResetHour = 0;
+        /**
+         * Debug: steps the simulation straight from a recorded sensor trace, as fast as it will
+         * go and in the trace's own timebase. Motion readings go into the histories as they
+         * come up, and a step is taken every SIMULATION_STEP_MS of trace time, but only while
+         * the face was interactive and something was animating, as the frame pump would have.
+         * Runs on the simulation thread in place of the frames, which queue up behind it, and
+         * leaves the bubbles where the trace took them.
+         */
+        private void replaySensorTrace(File file) {
+            SensorTraceReader reader = new SensorTraceReader(file);
+            if (!reader.isValid()) return;
+
+            long stepNanos = TimeUnit.MILLISECONDS.toNanos(SIMULATION_STEP_MS);
+            long nextStepNanos = 0;  // 0 while parked or not interactive
+            boolean visible = true, ambient = false;
+            long firstNanos = 0, lastNanos = 0;
+            int readings = 0, steps = 0;
+            long startNanos = System.nanoTime();
+
+            synchronized (mSimulationLock) {
+                mSensorTimeOffsetNanos = 0;  // the frame and sensor timebases are both the trace's
+            }
+            while (reader.next()) {
+                if (firstNanos == 0) firstNanos = reader.timestamp;
+                lastNanos = reader.timestamp;
+
+                synchronized (mSimulationLock) {
+                    // Catch the simulation up to this record
+                    while (nextStepNanos != 0 && nextStepNanos <= reader.timestamp) {
+                        updateSimulation(mSimulationClock.advance(nextStepNanos));
+                        steps++;
+                        nextStepNanos = isAnimating() ? nextStepNanos + stepNanos : 0;
+                    }
 
-                currentTime = new Time();
-                currentTime.setToNow();
+                    if (reader.kind == SensorTraceRecorder.RECORD_LIFECYCLE) {
+                        switch (reader.event) {
+                            case SensorTraceRecorder.VISIBLE:
+                            case SensorTraceRecorder.INVISIBLE:
+                                visible = reader.event == SensorTraceRecorder.VISIBLE;
+                                break;
+                            case SensorTraceRecorder.AMBIENT_ON:
+                            case SensorTraceRecorder.AMBIENT_OFF:
+                                ambient = reader.event == SensorTraceRecorder.AMBIENT_ON;
+                                break;
+                        }
+                        if (!visible || ambient) nextStepNanos = 0;
 
-                if (FAKE_START_TIME) {
-                    currentTime.setToNow();
-                    currentTime.set(currentTime.second, FAKE_START_MINUTE, FAKE_START_HOUR,
-                            currentTime.monthDay, currentTime.month, currentTime.year);
-                    updateFields();
-                } else {
-                    setToNow();
+                    } else {
+                        addMotionSample(reader.type, reader.values, reader.timestamp);
+                        readings++;
+
+                        // The wake check: does this reading get things moving again?
+                        if (nextStepNanos == 0 && visible && !ambient) {
+                            estimateMotion(reader.timestamp);
+                            if (isAnimating()) {
+                                mSimulationClock.reset();
+                                nextStepNanos = reader.timestamp;
+                            }
+                        }
+                    }
                 }
             }
 
-            public void setToNow() {
-                if (!DEBUG_FAKE_TIME) {
-                    currentTime.setToNow();
-                }
-
-                updateFields();
-                if (overnightReset) resetCheck();
+            synchronized (mSimulationLock) {
+                // Back to the live sensors and frames, from scratch
+                mGravityHistory.clear();
+                mLinearAccelerationHistory.clear();
+                mLastAccelerometerTimestamp = 0;
+                mSimulationClock.reset();
+                publishSnapshot(1);
             }
+            postInvalidate();
+            Log.i(TAG, "Replayed " + readings + " sensor readings over "
+                    + TimeUnit.NANOSECONDS.toSeconds(lastNanos - firstNanos) + "s of trace, "
+                    + steps + " steps in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) + "ms");
+        }
 
-            public void setTimeZone(Intent intent) {
-                if (!DEBUG_FAKE_TIME) {
-                    currentTime.clear(intent.getStringExtra("time-zone"));
-                    currentTime.setToNow();
-                }
+        // Sets the motion readings to their estimate at a time in the frame timebase. Must hold mSimulationLock.
+        private void estimateMotion(long frameTimeNanos) {
+            long timeNanos = frameTimeNanos + mSensorTimeOffsetNanos;
+            mGravityHistory.estimate(timeNanos, gravity);
+            mLinearAccelerationHistory.estimate(timeNanos, linear_acceleration);
+        }
 
-                updateFields();
-                if (overnightReset) resetCheck();
-            }
+        void updateGravity(float[] values, long timestampNanos) {
+            // alpha is calculated as t / (t + dT), where t is the low-pass filter's
+            // time-constant and dT the actual interval since the previous sample, so
+            // batched or irregular delivery doesn't change the response. After a long gap
+            // (like between glances) alpha goes to 0 and gravity jumps to the new reading.
+            if (timestampNanos <= mLastAccelerometerTimestamp) return;  // repeated sample
+            float dt = mLastAccelerometerTimestamp == 0 ? Float.MAX_VALUE
+                    : (timestampNanos - mLastAccelerometerTimestamp) / 1e9f;
+            mLastAccelerometerTimestamp = timestampNanos;
+            final float alpha = GRAVITY_TIME_CONSTANT / (GRAVITY_TIME_CONSTANT + dt);
+
+            // Isolate the force of gravity with the low-pass filter.
+            mFilteredGravity[0] = alpha * mFilteredGravity[0] + (1 - alpha) * values[0];
+            mFilteredGravity[1] = alpha * mFilteredGravity[1] + (1 - alpha) * values[1];
+            mFilteredGravity[2] = alpha * mFilteredGravity[2] + (1 - alpha) * values[2];
+
+            // Remove the gravity contribution with the high-pass filter.
+            mFilteredLinearAcceleration[0] = values[0] - mFilteredGravity[0];
+            mFilteredLinearAcceleration[1] = values[1] - mFilteredGravity[1];
+            mFilteredLinearAcceleration[2] = values[2] - mFilteredGravity[2];
+        }
 
-            public void addRandomInc() {
-                long rInc = (long) (DEBUG_FAKE_TIME_INC * Math.random());
-                if (DEBUG_LOGS) Log.v(TAG, "Adding randomInc: " + rInc);
+        @Override
+        public void onPeekCardPositionUpdate(Rect rect) {
+            super.onPeekCardPositionUpdate(rect);
+//            mCardBounds.set(rect);
+        }
 
-                currentTime.set(currentTime.toMillis(false) + rInc);
+        @Override
+        public void onPropertiesChanged(Bundle properties) {
+            super.onPropertiesChanged(properties);
+//            mLowBitAmbient = properties.getBoolean(PROPERTY_LOW_BIT_AMBIENT, false);
+//            mBurnInProtection = properties.getBoolean(PROPERTY_BURN_IN_PROTECTION, false);
+        }
 
-                updateFields();
-                if (overnightReset) resetCheck();
+        /**
+         * Drives interactive frames off the display vsync instead of a wall-clock Handler loop.
+         * A frame is rendered every {@link #vsyncsPerFrame} vsyncs, as set by the
+         * {@link #mFramePolicy}, and frames that miss their deadline are counted, whether the
+         * vsync came in late or onDraw() ran over budget.
+         */
+        private class FramePump implements Choreographer.FrameCallback {
+
+            Choreographer choreographer;
+            long vsyncPeriodNanos;
+            long frameIntervalMs;
+            int vsyncsPerFrame;
+            boolean running;
+
+            long lastFrameTimeNanos;
+            long drawStartNanos;
+            int frameCount, droppedFrameCount, overrunFrameCount;
+
+            long wakeNanos;  // when the current glance started, 0 once its first frame is drawn
+            int wakeCount;
+            long wakeLatencyTotalNanos, wakeLatencyMaxNanos;
+
+            FramePump() {
+                choreographer = Choreographer.getInstance();
+
+                float refreshRate = ((WindowManager) getSystemService(Context.WINDOW_SERVICE))
+                        .getDefaultDisplay().getRefreshRate();
+                vsyncPeriodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / refreshRate);
+                if (DEBUG_LOGS) Log.v(TAG, "FramePump: " + refreshRate + "Hz display");
+                setFrameInterval(FRAME_INTERVAL_NORMAL_MS);
             }
 
-            public void resetCheck() {
-                if (currentTime.after(nextResetTime)) {
-                    nextResetTime = computeNextResetTime();
-                    if (DEBUG_LOGS) Log.v(TAG, "Reset check: true");
-                    onReset();
-                }
+            void setFrameInterval(long intervalMs) {
+                frameIntervalMs = intervalMs;
+                vsyncsPerFrame = Math.max(1, Math.round(
+                        (float) TimeUnit.MILLISECONDS.toNanos(intervalMs) / vsyncPeriodNanos));
+                if (DEBUG_LOGS) Log.v(TAG, "FramePump: rendering every " + vsyncsPerFrame + " vsyncs");
             }
 
-            public void onReset() { Log.v(TAG, "onReset"); }
+            void start() {
+                if (running) return;
+                running = true;
+                lastFrameTimeNanos = 0;
 
-            public void setOvernightResetHour(int hour_) {
-                overnightReset = true;
-                overnightResetHour = hour_;
-                nextResetTime = computeNextResetTime();
+                // Publish the scene as it is now, so the first frame of a glance isn't stale
+                synchronized (mSimulationLock) {
+                    mSimulationClock.reset();
+                    mFramePolicy.reset();
+                    publishSnapshot(1);
+                }
+                setFrameInterval(mFramePolicy.frameIntervalMs);
+                choreographer.postFrameCallback(this);
+            }
+
+            void stop() {
+                if (!running) return;
+                running = false;
+                choreographer.removeFrameCallback(this);
             }
 
-            private Time computeNextResetTime() {
-                Time resetTime = new Time();
-                resetTime.set(0, 0, overnightResetHour, monthDay, month, year);  // Set to today's reset time
+            @Override
+            public void doFrame(long frameTimeNanos) {
+                if (!running) return;
+
+                if (lastFrameTimeNanos != 0) {
+                    long vsyncs = Math.round((double) (frameTimeNanos - lastFrameTimeNanos) / vsyncPeriodNanos);
+                    if (vsyncs < vsyncsPerFrame) {
+                        // woke up early, wait for the right vsync
+                        choreographer.postFrameCallback(this);
+                        return;
+                    }
+                    long missed = vsyncs / vsyncsPerFrame - 1;
+                    if (missed > 0) {
+                        droppedFrameCount += missed;
+                        if (DEBUG_LOGS) Log.w(TAG, "Dropped " + missed + " frame(s), "
+                                + droppedFrameCount + "/" + frameCount + " so far");
+                    }
+                }
+                lastFrameTimeNanos = frameTimeNanos;
+                frameCount++;
+
+                // Step the scene off the UI thread, it invalidates once the snapshot is published
+                mSimulationFrameTimeNanos = frameTimeNanos;
+                if (!mSimulationStepPosted) {
+                    // A step still queued behind a slow one will pick up this frame's time
+                    mSimulationStepPosted = true;
+                    mSimulationHandler.post(mSimulationStep);
+                }
 
-                // If already past, add a day
-                if (currentTime.after(resetTime)) {
-                    resetTime.set(resetTime.toMillis(false) + DAY_IN_MILLIS);
+                // Decide on the latest published step, one frame behind the one just requested
+                boolean animating;
+                long intervalMs;
+                synchronized (mSnapshotLock) {
+                    animating = mFrontSnapshot.animating;
+                    intervalMs = mFrontSnapshot.frameIntervalMs;
                 }
 
-                if (DEBUG_LOGS) Log.v(TAG, "Next reset time: " + resetTime.format2445());
+                if (!shouldTimerBeRunning()) {
+                    stop();
+                } else if (!animating) {
+                    parkTimer();
+                } else {
+                    if (intervalMs != frameIntervalMs) setFrameInterval(intervalMs);
 
-                return resetTime;
+                    // sleep until half a vsync before the one we want to render on
+                    long delayNanos = (2 * vsyncsPerFrame - 1) * vsyncPeriodNanos / 2;
+                    choreographer.postFrameCallbackDelayed(this, TimeUnit.NANOSECONDS.toMillis(delayNanos));
+                }
             }
 
-            private void updateFields() {
-                year = currentTime.year;
-                month = currentTime.month;
-                monthDay = currentTime.monthDay;
-                hour = currentTime.hour;
-                minute = currentTime.minute;
-                second = currentTime.second;
+            void onDrawStart() {
+                drawStartNanos = System.nanoTime();
             }
 
-            public void toDebugLog() {
-                Log.v(TAG, "--> Curr time: " + currentTime.format2445());
+            void onDrawEnd() {
+                long drawNanos = System.nanoTime() - drawStartNanos;
+                if (drawNanos > vsyncsPerFrame * vsyncPeriodNanos) {
+                    overrunFrameCount++;
+                    if (DEBUG_LOGS) Log.w(TAG, "onDraw() overran its frame: "
+                            + TimeUnit.NANOSECONDS.toMillis(drawNanos) + "ms, "
+                            + overrunFrameCount + "/" + frameCount + " so far");
+                }
+
+                if (wakeNanos != 0 && !mAmbient) {
+                    long latencyNanos = System.nanoTime() - wakeNanos;
+                    wakeNanos = 0;
+                    wakeCount++;
+                    wakeLatencyTotalNanos += latencyNanos;
+                    wakeLatencyMaxNanos = Math.max(wakeLatencyMaxNanos, latencyNanos);
+                    if (DEBUG_LOGS) Log.v(TAG, "Wake to first frame: "
+                            + TimeUnit.NANOSECONDS.toMillis(latencyNanos) + "ms");
+                }
             }
 
+            // Starts timing a glance, up to the end of its first interactive onDraw()
+            void onWake() {
+                wakeNanos = System.nanoTime();
+            }
 
+            void toDebugLog() {
+                Log.v(TAG, "--> Frames: " + frameCount + ", dropped: " + droppedFrameCount
+                        + ", overran: " + overrunFrameCount);
+                if (wakeCount > 0) {
+                    Log.v(TAG, "--> Wake to first frame avg: "
+                            + TimeUnit.NANOSECONDS.toMillis(wakeLatencyTotalNanos / wakeCount) + "ms, max: "
+                            + TimeUnit.NANOSECONDS.toMillis(wakeLatencyMaxNanos) + "ms over " + wakeCount + " glances");
+                }
+            }
         }
 
 
@@ -691,29 +1501,237 @@ public class CoubertinWatchFaceService extends CanvasWatchFaceService implements
 
 
 
+        private class TimeManager {
 
-        private void updateStepCounts() {
+            private static final long MINUTE_MILLIS = 60 * 1000;
+            private static final long HOUR_MILLIS   = 60 * MINUTE_MILLIS;
+            private static final long DAY_MILLIS    = 24 * HOUR_MILLIS;
 
-            if (firstLoad) {
-                firstLoad = false;
-                mStepBuffer = (int) mSensorStep.values[0];
-                mPrevSteps = 0;
-                mCurrentSteps = 0;
-                bubbleManager.updateSteps(mCurrentSteps);
-                return;
-            }
+            private final Clock clock;
+            private TimeZone zone = TimeZone.getDefault();
+            private long zoneOffset;                         // local minus UTC, refreshed each minute
+            private long millis;
+            private long localDayStart;                      // local midnight, in local millis
+            private long minuteStart, nextMinute;            // UTC span the fields below are good for
+            public int year, month, monthDay, hour, minute, second;
 
-            if (DEBUG_LOGS) Log.v(TAG, "mPrevSteps: " + mPrevSteps);
-            if (DEBUG_LOGS) Log.v(TAG, "mCurrentSteps: " + mCurrentSteps);
+            private final PriorityQueue<TimeEvent> events = new PriorityQueue<>();
+            private long nextEventTime = Long.MAX_VALUE;
+            private long scheduledAfter;  // events are all due after this, unless the clock went back
 
-            mPrevSteps = mCurrentSteps;
+            TimeManager(Clock clock_) {
+                clock = clock_;
+                setToNow();
+            }
 
-            if (GENERATE_FAKE_STEPS) {
-                int fakeSteps = (int) (RANDOM_FAKE_STEPS * Math.random());
-                if (DEBUG_LOGS) Log.v(TAG, "Generating fake steps: " + fakeSteps);
-                mCurrentSteps += fakeSteps;
+            public void setToNow() {
+                millis = clock.currentTimeMillis();
+                tick();
+            }
 
-            } else if (DEBUG_FAKE_SCRIPTED_RINGS) {
+            // Per frame this is a compare against the current minute, the calendar fields are only
+            // worked out again once the clock leaves it (or jumps backwards)
+            private void tick() {
+                if (millis >= nextMinute || millis < minuteStart) {
+                    updateFields();
+                    if (millis < scheduledAfter) rescheduleEvents();  // set back, they'd fire late
+                } else {
+                    second = (int) ((millis - minuteStart) / 1000);
+                }
+                if (millis >= nextEventTime) dispatchEvents();
+            }
+
+            public void setTimeZone(Intent intent) {
+                String timeZone = intent.getStringExtra("time-zone");
+                zone = timeZone != null ? TimeZone.getTimeZone(timeZone) : TimeZone.getDefault();
+                millis = clock.currentTimeMillis();
+
+                updateFields();
+                rescheduleEvents();  // wall-clock instants moved
+                if (millis >= nextEventTime) dispatchEvents();
+            }
+
+            public void onReset() { Log.v(TAG, "onReset"); }
+
+            // When the current minute ends, keep a copy to tell when the hour and minute have moved on
+            public long nextMinute() {
+                return nextMinute;
+            }
+
+            public void setOvernightResetHour(int hour_) {
+                schedule(new DailyEvent(hour_, 0) {
+                    @Override
+                    void onTime() {
+                        if (DEBUG_LOGS) Log.v(TAG, "Reset check: true");
+                        onReset();
+                    }
+                });
+            }
+
+            public void schedule(TimeEvent event) {
+                event.time = nextTime(event);
+                events.add(event);
+                nextEventTime = events.peek().time;
+                scheduledAfter = millis;
+            }
+
+            // Fires everything due, each event at most once however far the clock jumped
+            private void dispatchEvents() {
+                while (!events.isEmpty() && events.peek().time <= millis) {
+                    TimeEvent event = events.poll();
+                    event.onTime();
+                    event.time = nextTime(event);
+                    events.add(event);
+                }
+                nextEventTime = events.isEmpty() ? Long.MAX_VALUE : events.peek().time;
+                scheduledAfter = millis;
+            }
+
+            private void rescheduleEvents() {
+                List<TimeEvent> pending = new ArrayList<>(events);
+                events.clear();
+                for (TimeEvent event : pending) {
+                    event.time = nextTime(event);
+                    events.add(event);
+                }
+                nextEventTime = events.isEmpty() ? Long.MAX_VALUE : events.peek().time;
+                scheduledAfter = millis;
+            }
+
+            private long nextTime(TimeEvent event) {
+                long next = toUtc(event.nextLocalTime(localDayStart, millis + zoneOffset));
+                return Math.max(next, millis + 1);  // DST fallbacks may repeat an hour
+            }
+
+            // The instant of the given wall-clock time today, for setting the debug clocks
+            public long todayAt(int hour_, int minute_, int second_) {
+                return toUtc(localDayStart + hour_ * HOUR_MILLIS + minute_ * MINUTE_MILLIS + second_ * 1000L);
+            }
+
+            // Local wall-clock millis to UTC, using the offset in force at that instant
+            private long toUtc(long local) {
+                return local - zone.getOffset(local - zoneOffset);
+            }
+
+            // Offsets only change on minute boundaries, so everything here holds until nextMinute
+            private void updateFields() {
+                zoneOffset = zone.getOffset(millis);
+                long local = millis + zoneOffset;
+                long days = local / DAY_MILLIS;
+                if (local % DAY_MILLIS < 0) days--;
+                localDayStart = days * DAY_MILLIS;
+
+                int dayMillis = (int) (local - localDayStart);
+                hour = (int) (dayMillis / HOUR_MILLIS);
+                minute = (int) (dayMillis / MINUTE_MILLIS % 60);
+                second = dayMillis / 1000 % 60;
+                minuteStart = millis - dayMillis % MINUTE_MILLIS;
+                nextMinute = minuteStart + MINUTE_MILLIS;
+
+                // Civil date from days since the epoch, counting years from March so leap days fall last
+                long z = days + 719468;
+                long era = (z >= 0 ? z : z - 146096) / 146097;
+                int dayOfEra = (int) (z - era * 146097);
+                int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+                int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+                int m = (5 * dayOfYear + 2) / 153;
+                monthDay = dayOfYear - (153 * m + 2) / 5 + 1;
+                month = m < 10 ? m + 2 : m - 10;  // 0-based, like Time
+                year = (int) (era * 400) + yearOfEra + (month < 2 ? 1 : 0);
+            }
+
+            public void toDebugLog() {
+                Log.v(TAG, "--> Curr time: " + String.format("%04d%02d%02dT%02d%02d%02d",
+                        year, month + 1, monthDay, hour, minute, second));
+            }
+
+
+        }
+
+
+        /**
+         * Something to be done at a wall-clock instant. The TimeManager queues these by their
+         * next firing time, so checking the time each frame only compares against the earliest
+         * one; once fired an event is rescheduled to its next occurrence.
+         */
+        private abstract class TimeEvent implements Comparable<TimeEvent> {
+            long time;
+
+            // First occurrence strictly after nowLocal, both in local wall-clock millis
+            abstract long nextLocalTime(long localDayStart, long nowLocal);
+
+            abstract void onTime();
+
+            @Override
+            public int compareTo(TimeEvent other) {
+                return time < other.time ? -1 : (time == other.time ? 0 : 1);
+            }
+        }
+
+        // Fires every hour at the given minute
+        private abstract class HourlyEvent extends TimeEvent {
+            final int minute;
+
+            HourlyEvent(int minute_) {
+                minute = minute_;
+            }
+
+            @Override
+            long nextLocalTime(long localDayStart, long nowLocal) {
+                long hourStart = nowLocal - (nowLocal - localDayStart) % TimeManager.HOUR_MILLIS;
+                long next = hourStart + minute * TimeManager.MINUTE_MILLIS;
+                return next > nowLocal ? next : next + TimeManager.HOUR_MILLIS;
+            }
+        }
+
+        // Fires every day at the given hour and minute
+        private abstract class DailyEvent extends TimeEvent {
+            final int hour, minute;
+
+            DailyEvent(int hour_, int minute_) {
+                hour = hour_;
+                minute = minute_;
+            }
+
+            @Override
+            long nextLocalTime(long localDayStart, long nowLocal) {
+                long next = localDayStart + hour * TimeManager.HOUR_MILLIS + minute * TimeManager.MINUTE_MILLIS;
+                return next > nowLocal ? next : next + TimeManager.DAY_MILLIS;
+            }
+        }
+
+
+
+
+
+
+
+
+
+        private void updateStepCounts(int stepCount, boolean glanceStart) {
+
+            if (firstLoad) {
+                firstLoad = false;
+                mStepBuffer = stepCount;
+                mPrevSteps = 0;
+                mCurrentSteps = 0;
+                bubbleManager.updateSteps(mCurrentSteps);
+                return;
+            }
+
+            if (DEBUG_LOGS) Log.v(TAG, "mPrevSteps: " + mPrevSteps);
+            if (DEBUG_LOGS) Log.v(TAG, "mCurrentSteps: " + mCurrentSteps);
+
+            if ((GENERATE_FAKE_STEPS || DEBUG_FAKE_SCRIPTED_RINGS) && !glanceStart) return;  // fake steps come once a glance
+
+            mPrevSteps = mCurrentSteps;
+
+            if (GENERATE_FAKE_STEPS) {
+                int fakeSteps = (int) (RANDOM_FAKE_STEPS * Math.random());
+                if (DEBUG_LOGS) Log.v(TAG, "Generating fake steps: " + fakeSteps);
+                mCurrentSteps += fakeSteps;
+
+            } else if (DEBUG_FAKE_SCRIPTED_RINGS) {
                 if (DEBUG_LOGS) Log.v(TAG, "DEBUG_FAKE_SCRIPTED_RINGS: " + DEBUG_FAKE_SCRIPTED_RINGS
                         + " mDebugScriptGlance: " + mDebugScriptGlance
                         + " mDebugScriptStage: " + mDebugScriptStage);
@@ -724,12 +1742,11 @@ public class CoubertinWatchFaceService extends CanvasWatchFaceService implements
 
                     } else if (mDebugScriptStage >= DEBUG_FAKE_SCRIPTED_RINGS_STAGES.length) {
                         // RESET
-                        mStepBuffer = (int) mSensorStep.values[0];
+                        mStepBuffer = stepCount;
                         mPrevSteps = 0;
                         mCurrentSteps = 0;
                         bubbleManager.clearBubbles();
-                        bubbleManager.prevSteps = 0;
-                        bubbleManager.currentSteps = 0;
+                        bubbleManager.resetSteps();
                         mDebugScriptStage = -1;
 
                     } else {
@@ -743,7 +1760,9 @@ public class CoubertinWatchFaceService extends CanvasWatchFaceService implements
                 }
 
             } else {
-                mCurrentSteps = (int) mSensorStep.values[0] - mStepBuffer;  // read from the sensor
+                // Read from the sensors. The counter may settle below what the detector made of
+                // the same steps, the count only moves on once it catches up again.
+                mCurrentSteps = Math.max(mCurrentSteps, stepCount - mStepBuffer);
             }
 
             int stepInc = mCurrentSteps - mPrevSteps;
@@ -752,29 +1771,15 @@ public class CoubertinWatchFaceService extends CanvasWatchFaceService implements
 
             if (stepInc > 0) {
                 bubbleManager.updateSteps(mCurrentSteps);
-
-            // Sometimes the sensor yields a repeated reading
-            } else {
-                mWereStepCountsUpdatedThisGlance = false;
             }
 
 
         }
 
         // http://stackoverflow.com/a/24969713/1934487
-        private void drawTextVerticallyCentered(Canvas canvas, Paint paint, String text, float cx, float cy) {
-            paint.getTextBounds(text, 0, text.length(), textBounds);
-            canvas.drawText(text, cx, cy - textBounds.exactCenterY(), paint);
-        }
-
-        private void drawFakeShadowedText(Canvas canvas, String txt, int x, int y, int radius,
-                                          Paint shadowPaint, Paint drawPaint) {
-            for (int i = x - radius; i <= x + radius; i++) {
-                for (int j = y - radius; j <= y + radius; j++) {
-                    canvas.drawText(txt, i, j, shadowPaint);
-                }
-            }
-            canvas.drawText(txt, x, y, drawPaint);
+        private void drawTextVerticallyCentered(Canvas canvas, Paint paint, char[] text, float cx, float cy) {
+            paint.getTextBounds(text, 0, text.length, textBounds);
+            canvas.drawText(text, 0, text.length, cx, cy - textBounds.exactCenterY(), paint);
         }
 
 
@@ -791,6 +1796,7 @@ public class CoubertinWatchFaceService extends CanvasWatchFaceService implements
         private class BubbleManager {
 
             private final static float ANIMATION_RATE   = 0.25f;
+            private final static float REST_MOTION_ENERGY = 0.25f;  // squared linear acceleration that gets bubbles moving
 
             private final static int STEP_RATIO_XBIG    = 10000;
             private final static int STEP_RATIO_MBIG    = 5000;
@@ -840,6 +1846,9 @@ public class CoubertinWatchFaceService extends CanvasWatchFaceService implements
 
             private int prevSteps, currentSteps;
             private int updateKeyframe;  // @TODO add explanation here
+            private boolean stepsPending;  // steps arrived since the running pass added its bubbles
+            private int totalSteps;  // as passed to updateSteps()
+            private int milestoneFrom, milestoneTo;  // step counts the running pass covers, to feature the bubbles crossing a milestone
 
 //            private float currentFriction;
 
@@ -874,140 +1883,219 @@ public class CoubertinWatchFaceService extends CanvasWatchFaceService implements
                 bubblePaintAmbient.setStyle(Paint.Style.STROKE);
             }
 
-            public void render(Canvas canvas) {
-                bubblesXSmall.render(canvas);
-                bubblesSmall.render(canvas);
-                bubblesMedium.render(canvas);
-                bubblesBig.render(canvas);
-                bubblesMBig.render(canvas);
-                bubblesXBig.render(canvas);
+            // Copies the bubbles into s in drawing order, interpolated by alpha
+            public void snapshot(SceneSnapshot s, float alpha) {
+                int previousCount = s.bubbleCount;
+                s.bubbleCount = 0;
+                s.ensureCapacity(bubblesXSmall.bubbles.size() + bubblesSmall.bubbles.size()
+                        + bubblesMedium.bubbles.size() + bubblesBig.bubbles.size()
+                        + bubblesMBig.bubbles.size() + bubblesXBig.bubbles.size());
+                bubblesXSmall.snapshot(s, alpha);
+                bubblesSmall.snapshot(s, alpha);
+                bubblesMedium.snapshot(s, alpha);
+                bubblesBig.snapshot(s, alpha);
+                bubblesMBig.snapshot(s, alpha);
+                bubblesXBig.snapshot(s, alpha);
+                s.releaseFrom(previousCount);
             }
 
             public void renderAmbient(Canvas canvas) {
                 if (lastBubble != null) lastBubble.renderAmbient(canvas, bubblePaintAmbient);
             }
 
-            public void update() {
-
-                switch (updateKeyframe) {
-                    // @TODO verify if bubble count is working on the long run
-                    case 1:
-                        bubblesXSmall.add((currentSteps % STEP_RATIO_SMALL) - bubblesXSmall.bubbles.size(), false, false, 0);
-                        int stepInc = currentSteps - prevSteps;
-                        currentSteps -= stepInc % STEP_RATIO_SMALL;  // account for the remainder of the division
-                        bubblesSmall.add(stepInc / STEP_RATIO_SMALL, false, false, 0);
-                        updateKeyframe++;
-                        break;
-                    case 2:
-                        boolean continueUpdating1 = bubblesXSmall.update() && bubblesSmall.update();
-                        if (!continueUpdating1) updateKeyframe++;
-                        break;
-                    case 3:
-                        int scaleRatioMS = STEP_RATIO_MEDIUM / STEP_RATIO_SMALL;
-                        int smallBubbleCount = bubblesSmall.bubbles.size();
-                        int newMediumBubbleCount = smallBubbleCount / scaleRatioMS;
-                        bubblesSmall.remove(newMediumBubbleCount * scaleRatioMS);
-                        bubblesMedium.add(newMediumBubbleCount, false, false, 0);
-                        updateKeyframe++;
-                        break;
-                    case 4:
-                        bubblesSmall.update();
-                        bubblesMedium.update();
-                        boolean continueUpdating3 =
-                                bubblesSmall.needsUpdate || bubblesMedium.needsUpdate;
-                        if (!continueUpdating3) updateKeyframe++;
-                        break;
-                    case 5:
-                        int scaleRatioBM = STEP_RATIO_BIG / STEP_RATIO_MEDIUM;
-                        int mediumBubbleCount = bubblesMedium.bubbles.size();
-                        int newBigBubbleCount = mediumBubbleCount / scaleRatioBM;
-                        bubblesMedium.remove(newBigBubbleCount * scaleRatioBM);
-                        bubblesBig.add(newBigBubbleCount, SHOW_BUBBLE_VALUE_TAGS,
-                                mPrevSteps < STEP_RATIO_BIG && mCurrentSteps >= STEP_RATIO_BIG, 0);
-                        updateKeyframe++;
-                        break;
-                    case 6:
-                        bubblesMedium.update();
-                        bubblesBig.update();
-                        boolean continueUpdating5 =
-                                bubblesMedium.needsUpdate || bubblesBig.needsUpdate;
-                        if (!continueUpdating5) updateKeyframe++;
-                        break;
-                    case 7:
-                        int scaleRatioBMB = STEP_RATIO_MBIG / STEP_RATIO_BIG;
-                        int bigBubbleCount = bubblesBig.bubbles.size();
-                        int newMBigBubbleCount = bigBubbleCount / scaleRatioBMB;
-                        bubblesBig.remove(newMBigBubbleCount * scaleRatioBMB);
-                        bubblesMBig.add(newMBigBubbleCount, SHOW_BUBBLE_VALUE_TAGS,
-                                mPrevSteps < STEP_RATIO_MBIG && mCurrentSteps >= STEP_RATIO_MBIG, 0);
-                        updateKeyframe++;
-                        break;
-                    case 8:
-                        bubblesBig.update();
-                        bubblesMBig.update();
-                        boolean continueUpdating6 =
-                                bubblesBig.needsUpdate || bubblesMBig.needsUpdate;
-                        if (!continueUpdating6) updateKeyframe++;  // stop animation transition
-                        break;
-                    case 9:
-                        int scaleRatioMBXB = STEP_RATIO_XBIG / STEP_RATIO_MBIG;
-                        int mBigBubbleCount = bubblesMBig.bubbles.size();
-                        int newXBigBubbleCount = mBigBubbleCount / scaleRatioMBXB;
-                        bubblesMBig.remove(newXBigBubbleCount * scaleRatioMBXB);
-                        bubblesXBig.add(newXBigBubbleCount, SHOW_BUBBLE_VALUE_TAGS,
-                                (mPrevSteps < STEP_RATIO_XBIG && mCurrentSteps >= STEP_RATIO_XBIG) ||  // 10k
-                                (mPrevSteps < 2 * STEP_RATIO_XBIG && mCurrentSteps >= 2 * STEP_RATIO_XBIG),  // 20k
-                                0);
-                        updateKeyframe++;
-                        break;
-                    case 10:
-                        bubblesMBig.update();
-                        bubblesXBig.update();
-                        boolean continueUpdating7 =
-                                bubblesMBig.needsUpdate || bubblesXBig.needsUpdate;
-                        if (!continueUpdating7) updateKeyframe = 0;  // stop animation transition
-                        break;
-
-                    // Nuke everything
-                    case 20:
-                        bubblesXSmall.remove(bubblesXSmall.bubbles.size());
-                        bubblesSmall.remove(bubblesSmall.bubbles.size());
-                        bubblesMedium.remove(bubblesMedium.bubbles.size());
-                        bubblesBig.remove(bubblesBig.bubbles.size());
-                        bubblesMBig.remove(bubblesMBig.bubbles.size());
-                        bubblesXBig.remove(bubblesXBig.bubbles.size());
-                        updateKeyframe++;
-                        break;
-                    case 21:
-                        bubblesXBig.update();
-                        bubblesMBig.update();
-                        bubblesBig.update();
-                        bubblesMedium.update();
-                        bubblesSmall.update();
-                        bubblesXSmall.update();
-                        boolean continueUpdating21 =
-                                bubblesXBig.needsUpdate ||
-                                bubblesMBig.needsUpdate ||
-                                bubblesBig.needsUpdate ||
-                                bubblesMedium.needsUpdate ||
-                                bubblesSmall.needsUpdate ||
-                                bubblesXSmall.needsUpdate;
-                        if (continueUpdating21) updateKeyframe = 1;  // add any buffered remaining bubbles
-                        break;
+            // Bubble sizes and colors catch up in closed form, positions are iterated
+            public void update(int steps) {
+                if (steps == 0) return;  // keep interpolating from the same previous step
+
+                // Catch up in closed form on the steps the physics won't iterate, then take the
+                // last ones one at a time, so the previous state rendering interpolates from is
+                // always a single step behind the current one
+                int physicsSteps = mSimulationClock.physicsSteps;
+                advanceCascade(steps - physicsSteps);
+                for (int i = 0; i < physicsSteps; i++) {
+                    savePrevious();
+                    advanceCascade(1);
+                    estimateMotion(mSimulationClock.physicsStepTimeNanos(i));
+                    updatePositions();
+                }
+                updateColors(steps);
+            }
 
-                    default:
-                        break;
+            /**
+             * Runs the merge cascade over a number of steps. Adding and removing bubbles takes a
+             * step per keyframe, while resizing them eases in closed form over all the steps left.
+             */
+            private void advanceCascade(int steps) {
+                while (steps > 0 && updateKeyframe != 0) {
+                    switch (updateKeyframe) {
+                        // @TODO verify if bubble count is working on the long run
+                        case 1:
+                            stepsPending = false;
+                            milestoneFrom = milestoneTo;
+                            milestoneTo = totalSteps;
+                            bubblesXSmall.add((currentSteps % STEP_RATIO_SMALL) - bubblesXSmall.bubbles.size(), false, false, 0);
+                            int stepInc = currentSteps - prevSteps;
+                            currentSteps -= stepInc % STEP_RATIO_SMALL;  // account for the remainder of the division
+                            bubblesSmall.add(stepInc / STEP_RATIO_SMALL, false, false, 0);
+                            updateKeyframe++;
+                            steps--;
+                            break;
+                        case 2:
+                            boolean continueUpdating1 = bubblesXSmall.update(steps) && bubblesSmall.update(steps);
+                            if (!continueUpdating1) updateKeyframe++;
+                            steps = 0;
+                            break;
+                        case 3:
+                            int scaleRatioMS = STEP_RATIO_MEDIUM / STEP_RATIO_SMALL;
+                            int smallBubbleCount = bubblesSmall.bubbles.size();
+                            int newMediumBubbleCount = smallBubbleCount / scaleRatioMS;
+                            bubblesSmall.remove(newMediumBubbleCount * scaleRatioMS);
+                            bubblesMedium.add(newMediumBubbleCount, false, false, 0);
+                            updateKeyframe++;
+                            steps--;
+                            break;
+                        case 4:
+                            bubblesSmall.update(steps);
+                            bubblesMedium.update(steps);
+                            boolean continueUpdating3 =
+                                    bubblesSmall.needsUpdate || bubblesMedium.needsUpdate;
+                            if (!continueUpdating3) updateKeyframe++;
+                            steps = 0;
+                            break;
+                        case 5:
+                            int scaleRatioBM = STEP_RATIO_BIG / STEP_RATIO_MEDIUM;
+                            int mediumBubbleCount = bubblesMedium.bubbles.size();
+                            int newBigBubbleCount = mediumBubbleCount / scaleRatioBM;
+                            bubblesMedium.remove(newBigBubbleCount * scaleRatioBM);
+                            bubblesBig.add(newBigBubbleCount, SHOW_BUBBLE_VALUE_TAGS,
+                                    milestoneFrom < STEP_RATIO_BIG && milestoneTo >= STEP_RATIO_BIG, 0);
+                            updateKeyframe++;
+                            steps--;
+                            break;
+                        case 6:
+                            bubblesMedium.update(steps);
+                            bubblesBig.update(steps);
+                            boolean continueUpdating5 =
+                                    bubblesMedium.needsUpdate || bubblesBig.needsUpdate;
+                            if (!continueUpdating5) updateKeyframe++;
+                            steps = 0;
+                            break;
+                        case 7:
+                            int scaleRatioBMB = STEP_RATIO_MBIG / STEP_RATIO_BIG;
+                            int bigBubbleCount = bubblesBig.bubbles.size();
+                            int newMBigBubbleCount = bigBubbleCount / scaleRatioBMB;
+                            bubblesBig.remove(newMBigBubbleCount * scaleRatioBMB);
+                            bubblesMBig.add(newMBigBubbleCount, SHOW_BUBBLE_VALUE_TAGS,
+                                    milestoneFrom < STEP_RATIO_MBIG && milestoneTo >= STEP_RATIO_MBIG, 0);
+                            updateKeyframe++;
+                            steps--;
+                            break;
+                        case 8:
+                            bubblesBig.update(steps);
+                            bubblesMBig.update(steps);
+                            boolean continueUpdating6 =
+                                    bubblesBig.needsUpdate || bubblesMBig.needsUpdate;
+                            if (!continueUpdating6) updateKeyframe++;  // stop animation transition
+                            steps = 0;
+                            break;
+                        case 9:
+                            int scaleRatioMBXB = STEP_RATIO_XBIG / STEP_RATIO_MBIG;
+                            int mBigBubbleCount = bubblesMBig.bubbles.size();
+                            int newXBigBubbleCount = mBigBubbleCount / scaleRatioMBXB;
+                            bubblesMBig.remove(newXBigBubbleCount * scaleRatioMBXB);
+                            bubblesXBig.add(newXBigBubbleCount, SHOW_BUBBLE_VALUE_TAGS,
+                                    (milestoneFrom < STEP_RATIO_XBIG && milestoneTo >= STEP_RATIO_XBIG) ||  // 10k
+                                    (milestoneFrom < 2 * STEP_RATIO_XBIG && milestoneTo >= 2 * STEP_RATIO_XBIG),  // 20k
+                                    0);
+                            updateKeyframe++;
+                            steps--;
+                            break;
+                        case 10:
+                            bubblesMBig.update(steps);
+                            bubblesXBig.update(steps);
+                            boolean continueUpdating7 =
+                                    bubblesMBig.needsUpdate || bubblesXBig.needsUpdate;
+                            if (!continueUpdating7) updateKeyframe = stepsPending ? 1 : 0;  // stop animation transition, unless more steps came in
+                            steps = 0;
+                            break;
+
+                        // Nuke everything
+                        case 20:
+                            bubblesXSmall.remove(bubblesXSmall.bubbles.size());
+                            bubblesSmall.remove(bubblesSmall.bubbles.size());
+                            bubblesMedium.remove(bubblesMedium.bubbles.size());
+                            bubblesBig.remove(bubblesBig.bubbles.size());
+                            bubblesMBig.remove(bubblesMBig.bubbles.size());
+                            bubblesXBig.remove(bubblesXBig.bubbles.size());
+                            updateKeyframe++;
+                            steps--;
+                            break;
+                        case 21:
+                            bubblesXBig.update(steps);
+                            bubblesMBig.update(steps);
+                            bubblesBig.update(steps);
+                            bubblesMedium.update(steps);
+                            bubblesSmall.update(steps);
+                            bubblesXSmall.update(steps);
+                            boolean continueUpdating21 =
+                                    bubblesXBig.needsUpdate ||
+                                    bubblesMBig.needsUpdate ||
+                                    bubblesBig.needsUpdate ||
+                                    bubblesMedium.needsUpdate ||
+                                    bubblesSmall.needsUpdate ||
+                                    bubblesXSmall.needsUpdate;
+                            if (continueUpdating21) updateKeyframe = 1;  // add any buffered remaining bubbles
+                            steps = 0;
+                            break;
+
+                        default:
+                            steps = 0;
+                            break;
+                    }
                 }
+            }
 
+            public boolean isCascading() {
+                return updateKeyframe != 0;
+            }
 
+            // Is the wrist moving enough to get the bubbles going?
+            public boolean isShaken() {
+                return linear_acceleration[0] * linear_acceleration[0]
+                        + linear_acceleration[1] * linear_acceleration[1]
+                        + linear_acceleration[2] * linear_acceleration[2] > REST_MOTION_ENERGY;
+            }
 
-                updatePositions();
+            public boolean isAnimating() {
+                if (isCascading() || isShaken()) return true;
+                return bubblesXBig.isAnimating()
+                        || bubblesMBig.isAnimating()
+                        || bubblesBig.isAnimating()
+                        || bubblesMedium.isAnimating()
+                        || bubblesSmall.isAnimating()
+                        || bubblesXSmall.isAnimating();
             }
 
+            /**
+             * Steps can come in at any point of the cascade. They are added on top of those
+             * still pending, without restarting it: the running pass carries on merging the
+             * bubbles it has added, and a new one starts from the top once it is done.
+             */
             public void updateSteps(int currentSteps_) {
-                prevSteps = currentSteps;
+                if (!stepsPending) prevSteps = currentSteps;
                 currentSteps = currentSteps_;
-                updateKeyframe = 1;  // trigger size update chain
+                totalSteps = currentSteps_;
+                stepsPending = true;
+                if (updateKeyframe == 0) updateKeyframe = 1;  // trigger size update chain
+            }
+
+            public void resetSteps() {
+                prevSteps = 0;
+                currentSteps = 0;
+                totalSteps = 0;
+                milestoneFrom = 0;
+                milestoneTo = 0;
+                stepsPending = false;
             }
 
             public void updatePositions() {
@@ -1019,6 +2107,24 @@ public class CoubertinWatchFaceService extends CanvasWatchFaceService implements
                 bubblesXSmall.updatePositions();
             }
 
+            public void savePrevious() {
+                bubblesXBig.savePrevious();
+                bubblesMBig.savePrevious();
+                bubblesBig.savePrevious();
+                bubblesMedium.savePrevious();
+                bubblesSmall.savePrevious();
+                bubblesXSmall.savePrevious();
+            }
+
+            public void updateColors(int steps) {
+                bubblesXBig.updateColor(steps);
+                bubblesMBig.updateColor(steps);
+                bubblesBig.updateColor(steps);
+                bubblesMedium.updateColor(steps);
+                bubblesSmall.updateColor(steps);
+                bubblesXSmall.updateColor(steps);
+            }
+
             public void resetMotion() {
                 bubblesXBig.resetMotion();
                 bubblesMBig.resetMotion();
@@ -1126,24 +2232,33 @@ public class CoubertinWatchFaceService extends CanvasWatchFaceService implements
                 targetColor = color;
             }
 
-            public void render(Canvas canvas) {
+            public void snapshot(SceneSnapshot s, float alpha) {
+                for (Bubble bub : bubbles) {
+                    bub.snapshot(s, alpha);
+                }
+            }
+
+            public void updateColor(int steps) {
                 if (animatedColor && !isEmpty) {
                     int prevColor = currentColor;
-                    currentColor = interpolateColor(currentColor, targetColor, COLOR_INTERPOLATION_RATE);
+                    currentColor = interpolateColor(currentColor, targetColor, tweenFactor(COLOR_INTERPOLATION_RATE, steps));
                     if (currentColor == prevColor) {
                         targetColor = bubbleManager.GROUP_COLORS[(int) ((bubbleManager.GROUP_COUNT - 1) * Math.random())];  // avoid using the smallest bubble's color
                     }
                     paint.setColor(currentColor);
                 }
+            }
+
+            public void savePrevious() {
                 for (Bubble bub : bubbles) {
-                    bub.render(canvas);
+                    bub.savePrevious();
                 }
             }
 
-            public boolean update() {
+            public boolean update(int steps) {
                 needsUpdate = false;
                 for (Bubble bub : bubbles) {
-                    if (bub.needsSizeUpdate) needsUpdate |= bub.updateSize();
+                    if (bub.needsSizeUpdate) needsUpdate |= bub.updateSize(steps);
                 }
 
                 // Must kill remainder objects in independent loop to about iterator errors
@@ -1160,6 +2275,14 @@ public class CoubertinWatchFaceService extends CanvasWatchFaceService implements
                 }
             }
 
+            public boolean isAnimating() {
+                if (animatedColor && !isEmpty) return true;  // keeps cycling colors
+                for (Bubble bub : bubbles) {
+                    if (!bub.isAtRest()) return true;
+                }
+                return false;
+            }
+
             private void add(int count_, boolean shouldFeature, boolean showSplashScreen, int glanceDuration_) {
                 if (count_ < 0) {
                     remove(-count_);
@@ -1253,13 +2376,15 @@ public class CoubertinWatchFaceService extends CanvasWatchFaceService implements
             private static final float RANDOM_WEIGHT_FACTOR     = 0.75f; // how much variation between balls in the same category
             private static final float TEXT_HEIGHT_FACTOR       = 0.20f; // as a factor of bubble radius
             private static final float INNER_RING_OFFSET_FACTOR = 0.10f;
+            private static final float REST_VELOCITY            = 0.05f; // px/step under which a bubble is considered still
 
             BubbleCollection parent;
 
             int value;
-            String valueStr;
+            char[] valueChars;  // the tag, fixed for the life of the bubble
             float anchorX, anchorY;
             float x, y;
+            float prevX, prevY, prevRadius;  // state at the previous step, for render interpolation
             float gapAngle;
             float velX, velY;
 
@@ -1283,12 +2408,12 @@ public class CoubertinWatchFaceService extends CanvasWatchFaceService implements
                    float innerRingFactor_, boolean isFeatured_, int glanceDuration_,
                    Paint paint_) {
                 value = value_;
-                valueStr = mTestStepFormatter.format(value);
+                valueChars = mTestStepFormatter.copyOf(value);
                 parent = parent_;
                 anchorX = (float) (mWidth * Math.random());
                 anchorY = (float) (mHeight * Math.random());
-                x = mCenterX;
-                y = mCenterY;
+                x = prevX = mCenterX;
+                y = prevY = mCenterY;
 //                radius = radius_;
                 screenW = mWidth;  // this may have been initialized already, or be zero...
                 relRadius = radius_;
@@ -1315,19 +2440,15 @@ public class CoubertinWatchFaceService extends CanvasWatchFaceService implements
                 path.setFillType(Path.FillType.EVEN_ODD);
             }
 
-            public void render(Canvas canvas) {
-                canvas.save();
-                canvas.translate(x, y);
-                canvas.scale(currentRadius, currentRadius);
-                if (isFeatured) canvas.drawCircle(0, 0, 1.0f, paint);
-                canvas.drawPath(path, paint);
-                canvas.restore();
-
-                // Doing this outside the transform to avoid weirdness with tiny heighted text
-                if (isFeatured) {
-                    mBubbleTextPaint.setTextSize(2 * TEXT_HEIGHT_FACTOR * currentRadius);  // bubble size might be animated
-                    drawTextVerticallyCentered(canvas, mBubbleTextPaint, valueStr, x, y);
-                }
+            // The path is never touched after construction, so it is shared rather than copied
+            public void snapshot(SceneSnapshot s, float alpha) {
+                int i = s.bubbleCount++;
+                s.bubbleData[3 * i]     = prevX + alpha * (x - prevX);
+                s.bubbleData[3 * i + 1] = prevY + alpha * (y - prevY);
+                s.bubbleData[3 * i + 2] = prevRadius + alpha * (currentRadius - prevRadius);
+                s.bubblePaths[i] = path;
+                s.bubbleColors[i] = paint.getColor();
+                s.bubbleLabels[i] = isFeatured ? valueChars : null;
             }
 
             public void renderAmbient(Canvas canvas, Paint paint_) {
@@ -1338,8 +2459,14 @@ public class CoubertinWatchFaceService extends CanvasWatchFaceService implements
                 canvas.restore();
             }
 
-            public boolean updateSize() {
-                currentRadius += (targetRadius - currentRadius) * BubbleManager.ANIMATION_RATE;
+            public void savePrevious() {
+                prevX = x;
+                prevY = y;
+                prevRadius = currentRadius;
+            }
+
+            public boolean updateSize(int steps) {
+                currentRadius += (targetRadius - currentRadius) * tweenFactor(BubbleManager.ANIMATION_RATE, steps);
                 if (Math.abs(targetRadius - currentRadius) < 1) {
                     needsSizeUpdate = false;
                     if (mustDie) {
@@ -1411,6 +2538,12 @@ public class CoubertinWatchFaceService extends CanvasWatchFaceService implements
                 }
             }
 
+            public boolean isAtRest() {
+                return !needsSizeUpdate
+                        && Math.abs(velX) < REST_VELOCITY && Math.abs(velY) < REST_VELOCITY
+                        && Math.abs(velR) < REST_VELOCITY;
+            }
+
             public void grow() {
                 targetRadius = radius;
                 needsSizeUpdate = true;
@@ -1452,24 +2585,10 @@ public class CoubertinWatchFaceService extends CanvasWatchFaceService implements
             private int r, g, b;
             private int bgColorIterator;
             private int value;
-            private String text;
+            private char[] text;
             private boolean active;
 
-            private Paint digitsPaint, stepsPaint;
-
-            SplashScreen() {
-                digitsPaint = new Paint();
-                digitsPaint.setColor( BACKGROUND_COLOR_AMBIENT );
-                digitsPaint.setTypeface(mTextTypefaceMed);
-                digitsPaint.setAntiAlias(true);
-                digitsPaint.setTextAlign(Paint.Align.LEFT);
-
-                stepsPaint = new Paint();
-                stepsPaint.setColor( BACKGROUND_COLOR_AMBIENT );
-                stepsPaint.setTypeface(mTextTypefaceSemi);
-                stepsPaint.setAntiAlias(true);
-                stepsPaint.setTextAlign(Paint.Align.LEFT);
-            }
+            SplashScreen() {}
 
             // Must be called after onSurfaceChanged
             public void reset() {
@@ -1481,16 +2600,12 @@ public class CoubertinWatchFaceService extends CanvasWatchFaceService implements
                 textStepsY = mTextStepsBaselineHeight + mHeight;
                 active = false;
                 bgColorIterator = 0;
-
-//                textSize = TEXT_SIZE * mHeight;
-                digitsPaint.setTextSize(mTextDigitsHeight);
-                stepsPaint.setTextSize(mTextStepsHeight);
             }
 
             public void trigger(int value_, int color_) {
                 if (DEBUG_LOGS) Log.v(TAG, "SS trigger: " + value_);
                 value = value_;
-                text = mTestStepFormatter.format(value);
+                text = mTestStepFormatter.copyOf(value);
                 setColor(color_);
                 reset();
                 active = true;
@@ -1502,20 +2617,22 @@ public class CoubertinWatchFaceService extends CanvasWatchFaceService implements
                     active = false;
                     if (DEBUG_LOGS) Log.v(TAG, "Deactivated splashscreen");
                     mTextAlpha = 255;
-                    mTextDigitsPaintInteractive.setColor(TEXT_DIGITS_COLOR_INTERACTIVE);
-                    mTextStepsPaintInteractive.setColor(TEXT_STEPS_COLOR_INTERACTIVE);
                 }
             }
 
-            public void render(Canvas canvas) {
-//                if (DEBUG_LOGS) Log.v(TAG, "Rendering splashscreen, alpha: " + alpha);
-
-                canvas.drawColor(Color.argb(alpha, r, g, b));
-                canvas.drawText(text, textX, textDigitsY, digitsPaint);
-                canvas.drawText("steps", textX, textStepsY, stepsPaint);
+            public void snapshot(SceneSnapshot s) {
+                s.splashActive = active;
+                if (!active) return;
+                s.splashColor = Color.argb(alpha, r, g, b);
+                s.splashText = text;
+                s.splashTextX = textX;
+                s.splashDigitsY = textDigitsY;
+                s.splashStepsY = textStepsY;
+            }
 
+            public void update(int steps) {
                 if (alpha < MAX_ALPHA) {
-                    alpha += FADE_IN_SPEED;
+                    alpha = Math.min(alpha + steps * FADE_IN_SPEED, MAX_ALPHA);
                     if (value == 10000 || value == 20000) {
                         cycleBGColor();
                     }
@@ -1526,8 +2643,9 @@ public class CoubertinWatchFaceService extends CanvasWatchFaceService implements
                     }
                 }
 
-                textDigitsY -= TEXT_SPEED * (textDigitsY - mTextDigitsBaselineHeight);
-                textStepsY -= TEXT_SPEED * (textStepsY- mTextStepsBaselineHeight);
+                float textFactor = tweenFactor(TEXT_SPEED, steps);
+                textDigitsY -= textFactor * (textDigitsY - mTextDigitsBaselineHeight);
+                textStepsY -= textFactor * (textStepsY- mTextStepsBaselineHeight);
             }
 
             private void setColor(int color_) {
@@ -1544,6 +2662,53 @@ public class CoubertinWatchFaceService extends CanvasWatchFaceService implements
             }
         }
 
+        /**
+         * Plain-data copy of a simulation step, everything onDraw() needs and nothing it could
+         * race on. Bubble paths and labels are never modified once built, so they are shared.
+         */
+        private class SceneSnapshot {
+            int bubbleCount;
+            float[] bubbleData;  // x, y and radius per bubble
+            Path[] bubblePaths;
+            int[] bubbleColors;
+            char[][] bubbleLabels;  // null unless the bubble is featured
+
+            float stepCountDisplay;
+            int textAlpha;
+
+            boolean splashActive;
+            int splashColor;
+            char[] splashText;
+            float splashTextX, splashDigitsY, splashStepsY;
+
+            boolean animating;
+            long frameIntervalMs;
+
+            SceneSnapshot() {
+                allocate(64);
+            }
+
+            void ensureCapacity(int count) {
+                if (count > bubbleColors.length) allocate(2 * count);
+            }
+
+            // Drops the paths and labels held past bubbleCount by a longer previous step, so
+            // those of bubbles that are gone can be collected
+            void releaseFrom(int previousCount) {
+                for (int i = bubbleCount; i < previousCount; i++) {
+                    bubblePaths[i] = null;
+                    bubbleLabels[i] = null;
+                }
+            }
+
+            private void allocate(int capacity) {
+                bubbleData = new float[3 * capacity];
+                bubblePaths = new Path[capacity];
+                bubbleColors = new int[capacity];
+                bubbleLabels = new char[capacity][];
+            }
+        }
+
     }
 
 
@@ -1554,103 +2719,229 @@ public class CoubertinWatchFaceService extends CanvasWatchFaceService implements
 
 
 
-    private SensorManager mSensorManager;
+    private final List<Engine> mEngines = new CopyOnWriteArrayList<>();  // iterated on the sensor thread
+    private HandlerThread mSensorThread;
+    private Handler mSensorHandler;
+    private SensorTraceRecorder mTraceRecorder;  // only when DEBUG_RECORD_SENSOR_TRACE
+    private SensorSource mSensorSource;  // the live sensors, or a recorded trace with DEBUG_REPLAY_SENSOR_TRACE and DEBUG_REPLAY_REAL_TIME
 
     private SensorWrapper mSensorAccelerometer;
-    private float[] gravity = new float[3];
-    private float[] linear_acceleration = new float[3];
+    private SensorWrapper mSensorGravity;
+    private SensorWrapper mSensorLinearAcceleration;
+    private boolean mUseFusedSensors;
 
     private SensorWrapper mSensorStep;
-    public boolean mWasStepSensorUpdatedThisGlance = false,
-            mWereStepCountsUpdatedThisGlance = false;
+    private SensorWrapper mSensorStepDetector;
+    private int mStepsDetectedSinceCount;  // only touched on the sensor thread
+    public volatile int mLiveStepCount = -1;  // last step counter reading plus the steps detected since, -1 until the counter reports
+
+    /**
+     * Asks the counter for the counts it is holding back in its FIFO. Returns false if
+     * there's nothing to wait for, otherwise the engines hear about it through
+     * {@link Engine#onStepCountsFlushed} once the counts have been delivered.
+     */
+    boolean flushStepCounts() {
+        synchronized (mSensorStep) {
+            return mSensorStep.isRegistered && mSensorSource.flush();
+        }
+    }
 
-    @Override
-    public void onAccuracyChanged(Sensor sensor, int accuracy) { }
+    /**
+     * Called on the sensor thread when a flush has been delivered, after all the readings it
+     * brought back.
+     */
+    void onSensorFlushCompleted(int type) {
+        if (type != Sensor.TYPE_STEP_COUNTER) return;
+        for (Engine engine : mEngines) {
+            engine.onStepCountsFlushed();
+        }
+    }
 
-    @Override
-    public void onSensorChanged(SensorEvent event) {
-        switch (event.sensor.getType()) {
+    // The counter only needs to report straight away while some engine is counting steps live
+    void updateStepCounterLatency() {
+        mSensorStep.setMaxReportLatency(mSensorStepDetector.subscriberCount > 0 ?
+                0 : STEP_COUNTER_SCREEN_OFF_LATENCY_US);
+    }
+
+    /**
+     * Called on the sensor thread with every reading from the {@link SensorSource}, live or
+     * replayed.
+     */
+    void onSensorReading(int type, long timestampNanos, float[] values) {
+        if (mTraceRecorder != null) mTraceRecorder.recordSensor(type, timestampNanos, values);
+
+        switch (type) {
             case Sensor.TYPE_ACCELEROMETER:
-                mSensorAccelerometer.update(event);
-                updateGravity(event);
+                mSensorAccelerometer.update(timestampNanos, values);
+                dispatchMotionSample(type, timestampNanos, values);
+                break;
+            case Sensor.TYPE_GRAVITY:
+                mSensorGravity.update(timestampNanos, values);
+                dispatchMotionSample(type, timestampNanos, values);
+                break;
+            case Sensor.TYPE_LINEAR_ACCELERATION:
+                mSensorLinearAcceleration.update(timestampNanos, values);
+                dispatchMotionSample(type, timestampNanos, values);
                 break;
             case Sensor.TYPE_STEP_COUNTER:
 //                if (!GENERATE_FAKE_STEPS) {
-                    if (DEBUG_LOGS) Log.i(TAG, "Sensor.TYPE_STEP_COUNTER event.values[0]: " + Float.toString(event.values[0]));
+                    if (DEBUG_LOGS) Log.i(TAG, "Sensor.TYPE_STEP_COUNTER values[0]: " + Float.toString(values[0]));
 //                    mCurrentSteps = Math.round(event.values[0]);
-                    mSensorStep.update(event);
-                    mWasStepSensorUpdatedThisGlance = true;
+                    mSensorStep.update(timestampNanos, values);
+                    mStepsDetectedSinceCount = 0;
+                    mLiveStepCount = (int) values[0];  // volatile, publishes the count to the simulation
+                    dispatchSteps();
 //                }
                 break;
+            case Sensor.TYPE_STEP_DETECTOR:
+                // The counter reports in batches seconds apart, the detector on every step. Its
+                // steps are added to the last count until the next one, which includes them.
+                if (mLiveStepCount < 0) break;
+                mSensorStepDetector.update(timestampNanos, values);
+                mStepsDetectedSinceCount++;
+                mLiveStepCount = (int) mSensorStep.values[0] + mStepsDetectedSinceCount;
+                dispatchSteps();
+                break;
         }
     }
 
+    private void dispatchSteps() {
+        for (Engine engine : mEngines) {
+            engine.onMotion();
+        }
+    }
 
-    public void updateGravity(SensorEvent event) {
-        // In this example, alpha is calculated as t / (t + dT),
-        // where t is the low-pass filter's time-constant and
-        // dT is the event delivery rate.
-        final float alpha = 0.8f;
-
-        // Isolate the force of gravity with the low-pass filter.
-        gravity[0] = alpha * gravity[0] + (1 - alpha) * event.values[0];
-        gravity[1] = alpha * gravity[1] + (1 - alpha) * event.values[1];
-        gravity[2] = alpha * gravity[2] + (1 - alpha) * event.values[2];
+    private void dispatchMotionSample(int type, long timestampNanos, float[] values) {
+        for (Engine engine : mEngines) {
+            engine.onMotionSample(type, timestampNanos, values);
+        }
+    }
 
-        // Remove the gravity contribution with the high-pass filter.
-        linear_acceleration[0] = event.values[0] - gravity[0];
-        linear_acceleration[1] = event.values[1] - gravity[1];
-        linear_acceleration[2] = event.values[2] - gravity[2];
+    // Stamped here but recorded on the sensor thread, the only one that touches the trace
+    void traceLifecycle(final byte event) {
+        if (mTraceRecorder == null) return;
+        final long timestampNanos = SystemClock.elapsedRealtimeNanos();
+        mSensorHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mTraceRecorder.recordLifecycle(event, timestampNanos);
+            }
+        });
     }
 
+    // Writes out what has been recorded so far, on the sensor thread to keep file IO off the main one
+    void flushSensorTrace() {
+        if (mTraceRecorder == null) return;
+        mSensorHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mTraceRecorder.flush();
+            }
+        });
+    }
 
 
     private class SensorWrapper {
 
-        SensorEventListener listener;
-        SensorManager manager;
+        private static final float MOTION_TIME_CONSTANT = 0.5f;  // seconds, of the running mean motion is measured against
+
+        SensorSource source;
         String name;
         int type;
-        Sensor sensor;
         boolean isActive, isRegistered;
         int valueCount;
         float[] values;
-
-        SensorWrapper(String name_, int sensorType_, int valueCount_, SensorEventListener listener_, SensorManager manager_) {
-            listener = listener_;
-            manager = manager_;
+        int subscriberCount;  // registered with the hardware while there is any
+        int samplingPeriodUs = SensorManager.SENSOR_DELAY_NORMAL;
+        int maxReportLatencyUs = 0;  // batch in the hardware FIFO for up to this long, 0 for no batching
+
+        // Motion-adaptive rate, see setAdaptiveRate()
+        boolean isAdaptive, isFast;
+        float fastEnergy, slowEnergy;
+        long slowHoldNanos, lastMotionNanos, lastTimestamp;
+        float[] mean;
+
+        SensorWrapper(String name_, int sensorType_, int valueCount_, SensorSource source_) {
+            source = source_;
             name = name_;
             type = sensorType_;
             valueCount = valueCount_;
             values = new float[valueCount];
 
-            // Initialize the sensor
-            sensor = manager.getDefaultSensor(type);
-
             // http://developer.android.com/guide/topics/sensors/sensors_overview.html#sensors-identify
-            if (sensor == null) {
+            if (!source.hasSensor(type)) {
                 if (DEBUG_LOGS) Log.v(TAG, "Sensor " + name + " not available in this device");
                 isActive = false;
                 isRegistered = false;
             } else {
                 isActive = true;
-                isRegistered = true;
+                isRegistered = false;
             }
         }
 
-        boolean register() {
+        /**
+         * Switches to SENSOR_DELAY_GAME, unbatched, as soon as the readings move away from
+         * their running mean by more than fastEnergy, and back to the registered rate once
+         * they have stayed under slowEnergy for slowHoldMs. The rate is picked again from
+         * slow on every registration.
+         */
+        void setAdaptiveRate(float fastEnergy_, float slowEnergy_, long slowHoldMs) {
+            isAdaptive = true;
+            fastEnergy = fastEnergy_;
+            slowEnergy = slowEnergy_;
+            slowHoldNanos = TimeUnit.MILLISECONDS.toNanos(slowHoldMs);
+            mean = new float[valueCount];
+        }
+
+        /**
+         * Engines subscribe to a sensor rather than register it. It is registered with the
+         * hardware on the first subscription and unregistered after the last one, however
+         * many engines share it (previews and the live one), and the service fans the
+         * readings out to them.
+         */
+        synchronized boolean subscribe() {
+            if (subscriberCount++ > 0) return isRegistered;
+            return register();
+        }
+
+        synchronized void unsubscribe() {
+            if (subscriberCount == 0) return;
+            if (--subscriberCount == 0) unregister();
+        }
+
+        // Registration may change from the sensor thread when adapting, hence synchronized
+        synchronized boolean register() {
             if (!isActive) return false;
             if (isRegistered) return true;
-            isRegistered = manager.registerListener(listener, sensor, SensorManager.SENSOR_DELAY_NORMAL);
-            if (DEBUG_LOGS) Log.i(TAG, "Registered " + name + ": " + isRegistered);
+            isRegistered = registerListener();
+            if (DEBUG_LOGS) Log.i(TAG, "Registered " + name + ": " + isRegistered
+                    + ", FIFO: " + source.getFifoMaxEventCount(type) + " events");
             return isRegistered;
         }
 
-        boolean unregister() {
+        private boolean registerListener() {
+            return isFast ?
+                    source.register(type, SensorManager.SENSOR_DELAY_GAME, 0) :
+                    source.register(type, samplingPeriodUs, maxReportLatencyUs);
+        }
+
+        // Re-registers straight away if registered, so the new latency applies to the next readings
+        synchronized void setMaxReportLatency(int maxReportLatencyUs_) {
+            if (maxReportLatencyUs_ == maxReportLatencyUs) return;
+            maxReportLatencyUs = maxReportLatencyUs_;
+            if (!isRegistered || isFast) return;
+            source.unregister(type);
+            isRegistered = registerListener();
+            if (DEBUG_LOGS) Log.i(TAG, name + " latency: " + maxReportLatencyUs + "us");
+        }
+
+        synchronized boolean unregister() {
             if (!isActive) return false;
             if (!isRegistered) return false;
-            manager.unregisterListener(listener);
+            source.unregister(type);
             isRegistered = false;
+            isFast = false;
+            lastTimestamp = 0;
             if (DEBUG_LOGS) Log.i(TAG, "Unregistered " + name);
             return false;
         }
@@ -1666,12 +2957,894 @@ public class CoubertinWatchFaceService extends CanvasWatchFaceService implements
             return vals;
         }
 
-        void update(SensorEvent event) {
+        void update(long timestampNanos, float[] values_) {
             for (int i = 0; i < valueCount; i++) {
-                values[i] = event.values[i];
+                values[i] = values_[i];
+            }
+            if (isAdaptive) adaptRate(timestampNanos);
+        }
+
+        private void adaptRate(long timestampNanos) {
+            float dt = lastTimestamp == 0 ? Float.MAX_VALUE : (timestampNanos - lastTimestamp) / 1e9f;
+            lastTimestamp = timestampNanos;
+            float alpha = MOTION_TIME_CONSTANT / (MOTION_TIME_CONSTANT + dt);
+
+            float energy = 0;
+            for (int i = 0; i < valueCount; i++) {
+                mean[i] = alpha * mean[i] + (1 - alpha) * values[i];
+                float d = values[i] - mean[i];
+                energy += d * d;
+            }
+
+            // Hysteresis, so the rate doesn't flip back and forth around a single energy
+            if (!isFast) {
+                if (energy > fastEnergy) {
+                    lastMotionNanos = timestampNanos;
+                    setFast(true);
+                }
+            } else if (energy > slowEnergy) {
+                lastMotionNanos = timestampNanos;
+            } else if (timestampNanos - lastMotionNanos > slowHoldNanos) {
+                setFast(false);
+            }
+        }
+
+        private synchronized void setFast(boolean fast) {
+            if (!isRegistered) return;
+            isFast = fast;
+            source.unregister(type);
+            isRegistered = registerListener();
+            if (DEBUG_LOGS) Log.i(TAG, name + " rate: " + (isFast ? "fast" : "slow"));
+        }
+    }
+
+
+    /**
+     * Hands sensor samples over from the sensor thread to an engine's simulation without
+     * locking. There is exactly one producer, the sensor thread, and one consumer, whoever
+     * holds the engine's simulation lock. The volatile head publishes the slot contents.
+     * When full, the oldest sample is dropped to make room, so the freshest readings survive
+     * a simulation stall: the producer moves the tail on past it, and a consumer that was
+     * reading that slot sees its own move fail and reads the next one instead.
+     */
+    private class SensorRing {
+        final int mask, stride;
+        final float[] values;
+        final long[] timestamps;
+        volatile int head;  // next slot to write, only advanced by the producer
+        final AtomicInteger tail = new AtomicInteger();  // next slot to read
+        long timestamp;     // of the last polled sample
+        int droppedCount;
+
+        SensorRing(int capacity, int stride_) {  // capacity must be a power of two
+            mask = capacity - 1;
+            stride = stride_;
+            values = new float[capacity * stride];
+            timestamps = new long[capacity];
+        }
+
+        void offer(float[] sample, long timestampNanos) {
+            int h = head;
+            int t = tail.get();
+            // If the consumer moved on in the meantime there is room already
+            if (h - t > mask && tail.compareAndSet(t, t + 1)) droppedCount++;
+            int slot = h & mask;
+            System.arraycopy(sample, 0, values, slot * stride, stride);
+            timestamps[slot] = timestampNanos;
+            head = h + 1;
+        }
+
+        boolean poll(float[] sample) {
+            while (true) {
+                int t = tail.get();
+                if (t == head) return false;
+                int slot = t & mask;
+                System.arraycopy(values, slot * stride, sample, 0, stride);
+                long timestampNanos = timestamps[slot];
+                if (tail.compareAndSet(t, t + 1)) {
+                    timestamp = timestampNanos;
+                    return true;
+                }
+                // The producer dropped it while we were reading, the slot may be half rewritten
+            }
+        }
+    }
+
+
+    /**
+     * The last few readings of a sensor with their timestamps, so its value can be estimated
+     * at any instant rather than taken from whichever reading came last. Between readings
+     * the value is interpolated, and past the newest one extrapolated along the last two, for
+     * up to MAX_EXTRAPOLATION_NANOS. A gap longer than MAX_GAP_NANOS, like between glances,
+     * starts the history over. Only touched by whoever holds the engine's simulation lock.
+     */
+    private class SensorHistory {
+
+        static final int CAPACITY = 8;  // a power of two
+        static final int MASK = CAPACITY - 1;
+        static final long MAX_EXTRAPOLATION_NANOS = 100000000L;  // 100ms, about a FIFO batch
+        static final long MAX_GAP_NANOS = 500000000L;  // 500ms
+
+        final int stride;
+        final float[] values;
+        final long[] timestamps = new long[CAPACITY];
+        int head;  // next slot to write
+        int count;
+
+        SensorHistory(int stride_) {
+            stride = stride_;
+            values = new float[CAPACITY * stride];
+        }
+
+        void clear() {
+            count = 0;
+        }
+
+        void add(float[] sample, long timestampNanos) {
+            if (count > 0) {
+                long newestNanos = timestamps[(head - 1) & MASK];
+                if (timestampNanos <= newestNanos) return;  // repeated sample
+                if (timestampNanos - newestNanos > MAX_GAP_NANOS) count = 0;
+            }
+            System.arraycopy(sample, 0, values, head * stride, stride);
+            timestamps[head] = timestampNanos;
+            head = (head + 1) & MASK;
+            if (count < CAPACITY) count++;
+        }
+
+        // Fills estimate with the value at timeNanos, returns false while there are no readings
+        boolean estimate(long timeNanos, float[] estimate) {
+            if (count == 0) return false;
+            int b = (head - 1) & MASK;  // newest
+            if (count == 1) {
+                System.arraycopy(values, b * stride, estimate, 0, stride);
+                return true;
+            }
+
+            int a = (b - 1) & MASK;
+            if (timeNanos < timestamps[b]) {
+                // Walk back to the two readings around timeNanos, or hold the oldest one
+                for (int n = 2; n < count && timeNanos < timestamps[a]; n++) {
+                    b = a;
+                    a = (a - 1) & MASK;
+                }
+                if (timeNanos < timestamps[a]) timeNanos = timestamps[a];
+            } else {
+                timeNanos = Math.min(timeNanos, timestamps[b] + MAX_EXTRAPOLATION_NANOS);
+            }
+
+            float f = (float) (timeNanos - timestamps[a]) / (timestamps[b] - timestamps[a]);
+            for (int i = 0; i < stride; i++) {
+                float va = values[a * stride + i];
+                estimate[i] = va + f * (values[b * stride + i] - va);
+            }
+            return true;
+        }
+    }
+
+
+    /**
+     * Appends every sensor event and the face's lifecycle events to a binary trace, so real
+     * wrists can be replayed offline. Records are put in a preallocated direct buffer, which
+     * is written out through a FileChannel, opened on the first write, whenever it fills up,
+     * when the screen turns off, and on close. It is only ever used on the sensor thread,
+     * where lifecycle events are posted too, so file IO stays off the main thread and nothing
+     * needs locking.
+     *
+     * Layout, little-endian: the MAGIC and VERSION ints, then records made of a kind byte and
+     * a timestamp long in the elapsedRealtimeNanos() timebase that SensorEvents use, followed
+     * for RECORD_SENSOR by the sensor type int, a value count byte and that many floats, and
+     * for RECORD_LIFECYCLE by the lifecycle event byte.
+     */
+    private class SensorTraceRecorder {
+
+        static final int MAGIC = 0x54535746;  // "FWST"
+        static final int VERSION = 1;
+        static final int BUFFER_BYTES = 64 * 1024;
+
+        static final byte RECORD_SENSOR = 1;
+        static final byte RECORD_LIFECYCLE = 2;
+
+        static final byte SCREEN_ON = 1;
+        static final byte SCREEN_OFF = 2;
+        static final byte AMBIENT_ON = 3;
+        static final byte AMBIENT_OFF = 4;
+        static final byte VISIBLE = 5;
+        static final byte INVISIBLE = 6;
+        static final byte TIME_TICK = 7;
+
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        private final File file;
+        private FileChannel channel;
+        private boolean stopped;
+
+        SensorTraceRecorder(File file_) {
+            file = file_;
+            buffer.putInt(MAGIC).putInt(VERSION);
+        }
+
+        void recordSensor(int type, long timestampNanos, float[] values) {
+            if (stopped) return;
+            int count = values.length;
+            if (buffer.remaining() < 14 + 4 * count) flush();
+            buffer.put(RECORD_SENSOR).putLong(timestampNanos).putInt(type).put((byte) count);
+            for (int i = 0; i < count; i++) {
+                buffer.putFloat(values[i]);
+            }
+        }
+
+        void recordLifecycle(byte event, long timestampNanos) {
+            if (stopped) return;
+            if (buffer.remaining() < 10) flush();
+            buffer.put(RECORD_LIFECYCLE).putLong(timestampNanos).put(event);
+        }
+
+        void flush() {
+            if (stopped) return;
+            buffer.flip();
+            try {
+                if (channel == null) {
+                    channel = new FileOutputStream(file, true).getChannel();
+                    if (DEBUG_LOGS) Log.v(TAG, "Recording sensor trace to " + file);
+                }
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Couldn't write sensor trace, recording stopped", e);
+                abandon();
+            }
+            buffer.clear();
+        }
+
+        void close() {
+            flush();
+            abandon();
+        }
+
+        private void abandon() {
+            stopped = true;
+            if (channel == null) return;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Couldn't close sensor trace", e);
+            }
+            channel = null;
+        }
+    }
+
+
+    /**
+     * Where the faces' sensor readings come from: the device's own sensors, or a trace
+     * recorded from them. Either way, readings are handed to {@link #onSensorReading} on
+     * the sensor thread.
+     */
+    private interface SensorSource {
+        boolean hasSensor(int type);
+        int getFifoMaxEventCount(int type);
+        boolean register(int type, int samplingPeriodUs, int maxReportLatencyUs);
+        void unregister(int type);
+        void unregisterAll();
+        boolean flush();  // delivers whatever the hardware FIFOs are holding back, then calls onSensorFlushCompleted()
+    }
+
+
+    /**
+     * Readings from the device's own sensors, through the SensorManager. The non-wakeup
+     * variant of each sensor is preferred: none of the faces needs to wake the CPU, and
+     * whatever is batched while it sleeps is delivered on its next wakeup or flush().
+     */
+    private class LiveSensorSource implements SensorSource, SensorEventListener2 {
+
+        final SensorManager manager;
+
+        LiveSensorSource(SensorManager manager_) {
+            manager = manager_;
+        }
+
+        private Sensor sensorFor(int type) {
+            Sensor sensor = manager.getDefaultSensor(type, false);
+            return sensor != null ? sensor : manager.getDefaultSensor(type);
+        }
+
+        @Override
+        public boolean hasSensor(int type) {
+            return sensorFor(type) != null;
+        }
+
+        @Override
+        public int getFifoMaxEventCount(int type) {
+            Sensor sensor = sensorFor(type);
+            return sensor == null ? 0 : sensor.getFifoMaxEventCount();
+        }
+
+        @Override
+        public boolean register(int type, int samplingPeriodUs, int maxReportLatencyUs) {
+            Sensor sensor = sensorFor(type);
+            if (sensor == null) return false;
+            return manager.registerListener(this, sensor, samplingPeriodUs, maxReportLatencyUs, mSensorHandler);
+        }
+
+        @Override
+        public void unregister(int type) {
+            Sensor sensor = sensorFor(type);
+            if (sensor != null) manager.unregisterListener(this, sensor);
+        }
+
+        @Override
+        public void unregisterAll() {
+            manager.unregisterListener(this);
+        }
+
+        @Override
+        public boolean flush() {
+            return manager.flush(this);
+        }
+
+        @Override
+        public void onFlushCompleted(Sensor sensor) {
+            onSensorFlushCompleted(sensor.getType());
+        }
+
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {}
+
+        @Override
+        public void onSensorChanged(SensorEvent event) {
+            onSensorReading(event.sensor.getType(), event.timestamp, event.values);
+        }
+    }
+
+
+    /**
+     * Reads back a trace written by {@link SensorTraceRecorder}, one record at a time. The
+     * file is memory-mapped, and the fields of the last record read are left in place of
+     * returning an object, so reading doesn't allocate.
+     */
+    private class SensorTraceReader {
+
+        private final float[][] scratch = new float[256][];  // by value count
+        private ByteBuffer trace;
+
+        // The last record read
+        byte kind;
+        long timestamp;
+        int type;           // of a RECORD_SENSOR
+        float[] values;
+        byte event;         // of a RECORD_LIFECYCLE
+
+        SensorTraceReader(File file) {
+            try {
+                FileChannel channel = new FileInputStream(file).getChannel();
+                try {
+                    trace = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                } finally {
+                    channel.close();
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Couldn't open sensor trace " + file, e);
+                return;
+            }
+            trace.order(ByteOrder.LITTLE_ENDIAN);
+            if (trace.remaining() < 8 || trace.getInt() != SensorTraceRecorder.MAGIC
+                    || trace.getInt() != SensorTraceRecorder.VERSION) {
+                Log.e(TAG, "Not a version " + SensorTraceRecorder.VERSION + " sensor trace: " + file);
+                trace = null;
+            }
+        }
+
+        boolean isValid() {
+            return trace != null;
+        }
+
+        void rewind() {
+            trace.position(8);
+        }
+
+        void mark() {
+            trace.mark();
+        }
+
+        void reset() {
+            trace.reset();
+        }
+
+        // Reads the next record into the fields above, false at the end of the trace
+        boolean next() {
+            if (trace.remaining() < 9) return false;
+            kind = trace.get();
+            timestamp = trace.getLong();
+            switch (kind) {
+                case SensorTraceRecorder.RECORD_SENSOR:
+                    if (trace.remaining() < 5) return false;
+                    type = trace.getInt();
+                    int count = trace.get() & 0xff;
+                    if (trace.remaining() < 4 * count) return false;
+                    if (scratch[count] == null) scratch[count] = new float[count];
+                    values = scratch[count];
+                    for (int i = 0; i < count; i++) {
+                        values[i] = trace.getFloat();
+                    }
+                    return true;
+                case SensorTraceRecorder.RECORD_LIFECYCLE:
+                    if (trace.remaining() < 1) return false;
+                    event = trace.get();
+                    return true;
+                default:
+                    Log.e(TAG, "Corrupt sensor trace at byte " + (trace.position() - 9));
+                    return false;
+            }
+        }
+    }
+
+
+    /**
+     * Plays a trace written by {@link SensorTraceRecorder} back in place of the live sensors,
+     * at the pace it was recorded, so the face can be watched going through real wrist motion.
+     * Timestamps are shifted to start at the current elapsedRealtimeNanos(), the timebase the
+     * simulation estimates readings in. To get through hours of a trace in seconds, the
+     * engines step their models straight from it instead, see DEBUG_REPLAY_REAL_TIME.
+     *
+     * Only the sensor types found in the trace are available, at whatever rate they were
+     * recorded: requested rates and latencies are ignored. Readings of types that aren't
+     * registered are skipped, as the live sensors would have dropped them, and so are the
+     * lifecycle records. Playback starts on the first registration and stops at the end of
+     * the trace.
+     */
+    private class ReplaySensorSource implements SensorSource, Runnable {
+
+        private final SensorTraceReader reader;
+        private final SparseBooleanArray available = new SparseBooleanArray();
+        private final SparseBooleanArray registered = new SparseBooleanArray();
+        private long firstTimestamp, offsetNanos, startNanos;
+        private boolean started;
+        private int deliveredCount;
+
+        ReplaySensorSource(File file) {
+            reader = new SensorTraceReader(file);
+            if (reader.isValid()) scan();
+        }
+
+        // Finds which sensors the trace holds readings of, and when it starts
+        private void scan() {
+            int count = 0;
+            while (reader.next()) {
+                if (count++ == 0) firstTimestamp = reader.timestamp;
+                if (reader.kind == SensorTraceRecorder.RECORD_SENSOR) available.put(reader.type, true);
+            }
+            reader.rewind();
+            if (DEBUG_LOGS) Log.v(TAG, "Sensor trace: " + count + " records of " + available.size() + " sensors");
+        }
+
+        @Override
+        public boolean hasSensor(int type) {
+            return available.get(type);
+        }
+
+        @Override
+        public int getFifoMaxEventCount(int type) {
+            return 0;
+        }
+
+        // Registrations come from the main thread as well as the sensor one, which also reads them
+        @Override
+        public synchronized boolean register(int type, int samplingPeriodUs, int maxReportLatencyUs) {
+            if (!available.get(type)) return false;
+            registered.put(type, true);
+            if (!started) {
+                started = true;
+                startNanos = SystemClock.elapsedRealtimeNanos();
+                offsetNanos = startNanos - firstTimestamp;
+                mSensorHandler.post(this);
+            }
+            return true;
+        }
+
+        @Override
+        public synchronized void unregister(int type) {
+            registered.delete(type);
+        }
+
+        @Override
+        public synchronized void unregisterAll() {
+            registered.clear();
+        }
+
+        @Override
+        public boolean flush() {
+            return false;  // readings are delivered as they come up in the trace
+        }
+
+        private synchronized boolean isRegistered(int type) {
+            return registered.get(type);
+        }
+
+        // Not synchronized: delivering may register again, from inside a SensorWrapper's own lock
+        @Override
+        public void run() {
+            long nowNanos = SystemClock.elapsedRealtimeNanos();
+            while (true) {
+                reader.mark();
+                if (!reader.next()) {
+                    Log.i(TAG, "Replayed " + deliveredCount + " sensor readings in "
+                            + TimeUnit.NANOSECONDS.toMillis(nowNanos - startNanos) + "ms");
+                    return;
+                }
+                long timestampNanos = reader.timestamp + offsetNanos;
+                if (timestampNanos > nowNanos) {
+                    reader.reset();  // not due yet, read it again then
+                    mSensorHandler.postDelayed(this, (timestampNanos - nowNanos + 999999) / 1000000);
+                    return;
+                }
+                if (reader.kind == SensorTraceRecorder.RECORD_SENSOR && isRegistered(reader.type)) {
+                    onSensorReading(reader.type, timestampNanos, reader.values);
+                    deliveredCount++;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * The TimeManager's source of wall-clock time: a {@link RealClock} on the watch, or a
+     * {@link VirtualClock} for the debug options that jump or speed up time.
+     */
+    private interface Clock {
+        long currentTimeMillis();
+    }
+
+    private class RealClock implements Clock {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * A clock that can be set and advanced at will, and otherwise runs at the given rate of
+     * the elapsed realtime. At rate 0 it is frozen, and purely arithmetic.
+     */
+    private class VirtualClock implements Clock {
+        private long baseMillis;    // virtual time at baseRealtime
+        private long baseRealtime;
+        private final float rate;
+
+        VirtualClock(long startMillis, float rate_) {
+            rate = rate_;
+            set(startMillis);
+        }
+
+        @Override
+        public synchronized long currentTimeMillis() {
+            if (rate == 0) return baseMillis;
+            return baseMillis + (long) ((SystemClock.elapsedRealtime() - baseRealtime) * rate);
+        }
+
+        public synchronized void set(long millis) {
+            baseMillis = millis;
+            if (rate != 0) baseRealtime = SystemClock.elapsedRealtime();
+        }
+
+        public synchronized void advance(long deltaMillis) {
+            set(currentTimeMillis() + deltaMillis);
+        }
+    }
+
+
+    /**
+     * A set of glyphs rasterized once, for one paint, into a single alpha bitmap. Drawing a text
+     * with it blits a cell per character instead of shaping the text each frame. An alpha bitmap
+     * is drawn in the color of the paint it is drawn with, so one atlas serves every color of
+     * the same typeface, size and anti-aliasing. Glyphs go by their own advances, unkerned.
+     */
+    private class GlyphAtlas {
+        private final Bitmap bitmap;
+        private final int ascent;                  // baseline, from the top of the cells
+        private final int[] glyphIndex;            // by character, -1 for those not in the atlas
+        private final int[] cellLeft, cellWidth;
+        private final int[] originX;               // pen position within the cell
+        private int overhang;                      // how far a cell may reach past its advance, either side
+        private final float[] advance;
+        private final Rect src = new Rect(), dst = new Rect();
+
+        GlyphAtlas(String glyphs, Paint paint) {
+            Paint p = new Paint(paint);
+            p.setTextAlign(Paint.Align.LEFT);
+            p.setColor(Color.WHITE);
+
+            int count = glyphs.length();
+            cellLeft = new int[count];
+            cellWidth = new int[count];
+            originX = new int[count];
+            advance = new float[count];
+
+            char last = 0;
+            for (int i = 0; i < count; i++) last = (char) Math.max(last, glyphs.charAt(i));
+            glyphIndex = new int[last + 1];
+            Arrays.fill(glyphIndex, -1);
+
+            Paint.FontMetricsInt metrics = p.getFontMetricsInt();
+            ascent = -metrics.top;
+            int height = Math.max(metrics.bottom - metrics.top, 1);
+
+            Rect bounds = new Rect();
+            int x = 0;
+            for (int i = 0; i < count; i++) {
+                glyphIndex[glyphs.charAt(i)] = i;
+                advance[i] = p.measureText(glyphs, i, i + 1);
+                p.getTextBounds(glyphs, i, i + 1, bounds);
+                originX[i] = Math.max(0, -bounds.left) + 1;  // a pixel of margin for anti-aliasing
+                cellWidth[i] = originX[i] + Math.max(bounds.right, (int) Math.ceil(advance[i])) + 1;
+                cellLeft[i] = x;
+                x += cellWidth[i];
+                overhang = Math.max(overhang, Math.max(originX[i], cellWidth[i] - originX[i] - (int) advance[i]));
+            }
+
+            bitmap = Bitmap.createBitmap(Math.max(x, 1), height, Bitmap.Config.ALPHA_8);
+            Canvas canvas = new Canvas(bitmap);
+            for (int i = 0; i < count; i++) {
+                canvas.drawText(glyphs, i, i + 1, cellLeft[i] + originX[i], ascent, p);
+            }
+        }
+
+        float measure(char[] text, int start, int count) {
+            float width = 0;
+            for (int i = start; i < start + count; i++) {
+                width += advance(text[i]);
+            }
+            return width;
+        }
+
+        float advance(char c) {
+            int g = glyph(c);
+            return g < 0 ? 0 : advance[g];
+        }
+
+        // Like drawText() with Paint.Align.RIGHT, the text ends at x
+        void drawRight(Canvas canvas, char[] text, int start, int count, float x, float y, Paint paint) {
+            draw(canvas, text, start, count, x - measure(text, start, count), y, paint);
+        }
+
+        void draw(Canvas canvas, char[] text, int start, int count, float x, float y, Paint paint) {
+            int top = Math.round(y) - ascent;
+            int height = bitmap.getHeight();
+            for (int i = start; i < start + count; i++) {
+                int g = glyph(text[i]);
+                if (g < 0) continue;
+
+                int left = Math.round(x) - originX[g];  // whole pixels, so cells are copied unfiltered
+                src.set(cellLeft[g], 0, cellLeft[g] + cellWidth[g], height);
+                dst.set(left, top, left + cellWidth[g], top + height);
+                canvas.drawBitmap(bitmap, src, dst, paint);
+                x += advance[g];
+            }
+        }
+
+        void recycle() {
+            bitmap.recycle();
+        }
+
+        private int glyph(char c) {
+            return c < glyphIndex.length ? glyphIndex[c] : -1;
+        }
+    }
+
+
+    /**
+     * Formats step counts with thousands grouping, like DecimalFormat("##,###") in the default
+     * locale, into a char[] of its own, so nothing is allocated. The last value is remembered,
+     * and formatting the same count again, as most frames do, is only a compare.
+     */
+    private class StepFormatter {
+        final char[] chars;
+        final char separator = new DecimalFormatSymbols().getGroupingSeparator();
+        private final String suffix;
+        private int value;
+        private int length = -1;  // nothing formatted yet
+
+        StepFormatter(String suffix_) {
+            suffix = suffix_;
+            chars = new char[15 + suffix.length()];  // any int, with a sign and three separators
+        }
+
+        // Fills chars, returns the length
+        int format(int value_) {
+            if (length >= 0 && value_ == value) return length;
+            value = value_;
+
+            // Right to left into the end of the buffer, then moved to the front
+            int i = chars.length;
+            for (int k = suffix.length() - 1; k >= 0; k--) chars[--i] = suffix.charAt(k);
+            long v = Math.abs((long) value_);
+            int digits = 0;
+            do {
+                if (digits > 0 && digits % 3 == 0) chars[--i] = separator;
+                chars[--i] = (char) ('0' + v % 10);
+                v /= 10;
+                digits++;
+            } while (v > 0);
+            if (value_ < 0) chars[--i] = '-';
+
+            length = chars.length - i;
+            System.arraycopy(chars, i, chars, 0, length);
+            return length;
+        }
+
+        // For labels that outlive the next call
+        char[] copyOf(int value_) {
+            return Arrays.copyOf(chars, format(value_));
+        }
+    }
+
+
+    /**
+     * Ambient text with the fake shadow around it, each glyph stamped once per pixel of the
+     * shadow, drawn into a bitmap once and then blitted as a whole. It is only drawn again when
+     * the text or the atlas changes, so most ambient frames cost a single bitmap draw.
+     */
+    private class OutlinedText {
+        private char[] text = new char[16];  // what the bitmap shows
+        private int length = -1;
+        private GlyphAtlas atlas;
+        private Bitmap bitmap;
+        private Canvas bitmapCanvas;
+        private int left, top;               // where the bitmap goes on screen
+
+        // Like drawText() with Paint.Align.RIGHT, the text ends at x
+        void draw(Canvas canvas, GlyphAtlas atlas_, char[] txt, int length_, int x, int y, int radius,
+                  Paint shadowPaint, Paint drawPaint) {
+            if (atlas_ != atlas || !showing(txt, length_)) {
+                render(atlas_, txt, length_, x, y, radius, shadowPaint, drawPaint);
+            }
+            canvas.drawBitmap(bitmap, left, top, null);
+        }
+
+        private boolean showing(char[] txt, int length_) {
+            if (length_ != length) return false;
+            for (int i = 0; i < length_; i++) {
+                if (txt[i] != text[i]) return false;
+            }
+            return true;
+        }
+
+        private void render(GlyphAtlas atlas_, char[] txt, int length_, int x, int y, int radius,
+                            Paint shadowPaint, Paint drawPaint) {
+            int pad = radius + atlas_.overhang;
+            int width = (int) Math.ceil(atlas_.measure(txt, 0, length_)) + 2 * pad;
+            int height = atlas_.bitmap.getHeight() + 2 * radius;
+            if (bitmap == null || bitmap.getWidth() < width || bitmap.getHeight() != height) {
+                if (bitmap != null) bitmap.recycle();
+                bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                bitmapCanvas = new Canvas(bitmap);
+            } else {
+                bitmap.eraseColor(Color.TRANSPARENT);  // right-aligned, any spare width is on the left
+            }
+
+            int bx = bitmap.getWidth() - pad, by = radius + atlas_.ascent;
+            for (int i = bx - radius; i <= bx + radius; i++) {
+                for (int j = by - radius; j <= by + radius; j++) {
+                    atlas_.drawRight(bitmapCanvas, txt, 0, length_, i, j, shadowPaint);
+                }
             }
+            atlas_.drawRight(bitmapCanvas, txt, 0, length_, bx, by, drawPaint);
+            left = x - bx;
+            top = y - by;
+
+            if (text.length < length_) text = new char[length_];
+            System.arraycopy(txt, 0, text, 0, length_);
+            length = length_;
+            atlas = atlas_;
+        }
+
+        // Drawing again afterwards renders into a new bitmap
+        void recycle() {
+            if (bitmap == null) return;
+            bitmap.recycle();
+            bitmap = null;
+            bitmapCanvas = null;
+            atlas = null;
         }
     }
 
 
+    /**
+     * The interactive step count, kept composed in an alpha bitmap. While the count rolls on
+     * only the digit columns that changed are cleared and stamped again from the atlas, like an
+     * odometer, and the label reaches the screen as a single bitmap in the color of the paint.
+     * A change in length or in the width of the changed columns shifts everything to their left,
+     * so those are composed again in full.
+     */
+    private class OdometerText {
+        private char[] text = new char[16];  // what the bitmap shows
+        private float[] penX = new float[16];  // where each of those glyphs starts in the bitmap
+        private int length = -1;
+        private GlyphAtlas atlas;
+        private Bitmap bitmap;
+        private Canvas bitmapCanvas;
+        private final Paint stampPaint = new Paint();  // opaque, the bitmap only keeps alpha
+        private int left, top;               // where the bitmap goes on screen
+
+        // Like drawText() with Paint.Align.RIGHT, the text ends at x
+        void draw(Canvas canvas, GlyphAtlas atlas_, char[] txt, int length_, int x, int y, Paint paint) {
+            if (atlas_ != atlas || length_ != length || !updateColumns(txt)) {
+                compose(atlas_, txt, length_, x, y);
+            }
+            canvas.drawBitmap(bitmap, left, top, paint);
+        }
+
+        // Stamps just the changed columns, false if the text has to be composed again instead
+        private boolean updateColumns(char[] txt) {
+            int first = -1, last = -1;
+            float oldWidth = 0, newWidth = 0;
+            for (int i = 0; i < length; i++) {
+                if (txt[i] == text[i]) continue;
+                if (first < 0) first = i;
+                last = i;
+                oldWidth += atlas.advance(text[i]);
+                newWidth += atlas.advance(txt[i]);
+            }
+            if (first < 0) return true;
+            if (oldWidth != newWidth) return false;
+
+            // Cells reach past their advances, so neighbors are stamped again inside the clip too
+            float x0 = penX[first] - atlas.overhang;
+            float x1 = penX[last] + atlas.advance(text[last]) + atlas.overhang;
+            System.arraycopy(txt, first, text, first, last - first + 1);
+
+            bitmapCanvas.save();
+            bitmapCanvas.clipRect(x0, 0, x1, bitmap.getHeight());
+            bitmapCanvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+            for (int i = 0; i < length; i++) {
+                float end = penX[i] + atlas.advance(text[i]);
+                if (end + atlas.overhang > x0 && penX[i] - atlas.overhang < x1) {
+                    atlas.draw(bitmapCanvas, text, i, 1, penX[i], atlas.ascent, stampPaint);
+                }
+            }
+            bitmapCanvas.restore();
+            return true;
+        }
+
+        private void compose(GlyphAtlas atlas_, char[] txt, int length_, int x, int y) {
+            float width = atlas_.measure(txt, 0, length_);
+            int pad = atlas_.overhang;
+            int bitmapWidth = (int) Math.ceil(width) + 2 * pad;
+            int height = atlas_.bitmap.getHeight();
+            if (bitmap == null || bitmap.getWidth() < bitmapWidth || bitmap.getHeight() != height) {
+                if (bitmap != null) bitmap.recycle();
+                bitmap = Bitmap.createBitmap(bitmapWidth, height, Bitmap.Config.ALPHA_8);
+                bitmapCanvas = new Canvas(bitmap);
+            } else {
+                bitmap.eraseColor(Color.TRANSPARENT);  // right-aligned, any spare width is on the left
+            }
+
+            if (text.length < length_) {
+                text = new char[length_];
+                penX = new float[length_];
+            }
+            int right = bitmap.getWidth() - pad;
+            float pen = right - width;
+            for (int i = 0; i < length_; i++) {
+                text[i] = txt[i];
+                penX[i] = pen;
+                pen += atlas_.advance(txt[i]);
+            }
+            atlas_.draw(bitmapCanvas, text, 0, length_, penX[0], atlas_.ascent, stampPaint);
+            left = x - right;
+            top = y - atlas_.ascent;
+
+            length = length_;
+            atlas = atlas_;
+        }
+
+        // Drawing again afterwards renders into a new bitmap
+        void recycle() {
+            if (bitmap == null) return;
+            bitmap.recycle();
+            bitmap = null;
+            bitmapCanvas = null;
+            atlas = null;
+        }
+    }
+
 }
@@ -4,6 +4,7 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
@@ -12,16 +13,22 @@ import android.graphics.Rect;
 import android.graphics.Typeface;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Message;
+import android.os.Process;
+import android.os.SystemClock;
 import android.support.wearable.watchface.CanvasWatchFaceService;
 import android.support.wearable.watchface.WatchFaceStyle;
-import android.text.format.Time;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.SurfaceHolder;
 import android.view.WindowInsets;
+import android.view.WindowManager;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TimeZone;
 import java.util.Arrays;
 import java.util.concurrent.TimeUnit;
 
@@ -29,7 +36,10 @@ public class GazeWatchFaceService extends CanvasWatchFaceService {
 
     private static final String TAG = "GazeWatchFaceService";
 
-    private static final long  INTERACTIVE_UPDATE_RATE_MS = 33;
+    private static final long  FRAME_INTERVAL_NORMAL_MS = 33;  // 30 fps
+    private static final long  FRAME_INTERVAL_SLOW_MS = 66;    // 15 fps, only eyelids moving
+    private static final long  SIMULATION_STEP_MS = 33;        // eye animations advance in fixed steps
+    private static final long  IDLE_WAKEUP_PERIOD_MS = TimeUnit.MINUTES.toMillis(1);  // parked timer still wakes on each minute change
 
     private static final int   BACKGROUND_COLOR_INTERACTIVE = Color.BLACK;
     private static final int   BACKGROUND_COLOR_AMBIENT = Color.BLACK;
@@ -39,6 +49,7 @@ public class GazeWatchFaceService extends CanvasWatchFaceService {
     private static final float TEXT_DIGITS_HEIGHT = 0.2f;  // as a factor of screen height
     private static final float TEXT_DIGITS_BASELINE_HEIGHT = 0.43f;  // as a factor of screen height
     private static final float TEXT_DIGITS_RIGHT_MARGIN = 0.08f;  // as a factor of screen width
+    private static final String TEXT_DIGITS_GLYPHS = "0123456789:";  // all the time display can show
 
     private static final int   TEXT_GLANCES_COLOR_INTERACTIVE = Color.WHITE;
     private static final int   TEXT_GLANCES_COLOR_AMBIENT = Color.WHITE;
@@ -61,6 +72,7 @@ public class GazeWatchFaceService extends CanvasWatchFaceService {
             Color.rgb(128, 130, 133)
     };
     private static final int   EYE_COLOR_COUNT = EYE_COLORS.length;
+    private static final int   EYE_WHITE_COLOR = Color.rgb(252, 245, 245);
 
 //    private static final int   GLANCES_NEEDED_PER_NEW_EYE = 1;
     private static final float BLINK_TO_GLANCE_CHANCE_RATIO = 0.50f;                                // percent possibility of a blink event happening as compared to amount of glances
@@ -71,6 +83,7 @@ public class GazeWatchFaceService extends CanvasWatchFaceService {
     private static final long  CONSECUTIVE_GLANCE_THRESHOLD = TimeUnit.SECONDS.toMillis(30);        // max time between glances to be considered consecutive
     private static final int   EYES_WIDE_OPEN_GLANCE_TRIGGER = 3;                                   // how many consecutive glances are needed to trigger all eyes wide open
 
+    private static final int[] TIME_OF_DAY_MINUTES = { 0, 1, 11, 12 };                              // minutes past the hour when cuckoos, wishes or tiredness may change
     private static final int   RESET_HOUR = 4;                                                      // at which hour will watch face reset [0...23], -1 to deactivate
 
     // DEBUG
@@ -82,6 +95,11 @@ public class GazeWatchFaceService extends CanvasWatchFaceService {
 
     private static final boolean RANDOM_TIME_PER_GLANCE = false;  // this will add fake extra time per glance
     private static final int     RANDOM_MINUTES_INC = 60;
+    private static final float   DEBUG_CLOCK_RATE = 1;  // run the time this many times faster than real time
+    private static final boolean DEBUG_SOAK_DAY = false;  // play a day of glances through a TimeManager at startup, on the simulation thread
+    private static final long    SOAK_GLANCE_INTERVAL = TimeUnit.MINUTES.toMillis(10);
+    private static final long    SOAK_GLANCE_LENGTH = TimeUnit.SECONDS.toMillis(5);
+    private static final long    SOAK_FRAME_INTERVAL = 16;
 
     private static final boolean DEBUG_FAKE_START_TIME = false;
     private static final int     DEBUG_FAKE_START_HOUR = 7;
@@ -113,37 +131,162 @@ public class GazeWatchFaceService extends CanvasWatchFaceService {
         return new Engine();
     }
 
+    /**
+     * Decides at which rate the face should be rendering in interactive mode. Each Engine
+     * overrides {@link #selectFrameInterval()} to pick a tier from its current model state,
+     * and the policy is re-evaluated on every frame.
+     */
+    private abstract class FramePolicy {
+
+        long frameIntervalMs = FRAME_INTERVAL_NORMAL_MS;
+
+        abstract long selectFrameInterval();
+
+        // Returns true if the frame interval changed
+        boolean update() {
+            long intervalMs = selectFrameInterval();
+            if (intervalMs == frameIntervalMs) return false;
+            if (DEBUG_LOGS) Log.v(TAG, "Frame interval: " + frameIntervalMs + " -> " + intervalMs + "ms");
+            frameIntervalMs = intervalMs;
+            return true;
+        }
+
+        void reset() {
+            frameIntervalMs = FRAME_INTERVAL_NORMAL_MS;
+        }
+    }
+
+    /**
+     * Fixed-timestep clock for the face's simulation. Frame times are accumulated and paid
+     * out as whole {@link #SIMULATION_STEP_MS} steps, so the models move at the same speed
+     * whatever the frame rate or the number of dropped frames. The remainder left in the
+     * accumulator is exposed as {@link #alpha}, to interpolate rendering between the
+     * previous and the current step.
+     *
+     * Tweens catch up on every elapsed step in closed form, see {@link #tweenFactor}; only
+     * the integrated physics is iterated, and at most {@link #physicsSteps} times a frame.
+     */
+    private class SimulationClock {
+
+        private static final int MAX_PHYSICS_STEPS_PER_FRAME = 5;  // beyond this, drop time rather than stall catching up
+
+        final long stepNanos = TimeUnit.MILLISECONDS.toNanos(SIMULATION_STEP_MS);
+        long lastTimeNanos;
+        long accumulatorNanos;
+        int physicsSteps;  // steps the physics should iterate this frame
+        float alpha;  // 0 renders the previous step, 1 the current one
+
+        void reset() {
+            lastTimeNanos = 0;
+            accumulatorNanos = 0;
+            physicsSteps = 0;
+            alpha = 1;
+        }
+
+        // Returns how many steps have elapsed since the previous frame, uncapped
+        int advance(long timeNanos) {
+            if (lastTimeNanos == 0) {
+                // First frame after a (re)start: take a single step, don't catch up on the pause
+                lastTimeNanos = timeNanos;
+                accumulatorNanos = 0;
+                physicsSteps = 1;
+                alpha = 0;
+                return 1;
+            }
+
+            accumulatorNanos += timeNanos - lastTimeNanos;
+            lastTimeNanos = timeNanos;
+            int steps = (int) (accumulatorNanos / stepNanos);
+            accumulatorNanos -= steps * stepNanos;
+            physicsSteps = Math.min(steps, MAX_PHYSICS_STEPS_PER_FRAME);
+            alpha = (float) accumulatorNanos / stepNanos;
+
+            return steps;
+        }
+    }
+
+    /**
+     * How much of the remaining distance an exponential approach covers after a number of
+     * steps, when it covers a fraction rate of it on each one. Lets an eased value jump
+     * straight to where per-step easing would have taken it, however many steps were missed.
+     */
+    static float tweenFactor(float rate, int steps) {
+        if (steps == 1) return rate;
+        return 1 - (float) Math.pow(1 - rate, steps);
+    }
+
     private class Engine extends CanvasWatchFaceService.Engine {
 
         private static final int MSG_UPDATE_TIMER = 0;
 
-        /* Handler to updateSize the screen depending on the message */
+        /* Handler to wake the frame pump back up after it was parked */
         final Handler mMainHandler = new Handler() {
             @Override
             public void handleMessage(Message message) {
                 switch (message.what) {
                     case MSG_UPDATE_TIMER:
-                        invalidate();
-                        if (shouldTimerBeRunning()) {
-                            long timeMs = System.currentTimeMillis();
-                            long delayMs = INTERACTIVE_UPDATE_RATE_MS
-                                    - (timeMs % INTERACTIVE_UPDATE_RATE_MS);
-                            mMainHandler.sendEmptyMessageDelayed(MSG_UPDATE_TIMER, delayMs);
-                        }
+                        updateTimer();
                         break;
                 }
             }
         };
 
+        private FramePump mFramePump;
+        private final SimulationClock mSimulationClock = new SimulationClock();
+
+        /*
+         * The eyes are stepped on their own thread, which holds mSimulationLock while touching
+         * them; anything else reaching into the mosaic must hold it too. Each step is published
+         * as a MosaicSnapshot: the front one is only read by onDraw(), the back one only written
+         * by whoever holds mSimulationLock, and they are swapped under mSnapshotLock.
+         */
+        private HandlerThread mSimulationThread;
+        private Handler mSimulationHandler;
+        private final Object mSimulationLock = new Object();
+        private final Object mSnapshotLock = new Object();
+        private MosaicSnapshot mFrontSnapshot = new MosaicSnapshot();
+        private MosaicSnapshot mBackSnapshot = new MosaicSnapshot();
+        private volatile long mSimulationFrameTimeNanos;
+        private volatile boolean mSimulationStepPosted;
+        private Path[] mSnapshotEyelids = new Path[0];  // by eye id, rebuilt only when the aperture changes
+        private float[] mSnapshotEyelidApertures = new float[0];
+        private Paint mSnapshotEyeWhitePaint, mSnapshotIrisPaint, mSnapshotPupilPaint, mSnapshotEyeLinerPaint;
+
+        private final Runnable mSimulationStep = new Runnable() {
+            @Override
+            public void run() {
+                mSimulationStepPosted = false;  // frames after this point post again
+                synchronized (mSimulationLock) {
+                    eyeMosaic.update(mSimulationClock.advance(mSimulationFrameTimeNanos));
+                    publishSnapshot(mSimulationClock.alpha);
+                }
+                postInvalidate();
+            }
+        };
+
+        private final FramePolicy mFramePolicy = new FramePolicy() {
+            @Override
+            long selectFrameInterval() {
+                return eyeMosaic.isOnlyBlinking() ? FRAME_INTERVAL_SLOW_MS : FRAME_INTERVAL_NORMAL_MS;
+            }
+        };
+        private boolean mTimerParked = false;
+
 
         //        private boolean mLowBitAmbient;
         //        private boolean mBurnInProtection;
         private boolean mAmbient, mScreenOn;
+        private boolean mGlanceActive;
 
+        private Clock mClock;
+        private VirtualClock mVirtualClock;  // the same clock, when a debug option needs one
         private TimeManager mTimeManager;
-        private String mTimeStr;
+        private final char[] mTimeChars = new char[5];  // "h:mm" or "hh:mm"
+        private int mTimeLength;
+        private long mTimeExpiry;  // TimeManager.nextMinute() when mTimeChars were built
         private int mLastAmbientHour;
         private Paint mTextDigitsPaintInteractive, mTextDigitsPaintAmbient;
+        private GlyphAtlas mTextDigitsAtlasInteractive, mTextDigitsAtlasAmbient;
 
         private float mTextDigitsHeight, mTextDigitsBaselineHeight, mTextDigitsRightMargin;
         private Paint mTextGlancesPaintInteractive, mTextGlancesPaintAmbient;
@@ -162,7 +305,7 @@ public class GazeWatchFaceService extends CanvasWatchFaceService {
 
         private int glances = 0;                // how many times did the watch go from ambient to interactive?
         private int consecutiveGlances = 0;     // amount of last consecutive glances
-        private Time mCurrentGlance;
+        private long mCurrentGlance;
         private long mPrevGlance;
 
         private EyeMosaic eyeMosaic;
@@ -180,6 +323,29 @@ public class GazeWatchFaceService extends CanvasWatchFaceService {
                     .setShowSystemUiTime(false)
                     .build());
 
+            mFramePump = new FramePump();
+
+            mSimulationThread = new HandlerThread(TAG + "Simulation", Process.THREAD_PRIORITY_DISPLAY);
+            mSimulationThread.start();
+            mSimulationHandler = new Handler(mSimulationThread.getLooper());
+
+            mSnapshotEyeWhitePaint = new Paint();
+            mSnapshotEyeWhitePaint.setColor(EYE_WHITE_COLOR);
+            mSnapshotEyeWhitePaint.setAntiAlias(true);
+
+            mSnapshotIrisPaint = new Paint();
+            mSnapshotIrisPaint.setAntiAlias(true);
+
+            mSnapshotPupilPaint = new Paint();
+            mSnapshotPupilPaint.setColor(Eye.PUPIL_COLOR);
+            mSnapshotPupilPaint.setAntiAlias(true);
+
+            mSnapshotEyeLinerPaint = new Paint();
+            mSnapshotEyeLinerPaint.setColor(Eye.EYELID_COLOR);
+            mSnapshotEyeLinerPaint.setStyle(Paint.Style.STROKE);
+            mSnapshotEyeLinerPaint.setStrokeWidth(2.0f);
+            mSnapshotEyeLinerPaint.setAntiAlias(true);
+
             mTextTypeface = Typeface.createFromAsset(getApplicationContext().getAssets(),
                     RALEWAY_TYPEFACE_PATH);
 
@@ -210,21 +376,54 @@ public class GazeWatchFaceService extends CanvasWatchFaceService {
             eyeMosaic = new EyeMosaic();
 
 //            mTime  = new Time();
-            mTimeManager = new TimeManager() {
+            if (RANDOM_TIME_PER_GLANCE || DEBUG_FAKE_START_TIME || DEBUG_CLOCK_RATE != 1) {
+                // Frozen between the random jumps, otherwise running at the debug rate
+                mVirtualClock = new VirtualClock(System.currentTimeMillis(),
+                        RANDOM_TIME_PER_GLANCE ? 0 : DEBUG_CLOCK_RATE);
+                mClock = mVirtualClock;
+            } else {
+                mClock = new RealClock();
+            }
+
+            mTimeManager = new TimeManager(mClock) {
                 @Override
                 public void onReset() {
                     if (DEBUG_LOGS) Log.v(TAG, "RESETTING!!");
                     glances = 0;
-                    eyeMosaic.reset();
+                    synchronized (mSimulationLock) {
+                        eyeMosaic.reset();
+                    }
                 }
             };
+            if (DEBUG_FAKE_START_TIME) {
+                mVirtualClock.set(mTimeManager.todayAt(DEBUG_FAKE_START_HOUR, DEBUG_FAKE_START_MINUTE, 0));
+                mTimeManager.setToNow();
+            }
             if (RESET_HOUR >= 0) {
                 mTimeManager.setOvernightResetHour(RESET_HOUR);
             }
+            if (DEBUG_SOAK_DAY) {
+                mSimulationHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        runSoakDay();
+                    }
+                });
+            }
 
-            mCurrentGlance = new Time();
-            mCurrentGlance.setToNow();
-            mPrevGlance = mCurrentGlance.toMillis(false);
+            // Cuckoos and tiredness change on the hour, wishes start and end at :11 and :12
+            for (int minute : TIME_OF_DAY_MINUTES) {
+                mTimeManager.schedule(new HourlyEvent(minute) {
+                    @Override
+                    void onTime() {
+                        updateTimeOfDay();
+                    }
+                });
+            }
+            updateTimeOfDay();
+
+            mCurrentGlance = mClock.currentTimeMillis();
+            mPrevGlance = mCurrentGlance;
 
             registerScreenReceiver();
         }
@@ -233,6 +432,14 @@ public class GazeWatchFaceService extends CanvasWatchFaceService {
         public void onDestroy() {
             if (DEBUG_LOGS) Log.v(TAG, "onDestroy()");
             mMainHandler.removeMessages(MSG_UPDATE_TIMER);
+            mFramePump.stop();
+            mSimulationHandler.removeCallbacks(mSimulationStep);
+            mSimulationThread.quit();
+            if (mTextDigitsAtlasInteractive != null) {  // created with the surface
+                mTextDigitsAtlasInteractive.recycle();
+                mTextDigitsAtlasAmbient.recycle();
+                mTextDigitsAtlasInteractive = mTextDigitsAtlasAmbient = null;
+            }
             unregisterTimeZoneReceiver();
             unregisterScreenReceiver();
             super.onDestroy();
@@ -254,6 +461,9 @@ public class GazeWatchFaceService extends CanvasWatchFaceService {
                 invalidate();
             }
 
+            // Start the glance before the first interactive frame, not after it
+            onScreenChange(!inAmbientMode && isVisible());
+
             /*
              * Whether the timer should be running depends on whether we're visible (as well as
              * whether we're in ambient mode), so we may need to start or stop the timer.
@@ -266,6 +476,8 @@ public class GazeWatchFaceService extends CanvasWatchFaceService {
             if (DEBUG_LOGS) Log.v(TAG, "onVisibilityChanged: " + visible);
             super.onVisibilityChanged(visible);
 
+            onScreenChange(visible && !isInAmbientMode());
+
             /*
             * Whether the timer should be running depends on whether we're visible
             * (as well as whether we're in ambient mode),
@@ -308,17 +520,24 @@ public class GazeWatchFaceService extends CanvasWatchFaceService {
          * This is a dedicated method to account for screen changes, which will happen when
          * the watch goes to ambient mode (if active), or if visibility changes (if ambient
          * mode is off).
-         * This method should be called from a Broadcast receiver targeting Intent.ACTION_SCREEN_ON/OFF
+         * It is called from onAmbientModeChanged() and onVisibilityChanged(), which arrive before
+         * the first frame is drawn, and again from the Broadcast receiver targeting
+         * Intent.ACTION_SCREEN_ON/OFF, which arrives after it. Whichever comes first starts or
+         * ends the glance, the others are ignored.
          * @param turnedOn
          */
         public void onScreenChange(boolean turnedOn) {
+            if (turnedOn == mGlanceActive) return;
+            mGlanceActive = turnedOn;
             if (DEBUG_LOGS) Log.v(TAG, "onScreenChange: " + turnedOn);
+            if (turnedOn) mFramePump.onWake();
 
             if (turnedOn) {
+                mTimeManager.setToNow();  // fire the time events due since the last frame before the glance reads them
                 registerTimeZoneReceiver();
 
                 if (RANDOM_TIME_PER_GLANCE) {
-                    mTimeManager.addRandomInc();
+                    addRandomTime();
                 }
 
                 int glanceInc = DEBUG_ACCELERATE_INTERACTION ? DEBUG_ACCELERATE_RATE : 1;
@@ -351,22 +570,25 @@ public class GazeWatchFaceService extends CanvasWatchFaceService {
 
                 glances += glanceInc;
 
-                mCurrentGlance.setToNow();
-                long glanceDiff = mCurrentGlance.toMillis(false) - mPrevGlance;
+                mCurrentGlance = mClock.currentTimeMillis();
+                long glanceDiff = mCurrentGlance - mPrevGlance;
                 if (DEBUG_LOGS) Log.v(TAG, "glanceDiff: " + glanceDiff);
                 consecutiveGlances = glanceDiff < (CONSECUTIVE_GLANCE_THRESHOLD / DEBUG_ACCELERATE_RATE) ?
                         consecutiveGlances + 1 : 1;
                 if (DEBUG_LOGS) Log.v(TAG, "consecutiveGlances: " + consecutiveGlances);
 
-                eyeMosaic.updateTiredness();
-                eyeMosaic.newGlance(glanceInc, glanceDiff);
+                synchronized (mSimulationLock) {
+                    eyeMosaic.updateTiredness();
+                    eyeMosaic.newGlance(glanceInc, glanceDiff);
+                }
 
             } else {
                 unregisterTimeZoneReceiver();
 
-                mCurrentGlance.setToNow();
-                mPrevGlance = mCurrentGlance.toMillis(false);
+                mCurrentGlance = mClock.currentTimeMillis();
+                mPrevGlance = mCurrentGlance;
 
+                if (DEBUG_LOGS) mFramePump.toDebugLog();
             }
 
             /*
@@ -376,6 +598,62 @@ public class GazeWatchFaceService extends CanvasWatchFaceService {
             updateTimer();
         }
 
+        // Debug: jumps the virtual clock a random amount ahead, as if the watch had been left alone
+        private void addRandomTime() {
+            long rInc = (long) (TimeUnit.MINUTES.toMillis(RANDOM_MINUTES_INC) * Math.random());
+            if (DEBUG_LOGS) Log.v(TAG, "Adding randomInc: " + rInc);
+
+            int prevHour = mTimeManager.hour, prevMinute = mTimeManager.minute;
+            mVirtualClock.advance(rInc);
+            mTimeManager.readClock();
+
+            // SPECIAL TEST SNAPS
+            if (prevHour < 11 && mTimeManager.hour >= 11) {  // SPECIAL WISH TIME DEBUG TEST
+                mVirtualClock.set(mTimeManager.todayAt(11, 11, 0));
+
+            } else if (prevHour < 23 && mTimeManager.hour >= 23) {  // SPECIAL WISH TIME DEBUG TEST
+                mVirtualClock.set(mTimeManager.todayAt(23, 11, 0));
+
+            } else if (prevMinute > mTimeManager.minute) {  // SPECIAL CUCKOO DEBUG TEST
+                mVirtualClock.set(mTimeManager.todayAt(mTimeManager.hour, 0, mTimeManager.second));
+            }
+
+            mTimeManager.setToNow();
+        }
+
+        /**
+         * Debug: plays a whole day of glances, a frame at a time, through a TimeManager of its own
+         * on a frozen VirtualClock, and logs how long that took. Only the time keeping is soaked:
+         * nothing is simulated or drawn, and the face's own state is left alone. Runs on the
+         * simulation thread, where it holds up the frames rather than the UI.
+         */
+        private void runSoakDay() {
+            final VirtualClock clock = new VirtualClock(mClock.currentTimeMillis(), 0);
+            final int[] resets = new int[1];
+            TimeManager timeManager = new TimeManager(clock) {
+                @Override
+                public void onReset() {
+                    resets[0]++;
+                }
+            };
+            if (RESET_HOUR >= 0) {
+                timeManager.setOvernightResetHour(RESET_HOUR);
+            }
+
+            int frames = 0;
+            long startNanos = System.nanoTime();
+            for (long t = 0; t < TimeUnit.DAYS.toMillis(1); t += SOAK_GLANCE_INTERVAL) {
+                for (long f = 0; f < SOAK_GLANCE_LENGTH; f += SOAK_FRAME_INTERVAL) {
+                    timeManager.setToNow();
+                    clock.advance(SOAK_FRAME_INTERVAL);
+                    frames++;
+                }
+                clock.advance(SOAK_GLANCE_INTERVAL - SOAK_GLANCE_LENGTH);
+            }
+            Log.v(TAG, "Soak day: " + frames + " frames, " + resets[0] + " resets in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) + "ms");
+        }
+
         @Override
         public void onSurfaceChanged(SurfaceHolder holder, int format, int width, int height) {
             if (DEBUG_LOGS) Log.v(TAG, "onSurfaceChanged: " + format + " " + width + " " + height);
@@ -392,6 +670,12 @@ public class GazeWatchFaceService extends CanvasWatchFaceService {
             mTextDigitsRightMargin = TEXT_DIGITS_RIGHT_MARGIN * mWidth;
             mTextDigitsPaintInteractive.setTextSize(mTextDigitsHeight);
             mTextDigitsPaintAmbient.setTextSize(mTextDigitsHeight);
+            if (mTextDigitsAtlasInteractive != null) {
+                mTextDigitsAtlasInteractive.recycle();
+                mTextDigitsAtlasAmbient.recycle();
+            }
+            mTextDigitsAtlasInteractive = new GlyphAtlas(TEXT_DIGITS_GLYPHS, mTextDigitsPaintInteractive);
+            mTextDigitsAtlasAmbient = new GlyphAtlas(TEXT_DIGITS_GLYPHS, mTextDigitsPaintAmbient);
 
             mTextGlancesHeight = TEXT_GLANCES_HEIGHT * mHeight;
             mTextGlancesBaselineHeight = TEXT_GLANCES_BASELINE_HEIGHT * mHeight;
@@ -399,40 +683,42 @@ public class GazeWatchFaceService extends CanvasWatchFaceService {
             mTextGlancesPaintInteractive.setTextSize(mTextGlancesHeight);
             mTextGlancesPaintAmbient.setTextSize(mTextGlancesHeight);
 
-            if (!mEyesPopulated) {
-                eyeMosaic.addEye(39, 21, 49);
-                eyeMosaic.addEye(39, 73, 49);
-                eyeMosaic.addEye(82, 45, 49);
-                eyeMosaic.addEye(158, 45, 72);
-                eyeMosaic.addEye(106, 90, 72);  // why was this eye changed?
-                eyeMosaic.addEye(218, 21, 49);
-                eyeMosaic.addEye(267, 45, 49);
-                eyeMosaic.addEye(218, 73, 49);
-                eyeMosaic.addEye(54, 138, 97);
-                eyeMosaic.addEye(139, 155, 49);
-                eyeMosaic.addEye(106, 195, 72);
-                eyeMosaic.addEye(39, 212, 49);
-                eyeMosaic.addEye(82, 240, 49);
-                eyeMosaic.addEye(39, 265, 49);
-                eyeMosaic.addEye(106, 285, 72);
-                eyeMosaic.addEye(201, 195, 97);
-                eyeMosaic.addEye(282, 195, 49);
-                eyeMosaic.addEye(253, 253, 72);
-                eyeMosaic.addEye(185, 269, 49);
-                eyeMosaic.addEye(228, 298, 49);
-                eyeMosaic.addEye(139, 240, 49);
-
-                mEyesPopulated = true;
+            synchronized (mSimulationLock) {
+                if (!mEyesPopulated) {
+                    eyeMosaic.addEye(39, 21, 49);
+                    eyeMosaic.addEye(39, 73, 49);
+                    eyeMosaic.addEye(82, 45, 49);
+                    eyeMosaic.addEye(158, 45, 72);
+                    eyeMosaic.addEye(106, 90, 72);  // why was this eye changed?
+                    eyeMosaic.addEye(218, 21, 49);
+                    eyeMosaic.addEye(267, 45, 49);
+                    eyeMosaic.addEye(218, 73, 49);
+                    eyeMosaic.addEye(54, 138, 97);
+                    eyeMosaic.addEye(139, 155, 49);
+                    eyeMosaic.addEye(106, 195, 72);
+                    eyeMosaic.addEye(39, 212, 49);
+                    eyeMosaic.addEye(82, 240, 49);
+                    eyeMosaic.addEye(39, 265, 49);
+                    eyeMosaic.addEye(106, 285, 72);
+                    eyeMosaic.addEye(201, 195, 97);
+                    eyeMosaic.addEye(282, 195, 49);
+                    eyeMosaic.addEye(253, 253, 72);
+                    eyeMosaic.addEye(185, 269, 49);
+                    eyeMosaic.addEye(228, 298, 49);
+                    eyeMosaic.addEye(139, 240, 49);
+
+                    mEyesPopulated = true;
+
+                    int glanceInc = DEBUG_ACCELERATE_INTERACTION ? DEBUG_ACCELERATE_RATE : 1;
+                    if (DEBUG_FAKE_SCRIPTED_EYES) {
+                        glanceInc = DEBUG_FAKE_SCRIPTED_EYES_STAGES[0];
+                        mDebugScriptStage++;
+                        mDebugScriptGlance = DEBUG_FAKE_SCRIPTED_EYES_INACTIVE_GLANCES;
+                    }
+                    glances += glanceInc;
+                    eyeMosaic.newGlance(glanceInc, 0);
 
-                int glanceInc = DEBUG_ACCELERATE_INTERACTION ? DEBUG_ACCELERATE_RATE : 1;
-                if (DEBUG_FAKE_SCRIPTED_EYES) {
-                    glanceInc = DEBUG_FAKE_SCRIPTED_EYES_STAGES[0];
-                    mDebugScriptStage++;
-                    mDebugScriptGlance = DEBUG_FAKE_SCRIPTED_EYES_INACTIVE_GLANCES;
                 }
-                glances += glanceInc;
-                eyeMosaic.newGlance(glanceInc, 0);
-
             }
         }
 
@@ -448,37 +734,123 @@ public class GazeWatchFaceService extends CanvasWatchFaceService {
         @Override
         public void onDraw(Canvas canvas, Rect bounds) {
 //            if (DEBUG_LOGS) Log.v(TAG, "Drawing canvas");
-
-            mTimeManager.setToNow();  // if RANDOM_TIME_PER_GLANCE it won't update toNow
-            mTimeStr = (mTimeManager.hour % 12 == 0 ? 12 : mTimeManager.hour % 12) + ":" + String.format("%02d", mTimeManager.minute);
+            mFramePump.onDrawStart();
+
+            mTimeManager.setToNow();
+            if (mTimeManager.nextMinute() != mTimeExpiry) {  // only rebuilt when the minute turns
+                int hour = mTimeManager.hour % 12 == 0 ? 12 : mTimeManager.hour % 12;
+                mTimeLength = 0;
+                if (hour >= 10) mTimeChars[mTimeLength++] = (char) ('0' + hour / 10);
+                mTimeChars[mTimeLength++] = (char) ('0' + hour % 10);
+                mTimeChars[mTimeLength++] = ':';
+                mTimeChars[mTimeLength++] = (char) ('0' + mTimeManager.minute / 10);
+                mTimeChars[mTimeLength++] = (char) ('0' + mTimeManager.minute % 10);
+                mTimeExpiry = mTimeManager.nextMinute();
+            }
 
             if (mAmbient) {
                 canvas.drawColor(BACKGROUND_COLOR_AMBIENT);
 
                 canvas.save();
-                eyeMosaic.renderAmbient(canvas);
+                synchronized (mSimulationLock) {
+                    eyeMosaic.renderAmbient(canvas);
+                }
                 canvas.restore();
 
-                canvas.drawText(mTimeStr, mWidth - mTextDigitsRightMargin,
-                        mTextDigitsBaselineHeight, mTextDigitsPaintAmbient);
+                mTextDigitsAtlasAmbient.drawRight(canvas, mTimeChars, 0, mTimeLength,
+                        mWidth - mTextDigitsRightMargin, mTextDigitsBaselineHeight, mTextDigitsPaintAmbient);
                 if (DEBUG_SHOW_GLANCE_COUNTER) canvas.drawText(Integer.toString(glances), mWidth - mTextGlancesRightMargin,
                         mTextGlancesBaselineHeight, mTextGlancesPaintAmbient);
 
             } else {
                 canvas.drawColor(BACKGROUND_COLOR_INTERACTIVE);
 
-                canvas.save();
-                eyeMosaic.update();
-                eyeMosaic.render(canvas);
-                canvas.restore();
+                synchronized (mSnapshotLock) {
+                    renderSnapshot(canvas, mFrontSnapshot);
+                }
 
-                canvas.drawText(mTimeStr, mWidth - mTextDigitsRightMargin,
-                        mTextDigitsBaselineHeight, mTextDigitsPaintInteractive);
+                mTextDigitsAtlasInteractive.drawRight(canvas, mTimeChars, 0, mTimeLength,
+                        mWidth - mTextDigitsRightMargin, mTextDigitsBaselineHeight, mTextDigitsPaintInteractive);
                 if (DEBUG_SHOW_GLANCE_COUNTER) canvas.drawText(Integer.toString(glances), mWidth - mTextGlancesRightMargin,
                         mTextGlancesBaselineHeight, mTextGlancesPaintInteractive);
 
             }
 
+            mFramePump.onDrawEnd();
+        }
+
+        /**
+         * Fills the back snapshot from the mosaic, eyes interpolated by alpha, and swaps it
+         * to the front. Must be called holding mSimulationLock.
+         */
+        private void publishSnapshot(float alpha) {
+            eyeMosaic.snapshot(mBackSnapshot, alpha);
+            mBackSnapshot.animating = isAnimating();
+            mFramePolicy.update();
+            mBackSnapshot.frameIntervalMs = mFramePolicy.frameIntervalMs;
+
+            synchronized (mSnapshotLock) {
+                MosaicSnapshot published = mBackSnapshot;
+                mBackSnapshot = mFrontSnapshot;
+                mFrontSnapshot = published;
+            }
+        }
+
+        private void renderSnapshot(Canvas canvas, MosaicSnapshot s) {
+            float[] d = s.eyeData;
+            for (int i = 0; i < s.eyeCount; i++) {
+                int j = MosaicSnapshot.EYE_DATA_STRIDE * i;
+                float x = d[j], y = d[j + 1], width = d[j + 2];
+                float irisRadius = d[j + 3], irisOffset = d[j + 4], aperture = d[j + 5];
+                float pupilX = d[j + 6], pupilY = d[j + 7], pupilRadius = d[j + 8];
+                Path eyelid = snapshotEyelid(s.eyeIds[i], width, aperture);
+                mSnapshotIrisPaint.setColor(s.irisColors[i]);
+
+                canvas.save();
+                canvas.translate(x, y);
+                canvas.save();
+                canvas.clipPath(eyelid);
+                canvas.drawCircle(0, 0, 0.5f * width, mSnapshotEyeWhitePaint);
+                canvas.drawCircle(pupilX, pupilY - irisOffset, irisRadius, mSnapshotIrisPaint);
+                canvas.drawCircle(pupilX, pupilY - irisOffset, pupilRadius, mSnapshotPupilPaint);
+                canvas.restore();
+                canvas.drawPath(eyelid, mSnapshotEyeLinerPaint);
+                canvas.restore();
+            }
+        }
+
+        // Render-side eyelid for eye id, reused for as long as its aperture holds
+        private Path snapshotEyelid(int id, float width, float aperture) {
+            if (id >= mSnapshotEyelids.length) {
+                int length = mSnapshotEyelids.length;
+                mSnapshotEyelids = Arrays.copyOf(mSnapshotEyelids, 2 * id + 1);
+                mSnapshotEyelidApertures = Arrays.copyOf(mSnapshotEyelidApertures, 2 * id + 1);
+                for (int i = length; i < mSnapshotEyelids.length; i++) {
+                    mSnapshotEyelids[i] = new Path();
+                    mSnapshotEyelidApertures[i] = -1;
+                }
+            }
+
+            Path eyelid = mSnapshotEyelids[id];
+            if (mSnapshotEyelidApertures[id] != aperture) {
+                buildEyelid(eyelid, width, aperture);
+                mSnapshotEyelidApertures[id] = aperture;
+            }
+            return eyelid;
+        }
+
+        void buildEyelid(Path eyelid, float width, float aperture) {
+            eyelid.rewind();
+            eyelid.moveTo(-0.5f * width, 0);
+            eyelid.quadTo(0, -aperture, 0.5f * width, 0);
+            eyelid.quadTo(0,  aperture, -0.5f * width, 0);
+            eyelid.close();
+        }
+
+        private void updateTimeOfDay() {
+            synchronized (mSimulationLock) {
+                eyeMosaic.updateTimeOfDay();
+            }
         }
 
         private boolean mRegisteredTimeZoneReceiver = false;
@@ -488,6 +860,8 @@ public class GazeWatchFaceService extends CanvasWatchFaceService {
 //                mTime.clear(intent.getStringExtra("time-zone"));
 //                mTime.setToNow();
                 mTimeManager.setTimeZone(intent);
+                mTimeExpiry = 0;  // the minute may end at the same instant in the new zone
+                updateTimeOfDay();
             }
         };
 
@@ -510,19 +884,43 @@ public class GazeWatchFaceService extends CanvasWatchFaceService {
 
         private void updateTimer() {
             mMainHandler.removeMessages(MSG_UPDATE_TIMER);
+            mTimerParked = false;
             if (shouldTimerBeRunning()) {
-                mMainHandler.sendEmptyMessage(MSG_UPDATE_TIMER);
+                mFramePump.start();
+            } else {
+                mFramePump.stop();
             }
         }
 
         /**
-         * Returns whether the {@link #mMainHandler} timer should be running. The timer
-         * should only run when we're visible and in interactive mode.
+         * Stops the frame pump while nothing is animating. It is woken up again on the next
+         * minute change (for the digits), by the next random eye action, or by a new glance.
+         */
+        private void parkTimer() {
+            mFramePump.stop();
+            mTimerParked = true;
+            long timeMs = System.currentTimeMillis();
+            long delayMs = IDLE_WAKEUP_PERIOD_MS - (timeMs % IDLE_WAKEUP_PERIOD_MS);
+            long nextActionTime;
+            synchronized (mSnapshotLock) {
+                nextActionTime = mFrontSnapshot.nextActionTime;
+            }
+            delayMs = Math.min(delayMs, nextActionTime - timeMs);
+            mMainHandler.sendEmptyMessageDelayed(MSG_UPDATE_TIMER, delayMs);
+        }
+
+        /**
+         * Returns whether the {@link #mFramePump} should be running. It should only run
+         * when we're visible and in interactive mode.
          */
         private boolean shouldTimerBeRunning() {
             return isVisible() && !isInAmbientMode();
         }
 
+        private boolean isAnimating() {
+            return eyeMosaic.isAnimating();
+        }
+
         @Override
         public void onPeekCardPositionUpdate(Rect rect) {
             super.onPeekCardPositionUpdate(rect);
@@ -536,130 +934,358 @@ public class GazeWatchFaceService extends CanvasWatchFaceService {
 //            mBurnInProtection = properties.getBoolean(PROPERTY_BURN_IN_PROTECTION, false);
         }
 
-        private class TimeManager {
-
-            private static final boolean DEBUG_FAKE_TIME = RANDOM_TIME_PER_GLANCE;
-            private final long DEBUG_FAKE_TIME_INC = TimeUnit.MINUTES.toMillis(RANDOM_MINUTES_INC);
-            private static final long DAY_IN_MILLIS = 86400000;
-
-            private static final boolean FAKE_START_TIME = DEBUG_FAKE_START_TIME;
-            private static final int     FAKE_START_HOUR = DEBUG_FAKE_START_HOUR;
-            private static final int     FAKE_START_MINUTE = DEBUG_FAKE_START_MINUTE;
+        /**
+         * Drives interactive frames off the display vsync instead of a wall-clock Handler loop.
+         * A frame is rendered every {@link #vsyncsPerFrame} vsyncs, as set by the
+         * {@link #mFramePolicy}, and frames that miss their deadline are counted, whether the
+         * vsync came in late or onDraw() ran over budget.
+         */
+        private class FramePump implements Choreographer.FrameCallback {
+
+            Choreographer choreographer;
+            long vsyncPeriodNanos;
+            long frameIntervalMs;
+            int vsyncsPerFrame;
+            boolean running;
+
+            long lastFrameTimeNanos;
+            long drawStartNanos;
+            int frameCount, droppedFrameCount, overrunFrameCount;
+
+            long wakeNanos;  // when the current glance started, 0 once its first frame is drawn
+            int wakeCount;
+            long wakeLatencyTotalNanos, wakeLatencyMaxNanos;
+
+            FramePump() {
+                choreographer = Choreographer.getInstance();
+
+                float refreshRate = ((WindowManager) getSystemService(Context.WINDOW_SERVICE))
+                        .getDefaultDisplay().getRefreshRate();
+                vsyncPeriodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / refreshRate);
+                if (DEBUG_LOGS) Log.v(TAG, "FramePump: " + refreshRate + "Hz display");
+                setFrameInterval(FRAME_INTERVAL_NORMAL_MS);
+            }
 
+            void setFrameInterval(long intervalMs) {
+                frameIntervalMs = intervalMs;
+                vsyncsPerFrame = Math.max(1, Math.round(
+                        (float) TimeUnit.MILLISECONDS.toNanos(intervalMs) / vsyncPeriodNanos));
+                if (DEBUG_LOGS) Log.v(TAG, "FramePump: rendering every " + vsyncsPerFrame + " vsyncs");
+            }
 
+            void start() {
+                if (running) return;
+                running = true;
+                lastFrameTimeNanos = 0;
 
-            private Time currentTime;
-            public int year, month, monthDay, hour, minute, second;
+                // Publish the eyes as they are now, so the first frame of a glance isn't stale
+                synchronized (mSimulationLock) {
+                    mSimulationClock.reset();
+                    mFramePolicy.reset();
+                    publishSnapshot(1);
+                }
+                setFrameInterval(mFramePolicy.frameIntervalMs);
+                choreographer.postFrameCallback(this);
+            }
 
-            private boolean overnightReset;
-            private int overnightResetHour;
-            private Time nextResetTime;
+            void stop() {
+                if (!running) return;
+                running = false;
+                choreographer.removeFrameCallback(this);
+            }
 
-            TimeManager() {
-                overnightReset = false;
-                overnightResetHour = 0;
+            @Override
+            public void doFrame(long frameTimeNanos) {
+                if (!running) return;
+
+                if (lastFrameTimeNanos != 0) {
+                    long vsyncs = Math.round((double) (frameTimeNanos - lastFrameTimeNanos) / vsyncPeriodNanos);
+                    if (vsyncs < vsyncsPerFrame) {
+                        // woke up early, wait for the right vsync
+                        choreographer.postFrameCallback(this);
+                        return;
+                    }
+                    long missed = vsyncs / vsyncsPerFrame - 1;
+                    if (missed > 0) {
+                        droppedFrameCount += missed;
+                        if (DEBUG_LOGS) Log.w(TAG, "Dropped " + missed + " frame(s), "
+                                + droppedFrameCount + "/" + frameCount + " so far");
+                    }
+                }
+                lastFrameTimeNanos = frameTimeNanos;
+                frameCount++;
+
+                // Step the eyes off the UI thread, it invalidates once the snapshot is published
+                mSimulationFrameTimeNanos = frameTimeNanos;
+                if (!mSimulationStepPosted) {
+                    // A step still queued behind a slow one will pick up this frame's time
+                    mSimulationStepPosted = true;
+                    mSimulationHandler.post(mSimulationStep);
+                }
 
-                currentTime = new Time();
-                currentTime.setToNow();
+                // Decide on the latest published step, one frame behind the one just requested
+                boolean animating;
+                long intervalMs;
+                synchronized (mSnapshotLock) {
+                    animating = mFrontSnapshot.animating;
+                    intervalMs = mFrontSnapshot.frameIntervalMs;
+                }
 
-                if (FAKE_START_TIME) {
-                    currentTime.setToNow();
-                    currentTime.set(currentTime.second, FAKE_START_MINUTE, FAKE_START_HOUR,
-                            currentTime.monthDay, currentTime.month, currentTime.year);
-                    updateFields();
+                if (!shouldTimerBeRunning()) {
+                    stop();
+                } else if (!animating) {
+                    parkTimer();
                 } else {
-                    setToNow();
+                    if (intervalMs != frameIntervalMs) setFrameInterval(intervalMs);
+
+                    // sleep until half a vsync before the one we want to render on
+                    long delayNanos = (2 * vsyncsPerFrame - 1) * vsyncPeriodNanos / 2;
+                    choreographer.postFrameCallbackDelayed(this, TimeUnit.NANOSECONDS.toMillis(delayNanos));
                 }
             }
 
-            public void setToNow() {
-                if (!DEBUG_FAKE_TIME) {
-                    currentTime.setToNow();
+            void onDrawStart() {
+                drawStartNanos = System.nanoTime();
+            }
+
+            void onDrawEnd() {
+                long drawNanos = System.nanoTime() - drawStartNanos;
+                if (drawNanos > vsyncsPerFrame * vsyncPeriodNanos) {
+                    overrunFrameCount++;
+                    if (DEBUG_LOGS) Log.w(TAG, "onDraw() overran its frame: "
+                            + TimeUnit.NANOSECONDS.toMillis(drawNanos) + "ms, "
+                            + overrunFrameCount + "/" + frameCount + " so far");
                 }
 
-                updateFields();
-                if (overnightReset) resetCheck();
+                if (wakeNanos != 0 && !mAmbient) {
+                    long latencyNanos = System.nanoTime() - wakeNanos;
+                    wakeNanos = 0;
+                    wakeCount++;
+                    wakeLatencyTotalNanos += latencyNanos;
+                    wakeLatencyMaxNanos = Math.max(wakeLatencyMaxNanos, latencyNanos);
+                    if (DEBUG_LOGS) Log.v(TAG, "Wake to first frame: "
+                            + TimeUnit.NANOSECONDS.toMillis(latencyNanos) + "ms");
+                }
             }
 
-            public void setTimeZone(Intent intent) {
-                if (!DEBUG_FAKE_TIME) {
-                    currentTime.clear(intent.getStringExtra("time-zone"));
-                    currentTime.setToNow();
-                }
+            // Starts timing a glance, up to the end of its first interactive onDraw()
+            void onWake() {
+                wakeNanos = System.nanoTime();
+            }
 
-                updateFields();
-                if (overnightReset) resetCheck();
+            void toDebugLog() {
+                Log.v(TAG, "--> Frames: " + frameCount + ", dropped: " + droppedFrameCount
+                        + ", overran: " + overrunFrameCount);
+                if (wakeCount > 0) {
+                    Log.v(TAG, "--> Wake to first frame avg: "
+                            + TimeUnit.NANOSECONDS.toMillis(wakeLatencyTotalNanos / wakeCount) + "ms, max: "
+                            + TimeUnit.NANOSECONDS.toMillis(wakeLatencyMaxNanos) + "ms over " + wakeCount + " glances");
+                }
             }
+        }
 
-            public void addRandomInc() {
-                long rInc = (long) (DEBUG_FAKE_TIME_INC * Math.random());
-                if (DEBUG_LOGS) Log.v(TAG, "Adding randomInc: " + rInc);
+        private class TimeManager {
 
-                currentTime.set(currentTime.toMillis(false) + rInc);
+            private static final long MINUTE_MILLIS = 60 * 1000;
+            private static final long HOUR_MILLIS   = 60 * MINUTE_MILLIS;
+            private static final long DAY_MILLIS    = 24 * HOUR_MILLIS;
 
-                // SPECIAL TEST SNAPS
-                if (hour < 11 && currentTime.hour >= 11) {  // SPECIAL WISH TIME DEBUG TEST
-                    currentTime.set(0, 11, 11, monthDay, month, year);
-                    updateFields();
+            private final Clock clock;
+            private TimeZone zone = TimeZone.getDefault();
+            private long zoneOffset;                         // local minus UTC, refreshed each minute
+            private long millis;
+            private long localDayStart;                      // local midnight, in local millis
+            private long minuteStart, nextMinute;            // UTC span the fields below are good for
+            public int year, month, monthDay, hour, minute, second;
 
-                } else if (hour < 23 && currentTime.hour >= 23) {  // SPECIAL WISH TIME DEBUG TEST
-                    currentTime.set(0, 11, 23, monthDay, month, year);
-                    updateFields();
+            private final PriorityQueue<TimeEvent> events = new PriorityQueue<>();
+            private long nextEventTime = Long.MAX_VALUE;
+            private long scheduledAfter;  // events are all due after this, unless the clock went back
 
-                } else if (minute > currentTime.minute) {  // SPECIAL CUCKOO DEBUG TEST
-                    updateFields();
-                    currentTime.set(second, 0, hour, monthDay, month, year);
-                    updateFields();
-                }
+            TimeManager(Clock clock_) {
+                clock = clock_;
+                setToNow();
+            }
 
-                updateFields();
+            public void setToNow() {
+                millis = clock.currentTimeMillis();
+                tick();
+            }
 
-                if (overnightReset) resetCheck();
+            // Fields only, events wait for the next setToNow()
+            public void readClock() {
+                millis = clock.currentTimeMillis();
+                updateFields();
             }
 
-            public void resetCheck() {
-                if (currentTime.after(nextResetTime)) {
-                    nextResetTime = computeNextResetTime();
-                    if (DEBUG_LOGS) Log.v(TAG, "Reset check: true");
-                    onReset();
+            // Per frame this is a compare against the current minute, the calendar fields are only
+            // worked out again once the clock leaves it (or jumps backwards)
+            private void tick() {
+                if (millis >= nextMinute || millis < minuteStart) {
+                    updateFields();
+                    if (millis < scheduledAfter) rescheduleEvents();  // set back, they'd fire late
+                } else {
+                    second = (int) ((millis - minuteStart) / 1000);
                 }
+                if (millis >= nextEventTime) dispatchEvents();
+            }
+
+            public void setTimeZone(Intent intent) {
+                String timeZone = intent.getStringExtra("time-zone");
+                zone = timeZone != null ? TimeZone.getTimeZone(timeZone) : TimeZone.getDefault();
+                millis = clock.currentTimeMillis();
+
+                updateFields();
+                rescheduleEvents();  // wall-clock instants moved
+                if (millis >= nextEventTime) dispatchEvents();
             }
 
             public void onReset() { Log.v(TAG, "onReset"); }
 
+            // When the current minute ends, keep a copy to tell when the hour and minute have moved on
+            public long nextMinute() {
+                return nextMinute;
+            }
+
             public void setOvernightResetHour(int hour_) {
-                overnightReset = true;
-                overnightResetHour = hour_;
-                nextResetTime = computeNextResetTime();
+                schedule(new DailyEvent(hour_, 0) {
+                    @Override
+                    void onTime() {
+                        if (DEBUG_LOGS) Log.v(TAG, "Reset check: true");
+                        onReset();
+                    }
+                });
             }
 
-            private Time computeNextResetTime() {
-                Time resetTime = new Time();
-                resetTime.set(0, 0, overnightResetHour, monthDay, month, year);  // Set to today's reset time
+            public void schedule(TimeEvent event) {
+                event.time = nextTime(event);
+                events.add(event);
+                nextEventTime = events.peek().time;
+                scheduledAfter = millis;
+            }
 
-                // If already past, add a day
-                if (currentTime.after(resetTime)) {
-                    resetTime.set(resetTime.toMillis(false) + DAY_IN_MILLIS);
+            // Fires everything due, each event at most once however far the clock jumped
+            private void dispatchEvents() {
+                while (!events.isEmpty() && events.peek().time <= millis) {
+                    TimeEvent event = events.poll();
+                    event.onTime();
+                    event.time = nextTime(event);
+                    events.add(event);
                 }
+                nextEventTime = events.isEmpty() ? Long.MAX_VALUE : events.peek().time;
+                scheduledAfter = millis;
+            }
+
+            private void rescheduleEvents() {
+                List<TimeEvent> pending = new ArrayList<>(events);
+                events.clear();
+                for (TimeEvent event : pending) {
+                    event.time = nextTime(event);
+                    events.add(event);
+                }
+                nextEventTime = events.isEmpty() ? Long.MAX_VALUE : events.peek().time;
+                scheduledAfter = millis;
+            }
+
+            private long nextTime(TimeEvent event) {
+                long next = toUtc(event.nextLocalTime(localDayStart, millis + zoneOffset));
+                return Math.max(next, millis + 1);  // DST fallbacks may repeat an hour
+            }
 
-                if (DEBUG_LOGS) Log.v(TAG, "Next reset time: " + resetTime.format2445());
+            // The instant of the given wall-clock time today, for setting the debug clocks
+            public long todayAt(int hour_, int minute_, int second_) {
+                return toUtc(localDayStart + hour_ * HOUR_MILLIS + minute_ * MINUTE_MILLIS + second_ * 1000L);
+            }
 
-                return resetTime;
+            // Local wall-clock millis to UTC, using the offset in force at that instant
+            private long toUtc(long local) {
+                return local - zone.getOffset(local - zoneOffset);
             }
 
+            // Offsets only change on minute boundaries, so everything here holds until nextMinute
             private void updateFields() {
-                year = currentTime.year;
-                month = currentTime.month;
-                monthDay = currentTime.monthDay;
-                hour = currentTime.hour;
-                minute = currentTime.minute;
-                second = currentTime.second;
+                zoneOffset = zone.getOffset(millis);
+                long local = millis + zoneOffset;
+                long days = local / DAY_MILLIS;
+                if (local % DAY_MILLIS < 0) days--;
+                localDayStart = days * DAY_MILLIS;
+
+                int dayMillis = (int) (local - localDayStart);
+                hour = (int) (dayMillis / HOUR_MILLIS);
+                minute = (int) (dayMillis / MINUTE_MILLIS % 60);
+                second = dayMillis / 1000 % 60;
+                minuteStart = millis - dayMillis % MINUTE_MILLIS;
+                nextMinute = minuteStart + MINUTE_MILLIS;
+
+                // Civil date from days since the epoch, counting years from March so leap days fall last
+                long z = days + 719468;
+                long era = (z >= 0 ? z : z - 146096) / 146097;
+                int dayOfEra = (int) (z - era * 146097);
+                int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+                int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+                int m = (5 * dayOfYear + 2) / 153;
+                monthDay = dayOfYear - (153 * m + 2) / 5 + 1;
+                month = m < 10 ? m + 2 : m - 10;  // 0-based, like Time
+                year = (int) (era * 400) + yearOfEra + (month < 2 ? 1 : 0);
             }
 
             public void toDebugLog() {
-                Log.v(TAG, "--> Curr time: " + currentTime.format2445());
+                Log.v(TAG, "--> Curr time: " + String.format("%04d%02d%02dT%02d%02d%02d",
+                        year, month + 1, monthDay, hour, minute, second));
+            }
+
+        }
+
+
+        /**
+         * Something to be done at a wall-clock instant. The TimeManager queues these by their
+         * next firing time, so checking the time each frame only compares against the earliest
+         * one; once fired an event is rescheduled to its next occurrence.
+         */
+        private abstract class TimeEvent implements Comparable<TimeEvent> {
+            long time;
+
+            // First occurrence strictly after nowLocal, both in local wall-clock millis
+            abstract long nextLocalTime(long localDayStart, long nowLocal);
+
+            abstract void onTime();
+
+            @Override
+            public int compareTo(TimeEvent other) {
+                return time < other.time ? -1 : (time == other.time ? 0 : 1);
+            }
+        }
+
+        // Fires every hour at the given minute
+        private abstract class HourlyEvent extends TimeEvent {
+            final int minute;
+
+            HourlyEvent(int minute_) {
+                minute = minute_;
             }
 
+            @Override
+            long nextLocalTime(long localDayStart, long nowLocal) {
+                long hourStart = nowLocal - (nowLocal - localDayStart) % TimeManager.HOUR_MILLIS;
+                long next = hourStart + minute * TimeManager.MINUTE_MILLIS;
+                return next > nowLocal ? next : next + TimeManager.HOUR_MILLIS;
+            }
+        }
+
+        // Fires every day at the given hour and minute
+        private abstract class DailyEvent extends TimeEvent {
+            final int hour, minute;
+
+            DailyEvent(int hour_, int minute_) {
+                hour = hour_;
+                minute = minute_;
+            }
+
+            @Override
+            long nextLocalTime(long localDayStart, long nowLocal) {
+                long next = localDayStart + hour * TimeManager.HOUR_MILLIS + minute * TimeManager.MINUTE_MILLIS;
+                return next > nowLocal ? next : next + TimeManager.DAY_MILLIS;
+            }
         }
 
 
@@ -677,7 +1303,13 @@ public class GazeWatchFaceService extends CanvasWatchFaceService {
             private static final int   WAKEUP_HOUR_START        = 7;                // Note: must be after midnight
             private static final int   WAKEUP_HOUR_END          = 9;
 
+            private static final int TIRED_PHASE_AWAKE = 0;
+            private static final int TIRED_PHASE_CLOSING = 1;
+            private static final int TIRED_PHASE_ASLEEP = 2;
+            private static final int TIRED_PHASE_OPENING = 3;
+
             float blinkChance;
+            long nextActionTime;  // when the next random blink or look will be triggered
 
             Eye[] eyes;
             int eyeCount;
@@ -693,6 +1325,10 @@ public class GazeWatchFaceService extends CanvasWatchFaceService {
             boolean areCuckooing;
             boolean areStaringAtTarget;
 
+            // Set by the time events, so glances don't re-evaluate the clock rules
+            boolean isCuckooTime, isWishTime;
+            int tiredPhase;
+
             float tirednessFactor;
 
             Paint eyesAmbientPaint;
@@ -702,6 +1338,7 @@ public class GazeWatchFaceService extends CanvasWatchFaceService {
                 eyeCount = 0;
                 activeEyesCount = 0;
                 blinkChance = 0;
+                nextActionTime = Long.MAX_VALUE;
                 areCuckooing = false;
                 lastEye = null;
 
@@ -714,10 +1351,15 @@ public class GazeWatchFaceService extends CanvasWatchFaceService {
                 tirednessFactor = 1;
             }
 
-            void update() {
+            // Catches the eyes up on all the steps elapsed since the last frame
+            void update(int steps) {
+                if (steps == 0) return;  // keep interpolating from the same previous step
+
                 // trigger a random eye to blink
-                if (activeEyesCount > 0) {
-                    if (Math.random() < blinkChance / (eyeCount * BLINK_CHANCE_FACTOR)) {
+                long now = System.currentTimeMillis();
+                if (now >= nextActionTime) {
+                    scheduleNextAction(now);
+                    if (activeEyesCount > 0) {
                         int id = (int) (activeEyesCount * Math.random());
                         Eye eye = activeEyes.get(id);
 //                        if (!eye.isWideOpen) eye.blink();  // may affect an already blinking eye but not a wide open one
@@ -748,21 +1390,67 @@ public class GazeWatchFaceService extends CanvasWatchFaceService {
                     }
                 }
 
+                // All but the last step in closed form, so that the previous state rendering
+                // interpolates from is always a single step behind the current one
+                if (steps > 1) updateEyes(steps - 1);
+                for (Eye eye : activeEyes) {
+                    eye.savePrevious();
+                }
+                updateEyes(1);
+            }
+
+            private void updateEyes(int steps) {
                 for (Eye eye : updateList) {
-                    eye.update();
+                    eye.update(steps);
                 }
 
                 // Unregister them from update list externally, to avoid iterator problems
                 for (int i = updateList.size() - 1; i >= 0; i--) {
                     if (!updateList.get(i).needsUpdate) updateList.remove(updateList.get(i));
                 }
+            }
 
+            // Are any eyes mid-animation? Random actions are covered by nextActionTime
+            boolean isAnimating() {
+                return !updateList.isEmpty();
             }
 
-            void render(Canvas canvas) {
-                for (Eye eye : activeEyes) {
-                    eye.render(canvas);
+            // Are eyelids the only thing moving? Blinks still read fine at a lower frame rate
+            boolean isOnlyBlinking() {
+                for (Eye eye : updateList) {
+                    if (eye.currentPupilX != eye.targetPupilX ||
+                            eye.currentPupilY != eye.targetPupilY) return false;
+                }
+                return true;
+            }
+
+            /**
+             * Random actions used to be rolled on every step with a fixed chance. Instead, draw
+             * the number of steps until the next success from the equivalent geometric
+             * distribution, so the timer can sleep until then when nothing else is going on.
+             */
+            void scheduleNextAction(long now) {
+                float frameChance = eyeCount > 0 ? blinkChance / (eyeCount * BLINK_CHANCE_FACTOR) : 0;
+                if (activeEyesCount == 0 || frameChance <= 0) {
+                    nextActionTime = Long.MAX_VALUE;
+                    return;
+                }
+
+                long steps = 1;
+                if (frameChance < 1) {
+                    steps += (long) Math.floor(Math.log(1 - Math.random()) / Math.log(1 - frameChance));
+                }
+                nextActionTime = now + steps * SIMULATION_STEP_MS;
+            }
+
+            // Copies what onDraw() needs into s, with the eyes interpolated by alpha
+            void snapshot(MosaicSnapshot s, float alpha) {
+                s.ensureCapacity(activeEyes.size());
+                s.eyeCount = activeEyes.size();
+                for (int i = 0; i < s.eyeCount; i++) {
+                    activeEyes.get(i).snapshot(s, i, alpha);
                 }
+                s.nextActionTime = nextActionTime;
             }
 
             void renderAmbient(Canvas canvas) {
@@ -805,7 +1493,7 @@ public class GazeWatchFaceService extends CanvasWatchFaceService {
 
                 // Stop cuckooing?
                 if (areCuckooing) {
-                    if (mTimeManager.minute != 0) {
+                    if (!isCuckooTime) {
                         for (Eye eye : activeEyes) {
                             eye.stopCuckooing();
                         }
@@ -813,7 +1501,7 @@ public class GazeWatchFaceService extends CanvasWatchFaceService {
                     }
 
                 // Should cuckoo?
-                } else if (mTimeManager.minute == 0 && !areStaringAtTarget) {  // trigger cuckooing on the hour
+                } else if (isCuckooTime && !areStaringAtTarget) {  // trigger cuckooing on the hour
                     areCuckooing = true;
                     for (Eye eye : activeEyes) {
                         eye.lookCenter();
@@ -821,7 +1509,7 @@ public class GazeWatchFaceService extends CanvasWatchFaceService {
                     }
                 }
 
-                boolean makeAWish = (mTimeManager.hour == 11 || mTimeManager.hour == 23) && mTimeManager.minute == 11;
+                boolean makeAWish = isWishTime;
 
                 // Trigger eyes wide open?
                 if (!areCuckooing && !areStaringAtTarget && !makeAWish &&
@@ -893,6 +1581,7 @@ public class GazeWatchFaceService extends CanvasWatchFaceService {
             void increaseBlinkChance(float increment) {
                 blinkChance += increment;
                 if (blinkChance < 0) blinkChance = 0;
+                scheduleNextAction(System.currentTimeMillis());
             }
 
 
@@ -903,28 +1592,48 @@ public class GazeWatchFaceService extends CanvasWatchFaceService {
                 }
                 activeEyesCount = 0;
                 blinkChance = 0;
+                nextActionTime = Long.MAX_VALUE;
 //                inactiveEyes.clear();   // @TODO WAS THIS RIGHT???
                 activeEyes.clear();
                 updateList.clear();
                 lastEye = null;
             }
 
+            void updateTimeOfDay() {
+                int hour = mTimeManager.hour, minute = mTimeManager.minute;
+
+                isCuckooTime = minute == 0;
+                isWishTime = (hour == 11 || hour == 23) && minute == 11;
+
+                if (hour >= TIRED_HOUR_START && hour < TIRED_HOUR_END) {
+                    tiredPhase = TIRED_PHASE_CLOSING;
+                } else if (hour >= TIRED_HOUR_END || hour < WAKEUP_HOUR_START) {
+                    tiredPhase = TIRED_PHASE_ASLEEP;
+                } else if (hour >= WAKEUP_HOUR_START && hour < WAKEUP_HOUR_END) {
+                    tiredPhase = TIRED_PHASE_OPENING;
+                } else {
+                    tiredPhase = TIRED_PHASE_AWAKE;
+                }
+            }
+
             void updateTiredness() {
-                tirednessFactor = 1;
+                switch (tiredPhase) {
+                    case TIRED_PHASE_CLOSING:
+                        tirednessFactor = 1 - (mTimeManager.hour + mTimeManager.minute / 60f - TIRED_HOUR_START)
+                                * (1 - MAX_TIRED_RATIO) / (TIRED_HOUR_END - TIRED_HOUR_START);
+                        break;
 
-                // Closing
-                if (mTimeManager.hour >= TIRED_HOUR_START && mTimeManager.hour < TIRED_HOUR_END) {
-                    tirednessFactor = 1 - (mTimeManager.hour + mTimeManager.minute / 60f - TIRED_HOUR_START)
-                            * (1 - MAX_TIRED_RATIO) / (TIRED_HOUR_END - TIRED_HOUR_START);
+                    case TIRED_PHASE_ASLEEP:
+                        tirednessFactor = MAX_TIRED_RATIO;
+                        break;
 
-                // Closed
-                } else if (mTimeManager.hour >= TIRED_HOUR_END || mTimeManager.hour < WAKEUP_HOUR_START) {
-                    tirednessFactor = MAX_TIRED_RATIO;
+                    case TIRED_PHASE_OPENING:
+                        tirednessFactor = MAX_TIRED_RATIO + (mTimeManager.hour + mTimeManager.minute / 60f - WAKEUP_HOUR_START)
+                                * (1 - MAX_TIRED_RATIO) / (WAKEUP_HOUR_END - WAKEUP_HOUR_START);
+                        break;
 
-                // Opening
-                } else if (mTimeManager.hour >= WAKEUP_HOUR_START && mTimeManager.hour < WAKEUP_HOUR_END) {
-                    tirednessFactor = MAX_TIRED_RATIO + (mTimeManager.hour + mTimeManager.minute / 60f - WAKEUP_HOUR_START)
-                            * (1 - MAX_TIRED_RATIO) / (WAKEUP_HOUR_END - WAKEUP_HOUR_START);
+                    default:
+                        tirednessFactor = 1;
                 }
 
                 if (DEBUG_LOGS) Log.v(TAG, " New tiredness factor: " + mTimeManager.hour + ":" + mTimeManager.minute + " -> " + tirednessFactor);
@@ -946,11 +1655,43 @@ public class GazeWatchFaceService extends CanvasWatchFaceService {
         }
 
 
+        /**
+         * Plain-data copy of a mosaic step, everything onDraw() needs and nothing it could
+         * race on. Eyes are keyed by id so the renderer can keep their eyelid paths around.
+         */
+        class MosaicSnapshot {
+            static final int EYE_DATA_STRIDE = 9;
+
+            int eyeCount;
+            int[] eyeIds;
+            int[] irisColors;
+            float[] eyeData;  // x, y, width, iris radius, iris offset, aperture, pupil x, y and radius per eye
+
+            boolean animating;
+            long frameIntervalMs;
+            long nextActionTime;
+
+            MosaicSnapshot() {
+                allocate(32);
+            }
+
+            void ensureCapacity(int count) {
+                if (count > eyeIds.length) allocate(2 * count);
+            }
+
+            private void allocate(int capacity) {
+                eyeIds = new int[capacity];
+                irisColors = new int[capacity];
+                eyeData = new float[EYE_DATA_STRIDE * capacity];
+            }
+        }
+
+
+
         class Eye {
 
             // Constants
 
-            final int          EYE_COLOR                = Color.rgb(252,245,245);
             static final int   EYELID_COLOR             = Color.BLACK;
             static final int   PUPIL_COLOR              = Color.BLACK;
             static final float BLINK_SPEED              = 0.40f;
@@ -967,8 +1708,8 @@ public class GazeWatchFaceService extends CanvasWatchFaceService {
             static final float PUPIL_CONTRACTION_SIZE   = 0.80f;
             static final float IRIS_OFFSET_RATIO        = 0.058f;
 
-            static final int   SIDE_LOOK_DURATION       = 50;               // in frames
-            static final int   SIDE_LOOK_RANDOM_VAR_ADD = 20;               // on top of the base, in frames
+            static final int   SIDE_LOOK_DURATION       = 50;               // in simulation steps
+            static final int   SIDE_LOOK_RANDOM_VAR_ADD = 20;               // on top of the base, in simulation steps
 
 
             EyeMosaic parent;
@@ -987,10 +1728,12 @@ public class GazeWatchFaceService extends CanvasWatchFaceService {
             int pupilPositionV;   // 0 = up, 1 = center, 2 = bottom
             float currentPupilY, targetPupilY;
 
+            // state at the previous step, for render interpolation
+            float prevAperture, prevPupilX, prevPupilY, prevPupilRadius;
+
             int irisColor;
-            Path eyelid;
-            Paint eyelidPaint, irisPaint, pupilPaint;
-            Paint eyeLinerPaint;  // @TODO make parent static or something
+            Path eyelid;  // ambient only, interactive frames draw from a MosaicSnapshot
+            float eyelidAperture;  // aperture the eyelid path was last built for
 
             boolean isActive;
             boolean blinking, lookingSideways, cuckooing, isStaringAtTarget;
@@ -1030,42 +1773,30 @@ public class GazeWatchFaceService extends CanvasWatchFaceService {
                 lookingSidewaysCounter = 0;
                 isStaringAtTarget = false;
 
-                eyelidPaint = new Paint();
-                eyelidPaint.setColor(EYE_COLOR);
-                eyelidPaint.setAntiAlias(true);
-
-                irisPaint = new Paint();
-                irisPaint.setColor(irisColor);
-                irisPaint.setAntiAlias(true);
-
-                pupilPaint = new Paint();
-                pupilPaint.setColor(PUPIL_COLOR);
-                pupilPaint.setAntiAlias(true);
-
-                eyeLinerPaint = new Paint();
-                eyeLinerPaint.setColor(EYELID_COLOR);
-                eyeLinerPaint.setStyle(Paint.Style.STROKE);
-                eyeLinerPaint.setStrokeWidth(2.0f);
-                eyeLinerPaint.setAntiAlias(true);
-
                 eyelid = new Path();
-                rewindEyelid();
+                savePrevious();
+                rewindEyelid(currentAperture);
             }
 
-            void render(Canvas canvas) {
-                canvas.save();
-                canvas.translate(x, y);
-                canvas.save();
-                canvas.clipPath(eyelid);
-                canvas.drawCircle(0, 0, 0.5f * width, eyelidPaint);
-                canvas.drawCircle(currentPupilX, currentPupilY - irisOffset, irisRadius, irisPaint);
-                canvas.drawCircle(currentPupilX, currentPupilY - irisOffset, currentPupilRadius, pupilPaint);
-                canvas.restore();
-                canvas.drawPath(eyelid, eyeLinerPaint);
-                canvas.restore();
+            void snapshot(MosaicSnapshot s, int i, float alpha) {
+                float[] d = s.eyeData;
+                int j = MosaicSnapshot.EYE_DATA_STRIDE * i;
+                d[j]     = x;
+                d[j + 1] = y;
+                d[j + 2] = width;
+                d[j + 3] = irisRadius;
+                d[j + 4] = irisOffset;
+                d[j + 5] = prevAperture + alpha * (currentAperture - prevAperture);
+                d[j + 6] = prevPupilX + alpha * (currentPupilX - prevPupilX);
+                d[j + 7] = prevPupilY + alpha * (currentPupilY - prevPupilY);
+                d[j + 8] = prevPupilRadius + alpha * (currentPupilRadius - prevPupilRadius);
+                s.eyeIds[i] = id;
+                s.irisColors[i] = irisColor;
             }
 
             void renderAmbient(Canvas canvas) {
+                if (currentAperture != eyelidAperture) rewindEyelid(currentAperture);
+
                 canvas.save();
                 canvas.translate(x, y);
                 canvas.save();
@@ -1079,29 +1810,32 @@ public class GazeWatchFaceService extends CanvasWatchFaceService {
             }
 
 
-            boolean update() {
+            boolean update(int steps) {
+                float blinkFactor = tweenFactor(BLINK_SPEED * currentTirednessFactor, steps);
+                float pupilFactor = tweenFactor(PUPIL_SPEED_HORIZONTAL * currentTirednessFactor, steps);
+                float radiusFactor = tweenFactor(PUPIL_SPEED_RADIUS * currentTirednessFactor, steps);
+
                 float diffH = targetAperture - currentAperture;
                 currentAperture = Math.abs(diffH) < ANIM_END_THRESHOLD ?
                         targetAperture :
-                        currentAperture + BLINK_SPEED * currentTirednessFactor * (diffH);
+                        currentAperture + blinkFactor * (diffH);
 
                 float diffPX = targetPupilX - currentPupilX;
                 currentPupilX = Math.abs(diffPX) < ANIM_END_THRESHOLD ?
                         targetPupilX :
-                        currentPupilX + PUPIL_SPEED_HORIZONTAL * currentTirednessFactor * (diffPX);
+                        currentPupilX + pupilFactor * (diffPX);
 
                 float diffPY = targetPupilY - currentPupilY;
                 currentPupilY = Math.abs(diffPY) < ANIM_END_THRESHOLD ?
                         targetPupilY :
-                        currentPupilY + PUPIL_SPEED_HORIZONTAL * currentTirednessFactor * (diffPY);
+                        currentPupilY + pupilFactor * (diffPY);
 
                 float diffPR = targetPupilRadius - currentPupilRadius;
                 currentPupilRadius = Math.abs(diffPR) < ANIM_END_THRESHOLD ?
                         targetPupilRadius :
-                        currentPupilRadius + PUPIL_SPEED_RADIUS * currentTirednessFactor * (diffPR);
-                rewindEyelid();
+                        currentPupilRadius + radiusFactor * (diffPR);
 
-                lookingSidewaysCounter--;
+                lookingSidewaysCounter -= steps;
 
                 // If completed an animation
                 if (currentAperture == targetAperture &&
@@ -1140,12 +1874,16 @@ public class GazeWatchFaceService extends CanvasWatchFaceService {
                 return needsUpdate;
             }
 
-            void rewindEyelid() {
-                eyelid.rewind();
-                eyelid.moveTo(-0.5f * width, 0);
-                eyelid.quadTo(0, -currentAperture, 0.5f * width, 0);
-                eyelid.quadTo(0,  currentAperture, -0.5f * width, 0);
-                eyelid.close();
+            void savePrevious() {
+                prevAperture = currentAperture;
+                prevPupilX = currentPupilX;
+                prevPupilY = currentPupilY;
+                prevPupilRadius = currentPupilRadius;
+            }
+
+            void rewindEyelid(float aperture) {
+                buildEyelid(eyelid, width, aperture);
+                eyelidAperture = aperture;
             }
 
             void activate() {
@@ -1168,6 +1906,7 @@ public class GazeWatchFaceService extends CanvasWatchFaceService {
                 currentPupilX = 0;
                 targetPupilX = 0;
                 currentTirednessFactor = 1;
+                savePrevious();
             }
 
             // hard reset with no transition
@@ -1175,7 +1914,8 @@ public class GazeWatchFaceService extends CanvasWatchFaceService {
                 deactivate();
                 isActive = true;
                 currentAperture = height;
-                rewindEyelid();
+                savePrevious();
+                rewindEyelid(currentAperture);
             }
 
             void open() {
@@ -1287,7 +2027,6 @@ public class GazeWatchFaceService extends CanvasWatchFaceService {
 
             void newIrisColor() {
                 irisColor = randomColor();
-                irisPaint.setColor(irisColor);
             }
 
             int randomColor() {
@@ -1312,5 +2051,142 @@ public class GazeWatchFaceService extends CanvasWatchFaceService {
     }
 
 
+    /**
+     * The wall-clock time as the TimeManager sees it. The debug clock options swap the system
+     * clock for a {@link VirtualClock}, so the eyes can be watched through any hour of the day.
+     */
+    private interface Clock {
+        long currentTimeMillis();
+    }
+
+    private class RealClock implements Clock {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Virtual time running at a multiple of the elapsed realtime, from wherever it was last
+     * set. A rate of 0 stands still between set() and advance() and never reads the realtime.
+     */
+    private class VirtualClock implements Clock {
+        private long baseMillis;    // virtual time at baseRealtime
+        private long baseRealtime;
+        private final float rate;
+
+        VirtualClock(long startMillis, float rate_) {
+            rate = rate_;
+            set(startMillis);
+        }
+
+        @Override
+        public synchronized long currentTimeMillis() {
+            if (rate == 0) return baseMillis;
+            return baseMillis + (long) ((SystemClock.elapsedRealtime() - baseRealtime) * rate);
+        }
+
+        public synchronized void set(long millis) {
+            baseMillis = millis;
+            if (rate != 0) baseRealtime = SystemClock.elapsedRealtime();
+        }
+
+        public synchronized void advance(long deltaMillis) {
+            set(currentTimeMillis() + deltaMillis);
+        }
+    }
+
+
+    /**
+     * A set of glyphs rasterized once, for one paint, into a single alpha bitmap. Drawing a text
+     * with it blits a cell per character instead of shaping the text each frame. An alpha bitmap
+     * is drawn in the color of the paint it is drawn with, so one atlas serves every color of
+     * the same typeface, size and anti-aliasing. Glyphs go by their own advances, unkerned.
+     */
+    private class GlyphAtlas {
+        private final Bitmap bitmap;
+        private final int ascent;                  // baseline, from the top of the cells
+        private final int[] glyphIndex;            // by character, -1 for those not in the atlas
+        private final int[] cellLeft, cellWidth;
+        private final int[] originX;               // pen position within the cell
+        private final float[] advance;
+        private final Rect src = new Rect(), dst = new Rect();
+
+        GlyphAtlas(String glyphs, Paint paint) {
+            Paint p = new Paint(paint);
+            p.setTextAlign(Paint.Align.LEFT);
+            p.setColor(Color.WHITE);
+
+            int count = glyphs.length();
+            cellLeft = new int[count];
+            cellWidth = new int[count];
+            originX = new int[count];
+            advance = new float[count];
+
+            char last = 0;
+            for (int i = 0; i < count; i++) last = (char) Math.max(last, glyphs.charAt(i));
+            glyphIndex = new int[last + 1];
+            Arrays.fill(glyphIndex, -1);
+
+            Paint.FontMetricsInt metrics = p.getFontMetricsInt();
+            ascent = -metrics.top;
+            int height = Math.max(metrics.bottom - metrics.top, 1);
+
+            Rect bounds = new Rect();
+            int x = 0;
+            for (int i = 0; i < count; i++) {
+                glyphIndex[glyphs.charAt(i)] = i;
+                advance[i] = p.measureText(glyphs, i, i + 1);
+                p.getTextBounds(glyphs, i, i + 1, bounds);
+                originX[i] = Math.max(0, -bounds.left) + 1;  // a pixel of margin for anti-aliasing
+                cellWidth[i] = originX[i] + Math.max(bounds.right, (int) Math.ceil(advance[i])) + 1;
+                cellLeft[i] = x;
+                x += cellWidth[i];
+            }
+
+            bitmap = Bitmap.createBitmap(Math.max(x, 1), height, Bitmap.Config.ALPHA_8);
+            Canvas canvas = new Canvas(bitmap);
+            for (int i = 0; i < count; i++) {
+                canvas.drawText(glyphs, i, i + 1, cellLeft[i] + originX[i], ascent, p);
+            }
+        }
+
+        float measure(char[] text, int start, int count) {
+            float width = 0;
+            for (int i = start; i < start + count; i++) {
+                int g = glyph(text[i]);
+                if (g >= 0) width += advance[g];
+            }
+            return width;
+        }
+
+        // Like drawText() with Paint.Align.RIGHT, the text ends at x
+        void drawRight(Canvas canvas, char[] text, int start, int count, float x, float y, Paint paint) {
+            draw(canvas, text, start, count, x - measure(text, start, count), y, paint);
+        }
+
+        void draw(Canvas canvas, char[] text, int start, int count, float x, float y, Paint paint) {
+            int top = Math.round(y) - ascent;
+            int height = bitmap.getHeight();
+            for (int i = start; i < start + count; i++) {
+                int g = glyph(text[i]);
+                if (g < 0) continue;
+
+                int left = Math.round(x) - originX[g];  // whole pixels, so cells are copied unfiltered
+                src.set(cellLeft[g], 0, cellLeft[g] + cellWidth[g], height);
+                dst.set(left, top, left + cellWidth[g], top + height);
+                canvas.drawBitmap(bitmap, src, dst, paint);
+                x += advance[g];
+            }
+        }
+
+        void recycle() {
+            bitmap.recycle();
+        }
+
+        private int glyph(char c) {
+            return c < glyphIndex.length ? glyphIndex[c] : -1;
+        }
+    }
 
 }
@@ -4,6 +4,7 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.LinearGradient;
@@ -18,23 +19,51 @@ import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Message;
+import android.os.Process;
+import android.os.SystemClock;
 import android.support.wearable.watchface.CanvasWatchFaceService;
 import android.support.wearable.watchface.WatchFaceStyle;
-import android.text.format.Time;
 import android.util.Log;
+import android.util.SparseBooleanArray;
+import android.view.Choreographer;
 import android.view.SurfaceHolder;
 import android.view.WindowInsets;
-
+import android.view.WindowManager;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TimeZone;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
-public class IsaacWatchFaceService extends CanvasWatchFaceService implements SensorEventListener {
+public class IsaacWatchFaceService extends CanvasWatchFaceService {
 
     private static final String  TAG = "TriangularWFService";
 
-    private static final long    INTERACTIVE_UPDATE_RATE_MS = 33;
+    private static final long    FRAME_INTERVAL_FAST_MS = 16;    // 60 fps, cursor moving fast
+    private static final long    FRAME_INTERVAL_NORMAL_MS = 33;  // 30 fps
+    private static final long    SIMULATION_STEP_MS = 33;        // physics and animations advance in fixed steps
+    private static final int     SENSOR_RING_CAPACITY = 64;      // accelerometer samples buffered between simulation steps, a power of two
+    private static final int     ACCELEROMETER_MAX_LATENCY_US = 100000;  // the hardware FIFO may hold accelerometer samples this long before waking us up
+    private static final float   GRAVITY_TIME_CONSTANT = 0.8f;   // seconds, what alpha = 0.8 at the nominal 200ms SENSOR_DELAY_NORMAL rate amounted to
+    private static final float   ACCELEROMETER_FAST_ENERGY = 0.25f;  // squared m/s2 of motion that switches the accelerometer to game rate
+    private static final float   ACCELEROMETER_SLOW_ENERGY = 0.10f;  // and under which it may drop back to the slow rate...
+    private static final long    ACCELEROMETER_SLOW_HOLD_MS = 2000;  // ...once it has stayed there this long
+    private static final float   GRAVITY_FAST_ENERGY = 0.12f;    // squared m/s2, a tilt of about 2 degrees switches fused gravity to game rate
+    private static final float   GRAVITY_SLOW_ENERGY = 0.03f;    // about 1 degree, under which it may drop back to the slow rate
+    private static final long    IDLE_WAKEUP_PERIOD_MS = TimeUnit.MINUTES.toMillis(1);  // parked timer still wakes on each minute change
 
     private static final int     BACKGROUND_COLOR_AMBIENT = Color.BLACK;
     private final static int     BACKGROUND_COLORS_COUNT = 24;
@@ -48,15 +77,24 @@ public class IsaacWatchFaceService extends CanvasWatchFaceService implements Sen
     private static final float   TEXT_DIGITS_HEIGHT = 0.2f;  // as a factor of screen height
     private static final float   TEXT_DIGITS_BASELINE_HEIGHT = 0.43f;  // as a factor of screen height
     private static final float   TEXT_DIGITS_RIGHT_MARGIN = 0.08f;  // as a factor of screen width
+    private static final String  TEXT_DIGITS_GLYPHS = "0123456789:";  // all the time display can show
 
     private static final int     RESET_HOUR = 4;  // at which hour will watch face reset [0...23], -1 to deactivate
     private static final long    INACTIVITY_RESET_TIME = TimeUnit.HOURS.toMillis(1);
 
     // DEBUG
     private static final boolean DEBUG_LOGS = false;
+    private static final boolean DEBUG_RECORD_SENSOR_TRACE = false;  // append sensor and lifecycle events to a binary trace in the files dir
+    private static final String  DEBUG_REPLAY_SENSOR_TRACE = null;  // trace in the files dir to play back instead of the live sensors
+    private static final boolean DEBUG_REPLAY_REAL_TIME = true;  // through the sensors at the pace it was recorded, or stepping the models straight from it as fast as possible
     private static final int     RESET_CRACK_THRESHOLD = 0;  // every nth glance, cracks will be reset (0 does no resetting)
     private static final boolean RANDOM_TIME_PER_GLANCE = false;  // this will add an hour to the time at each glance
     private static final int     RANDOM_MINUTES_INC = 60;
+    private static final float   DEBUG_CLOCK_RATE = 1;  // run the time this many times faster than real time
+    private static final boolean DEBUG_SOAK_DAY = false;  // play a day of glances through a TimeManager at startup, on the simulation thread
+    private static final long    SOAK_GLANCE_INTERVAL = TimeUnit.MINUTES.toMillis(10);
+    private static final long    SOAK_GLANCE_LENGTH = TimeUnit.SECONDS.toMillis(5);
+    private static final long    SOAK_FRAME_INTERVAL = 16;
     private static final boolean DEBUG_FAKE_ROUND = false;
 
 
@@ -65,42 +103,247 @@ public class IsaacWatchFaceService extends CanvasWatchFaceService implements Sen
         return new Engine();
     }
 
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        // Sensor events are delivered here rather than on the main looper, away from onDraw()
+        mSensorThread = new HandlerThread(TAG + "Sensors", Process.THREAD_PRIORITY_DISPLAY);
+        mSensorThread.start();
+        mSensorHandler = new Handler(mSensorThread.getLooper());
+
+        if (DEBUG_REPLAY_SENSOR_TRACE != null && DEBUG_REPLAY_REAL_TIME) {
+            mSensorSource = new ReplaySensorSource(new File(getFilesDir(), DEBUG_REPLAY_SENSOR_TRACE));
+        } else {
+            mSensorSource = new LiveSensorSource((SensorManager) getSystemService(Context.SENSOR_SERVICE));
+        }
+
+        // One of each, shared by all the engines, see SensorWrapper.subscribe()
+        mSensorAccelerometer = new SensorWrapper("Accelerometer", Sensor.TYPE_ACCELEROMETER, 3, mSensorSource);
+        mSensorGravity = new SensorWrapper("Gravity", Sensor.TYPE_GRAVITY, 3, mSensorSource);
+
+        // Prefer gravity fused by the sensor hub, rather than filtered here
+        mUseFusedSensors = mSensorGravity.isActive;
+        SensorWrapper motionSensor = mUseFusedSensors ? mSensorGravity : mSensorAccelerometer;
+        motionSensor.maxReportLatencyUs = ACCELEROMETER_MAX_LATENCY_US;
+        // Fused gravity is smooth and carries no shaking, only tilt, which is all the cursor
+        // responds to: it needs its own, lower, thresholds to pick up a turn of the wrist
+        if (mUseFusedSensors) {
+            motionSensor.setAdaptiveRate(GRAVITY_FAST_ENERGY, GRAVITY_SLOW_ENERGY,
+                    ACCELEROMETER_SLOW_HOLD_MS);
+        } else {
+            motionSensor.setAdaptiveRate(ACCELEROMETER_FAST_ENERGY, ACCELEROMETER_SLOW_ENERGY,
+                    ACCELEROMETER_SLOW_HOLD_MS);
+        }
+        if (DEBUG_LOGS) Log.v(TAG, "Fused motion sensors: " + mUseFusedSensors);
+
+        if (DEBUG_RECORD_SENSOR_TRACE) {
+            mTraceRecorder = new SensorTraceRecorder(
+                    new File(getFilesDir(), "sensors-" + System.currentTimeMillis() + ".trace"));
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        mSensorSource.unregisterAll();
+        if (mTraceRecorder != null) {
+            mSensorHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mTraceRecorder.close();
+                }
+            });
+        }
+        mSensorThread.quitSafely();  // after the trace is written out
+        super.onDestroy();
+    }
+
+    /**
+     * Decides at which rate the face should be rendering in interactive mode. Each Engine
+     * overrides {@link #selectFrameInterval()} to pick a tier from its current model state,
+     * and the policy is re-evaluated on every frame.
+     */
+    private abstract class FramePolicy {
+
+        long frameIntervalMs = FRAME_INTERVAL_NORMAL_MS;
+
+        abstract long selectFrameInterval();
+
+        // Returns true if the frame interval changed
+        boolean update() {
+            long intervalMs = selectFrameInterval();
+            if (intervalMs == frameIntervalMs) return false;
+            if (DEBUG_LOGS) Log.v(TAG, "Frame interval: " + frameIntervalMs + " -> " + intervalMs + "ms");
+            frameIntervalMs = intervalMs;
+            return true;
+        }
+
+        void reset() {
+            frameIntervalMs = FRAME_INTERVAL_NORMAL_MS;
+        }
+    }
+
+    /**
+     * Fixed-timestep clock for the face's simulation. Frame times are accumulated and paid
+     * out as whole {@link #SIMULATION_STEP_MS} steps, so the models move at the same speed
+     * whatever the frame rate or the number of dropped frames. The remainder left in the
+     * accumulator is exposed as {@link #alpha}, to interpolate rendering between the
+     * previous and the current step.
+     *
+     * Tweens catch up on every elapsed step in closed form, see {@link #tweenFactor}; only
+     * the integrated physics is iterated, and at most {@link #physicsSteps} times a frame.
+     */
+    private class SimulationClock {
+
+        private static final int MAX_PHYSICS_STEPS_PER_FRAME = 5;  // beyond this, drop time rather than stall catching up
+
+        final long stepNanos = TimeUnit.MILLISECONDS.toNanos(SIMULATION_STEP_MS);
+        long lastTimeNanos;
+        long accumulatorNanos;
+        int physicsSteps;  // steps the physics should iterate this frame
+        float alpha;  // 0 renders the previous step, 1 the current one
+
+        void reset() {
+            lastTimeNanos = 0;
+            accumulatorNanos = 0;
+            physicsSteps = 0;
+            alpha = 1;
+        }
+
+        // Returns how many steps have elapsed since the previous frame, uncapped
+        int advance(long timeNanos) {
+            if (lastTimeNanos == 0) {
+                // First frame after a (re)start: take a single step, don't catch up on the pause
+                lastTimeNanos = timeNanos;
+                accumulatorNanos = 0;
+                physicsSteps = 1;
+                alpha = 0;
+                return 1;
+            }
+
+            accumulatorNanos += timeNanos - lastTimeNanos;
+            lastTimeNanos = timeNanos;
+            int steps = (int) (accumulatorNanos / stepNanos);
+            accumulatorNanos -= steps * stepNanos;
+            physicsSteps = Math.min(steps, MAX_PHYSICS_STEPS_PER_FRAME);
+            alpha = (float) accumulatorNanos / stepNanos;
+
+            return steps;
+        }
+
+        // When the i-th of this frame's physics steps falls, in the frame timebase
+        long physicsStepTimeNanos(int i) {
+            return lastTimeNanos - accumulatorNanos - (physicsSteps - 1 - i) * stepNanos;
+        }
+    }
+
+    /**
+     * How much of the remaining distance an exponential approach covers after a number of
+     * steps, when it covers a fraction rate of it on each one. Lets an eased value jump
+     * straight to where per-step easing would have taken it, however many steps were missed.
+     */
+    static float tweenFactor(float rate, int steps) {
+        if (steps == 1) return rate;
+        return 1 - (float) Math.pow(1 - rate, steps);
+    }
+
     private class Engine extends CanvasWatchFaceService.Engine {
 
         private static final int MSG_UPDATE_TIMER = 0;
 
-        /* Handler to updateSize the screen depending on the message */
+        /* Handler to wake the frame pump back up after it was parked */
         final Handler mMainHandler = new Handler() {
             @Override
             public void handleMessage(Message message) {
                 switch (message.what) {
                     case MSG_UPDATE_TIMER:
-                        invalidate();
-                        if (shouldTimerBeRunning()) {
-                            long timeMs = System.currentTimeMillis();
-                            long delayMs = INTERACTIVE_UPDATE_RATE_MS
-                                    - (timeMs % INTERACTIVE_UPDATE_RATE_MS);
-                            mMainHandler.sendEmptyMessageDelayed(MSG_UPDATE_TIMER, delayMs);
-                        }
+                        updateTimer();
                         break;
                 }
             }
         };
 
+        private FramePump mFramePump;
+        private final SimulationClock mSimulationClock = new SimulationClock();
+
+        /*
+         * The board is stepped on its own thread, which holds mSimulationLock while touching it;
+         * anything else reaching into the board must hold it too. Each step is published as a
+         * BoardSnapshot: the front one is only read by onDraw(), the back one only written by
+         * whoever holds mSimulationLock, and they are swapped under mSnapshotLock.
+         */
+        private HandlerThread mSimulationThread;
+        private Handler mSimulationHandler;
+        private final Object mSimulationLock = new Object();
+        private final Object mSnapshotLock = new Object();
+        private BoardSnapshot mFrontSnapshot = new BoardSnapshot();
+        private BoardSnapshot mBackSnapshot = new BoardSnapshot();
+        private volatile long mSimulationFrameTimeNanos;
+        private volatile boolean mSimulationStepPosted;
+
+        // Motion readings handed over by the sensor thread: raw accelerometer ones are filtered
+        // on the simulation side, fused ones taken as they are
+        private final SensorRing mAccelerometerRing = new SensorRing(SENSOR_RING_CAPACITY, 3);
+        private final SensorRing mGravityRing = new SensorRing(SENSOR_RING_CAPACITY, 3);
+        private final float[] mAccelerometerSample = new float[3];
+        private long mLastAccelerometerTimestamp;
+        private final float[] mFilteredGravity = new float[3];  // filter state, when filtering here
+        private final float[] mMotionSample = new float[3];
+
+        // Readings are kept with their timestamps, and estimated at the instant of each
+        // physics step rather than held at the last one, which may be 200ms old
+        private final SensorHistory mGravityHistory = new SensorHistory(3);
+        private long mSensorTimeOffsetNanos;  // from the frame timebase to the sensors' one
+        private boolean mTraceReplayed;  // with DEBUG_REPLAY_SENSOR_TRACE, but not DEBUG_REPLAY_REAL_TIME
+        private final float[] gravity = new float[3];
+        private Path mSnapshotPath;
+        private Paint mSnapshotPaint;
+
+        private final Runnable mSimulationStep = new Runnable() {
+            @Override
+            public void run() {
+                mSimulationStepPosted = false;  // frames after this point post again
+                synchronized (mSimulationLock) {
+                    drainSensors();
+                    board.update(mSimulationClock.advance(mSimulationFrameTimeNanos));
+                    publishSnapshot(mSimulationClock.alpha);
+                }
+                postInvalidate();
+            }
+        };
+
+        private final FramePolicy mFramePolicy = new FramePolicy() {
+            @Override
+            long selectFrameInterval() {
+                // Hysteresis so it doesn't flip back and forth around a single speed
+                float fastSpeed = frameIntervalMs == FRAME_INTERVAL_FAST_MS ?
+                        Cursor.FAST_SPEED_EXIT : Cursor.FAST_SPEED_ENTER;
+                return board.cursor != null && board.cursor.speed() > fastSpeed ?
+                        FRAME_INTERVAL_FAST_MS : FRAME_INTERVAL_NORMAL_MS;
+            }
+        };
+        private volatile boolean mTimerParked = false;
+
 
 
         private boolean mRegisteredTimeZoneReceiver = false;
         private boolean mAmbient, mScreenOn;
+        private boolean mGlanceActive;
 //        private boolean mLowBitAmbient;
 //        private boolean mBurnInProtection;
 
+        private Clock mClock;
+        private VirtualClock mVirtualClock;  // the same clock, when a debug option needs one
         private TimeManager mTimeManager;
-        private String mTimeStr;
-        private int mLastAmbientHour;
-        private Time mCurrentGlance;
+        private final char[] mTimeChars = new char[5];  // "h:mm" or "hh:mm"
+        private int mTimeLength;
+        private long mTimeExpiry;  // TimeManager.nextMinute() when mTimeChars were built
+        private int mBackgroundColor;
+        private long mCurrentGlance;
         private long mPrevGlance;
 
         private Paint mTextDigitsPaintInteractive, mTextDigitsPaintAmbient;
+        private GlyphAtlas mTextDigitsAtlasInteractive, mTextDigitsAtlasAmbient;
         private float mTextDigitsHeight, mTextDigitsBaselineHeight, mTextDigitsRightMargin;
         private final Rect textBounds = new Rect();
         private Typeface RALEWAY_REGULAR_TYPEFACE;
@@ -128,12 +371,25 @@ public class IsaacWatchFaceService extends CanvasWatchFaceService implements Sen
             if (DEBUG_LOGS) Log.v(TAG, "onCreate(): " + holder.toString());
             super.onCreate(holder);
 
+            mEngines.add(this);
+
             setWatchFaceStyle(new WatchFaceStyle.Builder(IsaacWatchFaceService.this)
                     .setCardPeekMode(WatchFaceStyle.PEEK_MODE_SHORT)
                     .setBackgroundVisibility(WatchFaceStyle.BACKGROUND_VISIBILITY_INTERRUPTIVE)
                     .setShowSystemUiTime(false)
                     .build());
 
+            mFramePump = new FramePump();
+
+            mSimulationThread = new HandlerThread(TAG + "Simulation", Process.THREAD_PRIORITY_DISPLAY);
+            mSimulationThread.start();
+            mSimulationHandler = new Handler(mSimulationThread.getLooper());
+
+            mSnapshotPath = new Path();
+            mSnapshotPaint = new Paint();
+            mSnapshotPaint.setStyle(Paint.Style.FILL);
+            mSnapshotPaint.setAntiAlias(true);
+
             RALEWAY_REGULAR_TYPEFACE = Typeface.createFromAsset(getApplicationContext().getAssets(),
                     RALEWAY_TYPEFACE_PATH);
 
@@ -158,24 +414,39 @@ public class IsaacWatchFaceService extends CanvasWatchFaceService implements Sen
             board = new Board();
 
 //            mTime  = new Time();
-            mTimeManager = new TimeManager() {
+            if (RANDOM_TIME_PER_GLANCE || DEBUG_CLOCK_RATE != 1) {
+                // Frozen between the random jumps, otherwise running at the debug rate
+                mVirtualClock = new VirtualClock(System.currentTimeMillis(),
+                        RANDOM_TIME_PER_GLANCE ? 0 : DEBUG_CLOCK_RATE);
+                mClock = mVirtualClock;
+            } else {
+                mClock = new RealClock();
+            }
+
+            mTimeManager = new TimeManager(mClock) {
                 @Override
                 public void onReset() {
                     if (DEBUG_LOGS) Log.v(TAG, "RESETTING!!");
-
+                    synchronized (mSimulationLock) {
+                        if (board.cursor != null) board.reset();  // nothing to reset before the first surface
+                    }
                 }
             };
             if (RESET_HOUR >= 0) {
                 mTimeManager.setOvernightResetHour(RESET_HOUR);
             }
-            mCurrentGlance = new Time();
-            mCurrentGlance.setToNow();
-            mPrevGlance = mCurrentGlance.toMillis(false);
+            if (DEBUG_SOAK_DAY) {
+                mSimulationHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        runSoakDay();
+                    }
+                });
+            }
+            mCurrentGlance = mClock.currentTimeMillis();
+            mPrevGlance = mCurrentGlance;
 
-            mSensorManager = (SensorManager) getSystemService(Context.SENSOR_SERVICE);
-            mSensorAccelerometer = new SensorWrapper("Accelerometer", Sensor.TYPE_ACCELEROMETER, 3,
-                    IsaacWatchFaceService.this, mSensorManager);
-            mSensorAccelerometer.register();
+            registerMotionSensors();
 
             registerScreenReceiver();
 
@@ -205,6 +476,14 @@ public class IsaacWatchFaceService extends CanvasWatchFaceService implements Sen
             backgroundColors[22] = Color.HSVToColor(new float[]{ 160.0f, 1.0f, 1.0f});
             backgroundColors[23] = Color.HSVToColor(new float[]{ 145.0f, 1.0f, 1.0f});
 
+            mBackgroundColor = backgroundColors[mTimeManager.hour];
+            mTimeManager.schedule(new HourlyEvent(0) {
+                @Override
+                void onTime() {
+                    mBackgroundColor = backgroundColors[mTimeManager.hour];
+                }
+            });
+
             triangleColorNew = generateTriangleColor();
         }
 
@@ -212,16 +491,26 @@ public class IsaacWatchFaceService extends CanvasWatchFaceService implements Sen
         public void onDestroy() {
             if (DEBUG_LOGS) Log.v(TAG, "onDestroy()");
             mMainHandler.removeMessages(MSG_UPDATE_TIMER);
+            mFramePump.stop();
+            mSimulationHandler.removeCallbacks(mSimulationStep);
+            mSimulationHandler.removeCallbacks(mWakeCheck);
+            mSimulationThread.quit();
+            if (mTextDigitsAtlasInteractive != null) {  // created with the surface
+                mTextDigitsAtlasInteractive.recycle();
+                mTextDigitsAtlasAmbient.recycle();
+                mTextDigitsAtlasInteractive = mTextDigitsAtlasAmbient = null;
+            }
             unregisterTimeZoneReceiver();
             unregisterScreenReceiver();
-            mSensorAccelerometer.unregister();
-            mSensorManager.unregisterListener(IsaacWatchFaceService.this);
+            unregisterMotionSensors();
+            mEngines.remove(this);
             super.onDestroy();
         }
 
         @Override
         public void onTimeTick() {
             super.onTimeTick();
+            traceLifecycle(SensorTraceRecorder.TIME_TICK);
             invalidate();
         }
 
@@ -229,12 +518,16 @@ public class IsaacWatchFaceService extends CanvasWatchFaceService implements Sen
         public void onAmbientModeChanged(boolean inAmbientMode) {
             if (DEBUG_LOGS) Log.v(TAG, "onAmbientModeChanged: " + inAmbientMode);
             super.onAmbientModeChanged(inAmbientMode);
+            traceLifecycle(inAmbientMode ? SensorTraceRecorder.AMBIENT_ON : SensorTraceRecorder.AMBIENT_OFF);
 
             if (mAmbient != inAmbientMode) {
                 mAmbient = inAmbientMode;
                 invalidate();
             }
 
+            // Start the glance before the first interactive frame, not after it
+            onScreenChange(!inAmbientMode && isVisible());
+
             /*
              * Whether the timer should be running depends on whether we're visible (as well as
              * whether we're in ambient mode), so we may need to start or stop the timer.
@@ -246,11 +539,14 @@ public class IsaacWatchFaceService extends CanvasWatchFaceService implements Sen
         public void onVisibilityChanged(boolean visible) {
             if (DEBUG_LOGS) Log.v(TAG, "onVisibilityChanged: " + visible);
             super.onVisibilityChanged(visible);
+            traceLifecycle(visible ? SensorTraceRecorder.VISIBLE : SensorTraceRecorder.INVISIBLE);
 
             if (visible)
-                mSensorAccelerometer.register();
+                registerMotionSensors();
             else
-                mSensorAccelerometer.unregister();
+                unregisterMotionSensors();
+
+            onScreenChange(visible && !isInAmbientMode());
 
             /*
             * Whether the timer should be running depends on whether we're visible
@@ -267,10 +563,13 @@ public class IsaacWatchFaceService extends CanvasWatchFaceService implements Sen
                 if (DEBUG_LOGS) Log.v(TAG, "Received intent: " + action);
                 if (action.equals(Intent.ACTION_SCREEN_ON)) {
                     if (DEBUG_LOGS) Log.v(TAG, "Screen ON");
+                    traceLifecycle(SensorTraceRecorder.SCREEN_ON);
                     mScreenOn = true;
                     onScreenChange(true);
                 } else if (action.equals(Intent.ACTION_SCREEN_OFF)) {
                     if (DEBUG_LOGS) Log.v(TAG, "Screen OFF");
+                    traceLifecycle(SensorTraceRecorder.SCREEN_OFF);
+                    flushSensorTrace();
                     mScreenOn = false;
                     onScreenChange(false);
                 }
@@ -293,31 +592,38 @@ public class IsaacWatchFaceService extends CanvasWatchFaceService implements Sen
          * This is a dedicated method to account for screen changes, which will happen when
          * the watch goes to ambient mode (if active), or if visibility changes (if ambient
          * mode is off).
-         * This method should be called from a Broadcast receiver targeting Intent.ACTION_SCREEN_ON/OFF
+         * It is called from onAmbientModeChanged() and onVisibilityChanged(), which arrive before
+         * the first frame is drawn, and again from the Broadcast receiver targeting
+         * Intent.ACTION_SCREEN_ON/OFF, which arrives after it. Whichever comes first starts or
+         * ends the glance, the others are ignored.
          * @param turnedOn
          */
         public void onScreenChange(boolean turnedOn) {
+            if (turnedOn == mGlanceActive) return;
+            mGlanceActive = turnedOn;
             if (DEBUG_LOGS) Log.v(TAG, "onScreenChange: " + turnedOn);
+            if (turnedOn) mFramePump.onWake();
 
             if (turnedOn) {
                 registerTimeZoneReceiver();
-                mSensorAccelerometer.register();
+                registerMotionSensors();
 
                 if (RANDOM_TIME_PER_GLANCE) {
-                    mTimeManager.addRandomInc();
+                    addRandomTime();
                 }
 
                 glances++;
-                if (shouldReset()) board.reset();
-
-            } else {
-                if (timelyReset()) {
-                    if (DEBUG_LOGS) Log.v(TAG, "Resetting watchface");
-                    board.reset();
+                if (shouldReset()) {
+                    synchronized (mSimulationLock) {
+                        board.reset();
+                    }
                 }
 
+            } else {
                 unregisterTimeZoneReceiver();
-                mSensorAccelerometer.unregister();
+                unregisterMotionSensors();
+
+                if (DEBUG_LOGS) mFramePump.toDebugLog();
             }
 
             /*
@@ -327,6 +633,48 @@ public class IsaacWatchFaceService extends CanvasWatchFaceService implements Sen
             updateTimer();
         }
 
+        // Debug: jumps the virtual clock a random amount ahead, as if the watch had been left alone
+        private void addRandomTime() {
+            long rInc = (long) (TimeUnit.MINUTES.toMillis(RANDOM_MINUTES_INC) * Math.random());
+            if (DEBUG_LOGS) Log.v(TAG, "Adding randomInc: " + rInc);
+
+            mVirtualClock.advance(rInc);
+            mTimeManager.setToNow();
+        }
+
+        /**
+         * Debug: plays a whole day of glances, a frame at a time, through a TimeManager of its own
+         * on a frozen VirtualClock, and logs how long that took. Only the time keeping is soaked:
+         * nothing is simulated or drawn, and the face's own state is left alone. Runs on the
+         * simulation thread, where it holds up the frames rather than the UI.
+         */
+        private void runSoakDay() {
+            final VirtualClock clock = new VirtualClock(mClock.currentTimeMillis(), 0);
+            final int[] resets = new int[1];
+            TimeManager timeManager = new TimeManager(clock) {
+                @Override
+                public void onReset() {
+                    resets[0]++;
+                }
+            };
+            if (RESET_HOUR >= 0) {
+                timeManager.setOvernightResetHour(RESET_HOUR);
+            }
+
+            int frames = 0;
+            long startNanos = System.nanoTime();
+            for (long t = 0; t < TimeUnit.DAYS.toMillis(1); t += SOAK_GLANCE_INTERVAL) {
+                for (long f = 0; f < SOAK_GLANCE_LENGTH; f += SOAK_FRAME_INTERVAL) {
+                    timeManager.setToNow();
+                    clock.advance(SOAK_FRAME_INTERVAL);
+                    frames++;
+                }
+                clock.advance(SOAK_GLANCE_INTERVAL - SOAK_GLANCE_LENGTH);
+            }
+            Log.v(TAG, "Soak day: " + frames + " frames, " + resets[0] + " resets in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) + "ms");
+        }
+
         @Override
         public void onSurfaceChanged(SurfaceHolder holder, int format, int width, int height) {
             if (DEBUG_LOGS) Log.v(TAG, "onSurfaceChanged: " + format + " " + width + " " + height);
@@ -338,13 +686,30 @@ public class IsaacWatchFaceService extends CanvasWatchFaceService implements Sen
             mCenterY = 0.50f * mHeight;
             mRadius  = 0.50f * mWidth;
 
-            board.initialize(mWidth, mHeight);
+            synchronized (mSimulationLock) {
+                board.initialize(mWidth, mHeight);
+            }
+            if (DEBUG_REPLAY_SENSOR_TRACE != null && !DEBUG_REPLAY_REAL_TIME && !mTraceReplayed) {
+                mTraceReplayed = true;  // once the board has a size to move in
+                mSimulationHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        replaySensorTrace(new File(getFilesDir(), DEBUG_REPLAY_SENSOR_TRACE));
+                    }
+                });
+            }
 
             mTextDigitsHeight = TEXT_DIGITS_HEIGHT * mHeight;
             mTextDigitsBaselineHeight = TEXT_DIGITS_BASELINE_HEIGHT * mHeight;
             mTextDigitsRightMargin = TEXT_DIGITS_RIGHT_MARGIN * mWidth;
             mTextDigitsPaintInteractive.setTextSize(mTextDigitsHeight);
             mTextDigitsPaintAmbient.setTextSize(mTextDigitsHeight);
+            if (mTextDigitsAtlasInteractive != null) {
+                mTextDigitsAtlasInteractive.recycle();
+                mTextDigitsAtlasAmbient.recycle();
+            }
+            mTextDigitsAtlasInteractive = new GlyphAtlas(TEXT_DIGITS_GLYPHS, mTextDigitsPaintInteractive);
+            mTextDigitsAtlasAmbient = new GlyphAtlas(TEXT_DIGITS_GLYPHS, mTextDigitsPaintAmbient);
         }
 
         @Override
@@ -359,27 +724,87 @@ public class IsaacWatchFaceService extends CanvasWatchFaceService implements Sen
         @Override
         public void onDraw(Canvas canvas, Rect bounds) {
 //            if (DEBUG_LOGS) Log.v(TAG, "Drawing canvas " + mFrameCount++);
+            mFramePump.onDrawStart();
 
             mTimeManager.setToNow();
-            mTimeStr = (mTimeManager.hour % 12 == 0 ? 12 : mTimeManager.hour % 12) + ":"
-                    + String.format("%02d", mTimeManager.minute);
+            if (mTimeManager.nextMinute() != mTimeExpiry) {  // only rebuilt when the minute turns
+                int hour = mTimeManager.hour % 12 == 0 ? 12 : mTimeManager.hour % 12;
+                mTimeLength = 0;
+                if (hour >= 10) mTimeChars[mTimeLength++] = (char) ('0' + hour / 10);
+                mTimeChars[mTimeLength++] = (char) ('0' + hour % 10);
+                mTimeChars[mTimeLength++] = ':';
+                mTimeChars[mTimeLength++] = (char) ('0' + mTimeManager.minute / 10);
+                mTimeChars[mTimeLength++] = (char) ('0' + mTimeManager.minute % 10);
+                mTimeExpiry = mTimeManager.nextMinute();
+            }
 
 
             if (mAmbient) {
                 canvas.drawColor(BACKGROUND_COLOR_AMBIENT); // background
 
-                board.render(canvas, true);
+                synchronized (mSimulationLock) {
+                    board.renderAmbient(canvas);
+                }
 //                renderGrid(canvas, 1, 1);
-                canvas.drawText(mTimeStr, mWidth - mTextDigitsRightMargin,
-                        mTextDigitsBaselineHeight, mTextDigitsPaintAmbient);
+                mTextDigitsAtlasAmbient.drawRight(canvas, mTimeChars, 0, mTimeLength,
+                        mWidth - mTextDigitsRightMargin, mTextDigitsBaselineHeight, mTextDigitsPaintAmbient);
 
             } else {
-                canvas.drawColor(backgroundColors[mTimeManager.hour]);
+                canvas.drawColor(mBackgroundColor);
+
+                synchronized (mSnapshotLock) {
+                    renderSnapshot(canvas, mFrontSnapshot);
+                }
+                mTextDigitsAtlasInteractive.drawRight(canvas, mTimeChars, 0, mTimeLength,
+                        mWidth - mTextDigitsRightMargin, mTextDigitsBaselineHeight, mTextDigitsPaintInteractive);
+            }
+
+            mFramePump.onDrawEnd();
+        }
+
+        /**
+         * Fills the back snapshot from the board, cursor interpolated by alpha, and swaps it
+         * to the front. Must be called holding mSimulationLock.
+         */
+        private void publishSnapshot(float alpha) {
+            board.snapshot(mBackSnapshot, alpha);
+            mBackSnapshot.animating = board.isAnimating();
+            mFramePolicy.update();
+            mBackSnapshot.frameIntervalMs = mFramePolicy.frameIntervalMs;
+
+            synchronized (mSnapshotLock) {
+                BoardSnapshot published = mBackSnapshot;
+                mBackSnapshot = mFrontSnapshot;
+                mFrontSnapshot = published;
+            }
+        }
+
+        private void renderSnapshot(Canvas canvas, BoardSnapshot s) {
+            float[] p = s.trianglePoints;
+            for (int i = 0; i < s.triangleCount; i++) {
+                int j = 8 * i;
+                mSnapshotPath.rewind();
+                mSnapshotPath.moveTo(p[j], p[j + 1]);
+                if (s.triangleCorners[i]) mSnapshotPath.lineTo(p[j + 2], p[j + 3]);
+                mSnapshotPath.lineTo(p[j + 4], p[j + 5]);
+                mSnapshotPath.lineTo(p[j + 6], p[j + 7]);
+                mSnapshotPaint.setColor(s.triangleColors[i]);
+                mSnapshotPaint.setShader(s.triangleShaders[i]);
+                canvas.drawPath(mSnapshotPath, mSnapshotPaint);
+            }
 
-                board.render(canvas, false);
-                canvas.drawText(mTimeStr, mWidth - mTextDigitsRightMargin,
-                        mTextDigitsBaselineHeight, mTextDigitsPaintInteractive);
+            if (s.cursorShader != null) {
+                float[] c = s.cursorPoints;
+                mSnapshotPath.rewind();
+                mSnapshotPath.moveTo(c[0], c[1]);
+                mSnapshotPath.lineTo(c[2], c[3]);
+                mSnapshotPath.lineTo(c[4], c[5]);
+                mSnapshotPaint.setColor(Color.WHITE);
+                mSnapshotPaint.setShader(s.cursorShader);
+                canvas.drawPath(mSnapshotPath, mSnapshotPaint);
             }
+
+            mSnapshotPaint.setShader(null);
         }
 
         private void renderGrid(Canvas canvas, int gapWidth, int lineWidth) {
@@ -399,6 +824,8 @@ public class IsaacWatchFaceService extends CanvasWatchFaceService implements Sen
             @Override
             public void onReceive(Context context, Intent intent) {
                 mTimeManager.setTimeZone(intent);
+                mTimeExpiry = 0;  // the minute may end at the same instant in the new zone
+                mBackgroundColor = backgroundColors[mTimeManager.hour];
             }
         };
 
@@ -421,19 +848,234 @@ public class IsaacWatchFaceService extends CanvasWatchFaceService implements Sen
 
         private void updateTimer() {
             mMainHandler.removeMessages(MSG_UPDATE_TIMER);
+            mTimerParked = false;
             if (shouldTimerBeRunning()) {
-                mMainHandler.sendEmptyMessage(MSG_UPDATE_TIMER);
+                mFramePump.start();
+            } else {
+                mFramePump.stop();
+            }
+        }
+
+        /**
+         * Stops the frame pump while nothing is animating. It is woken up again on the next
+         * minute change (for the digits), by sensor motion, or by a new glance.
+         */
+        private void parkTimer() {
+            mFramePump.stop();
+            mTimerParked = true;
+            long timeMs = System.currentTimeMillis();
+            long delayMs = IDLE_WAKEUP_PERIOD_MS - (timeMs % IDLE_WAKEUP_PERIOD_MS);
+            mMainHandler.sendEmptyMessageDelayed(MSG_UPDATE_TIMER, delayMs);
+        }
+
+        private volatile boolean mMotionSensorsSubscribed;  // readings are only fanned out to engines subscribed to them
+
+        private void registerMotionSensors() {
+            if (mMotionSensorsSubscribed) return;
+            mMotionSensorsSubscribed = true;
+            if (mUseFusedSensors) {
+                mSensorGravity.subscribe();
+            } else {
+                mSensorAccelerometer.subscribe();
+            }
+        }
+
+        private void unregisterMotionSensors() {
+            if (!mMotionSensorsSubscribed) return;
+            mMotionSensorsSubscribed = false;
+            if (mUseFusedSensors) {
+                mSensorGravity.unsubscribe();
+            } else {
+                mSensorAccelerometer.unsubscribe();
+            }
+        }
+
+        /**
+         * Called on the sensor thread for every accelerometer, gravity or linear acceleration
+         * reading.
+         */
+        void onMotionSample(int type, long timestampNanos, float[] values) {
+            if (!mMotionSensorsSubscribed) return;
+            switch (type) {
+                case Sensor.TYPE_ACCELEROMETER:
+                    mAccelerometerRing.offer(values, timestampNanos);
+                    break;
+                case Sensor.TYPE_GRAVITY:
+                    mGravityRing.offer(values, timestampNanos);
+                    break;
+            }
+            onMotion();
+        }
+
+        /**
+         * Called on the sensor thread on every new sensor reading. If the timer was parked
+         * because the board had come to rest, have the simulation thread check whether the new
+         * readings get things moving again.
+         */
+        void onMotion() {
+            // A FIFO batch arrives as a burst of readings, it only needs checking once
+            if (mTimerParked && !mWakeCheckPosted) {
+                mWakeCheckPosted = true;
+                mSimulationHandler.post(mWakeCheck);
+            }
+        }
+
+        private volatile boolean mWakeCheckPosted;
+        private final Runnable mWakeCheck = new Runnable() {
+            @Override
+            public void run() {
+                mWakeCheckPosted = false;  // readings after this point post again
+                boolean animating;
+                synchronized (mSimulationLock) {
+                    drainSensors();
+                    animating = isAnimating();
+                }
+                if (animating && mTimerParked) {
+                    if (DEBUG_LOGS) Log.v(TAG, "Waking up parked timer");
+                    mMainHandler.sendEmptyMessage(MSG_UPDATE_TIMER);
+                }
+            }
+        };
+
+        // Feeds the readings buffered since the last step through the filters into the
+        // histories, and estimates them at the current time. Must hold mSimulationLock.
+        private void drainSensors() {
+            while (mAccelerometerRing.poll(mAccelerometerSample)) {
+                addMotionSample(Sensor.TYPE_ACCELEROMETER, mAccelerometerSample, mAccelerometerRing.timestamp);
+            }
+            while (mGravityRing.poll(mMotionSample)) {
+                addMotionSample(Sensor.TYPE_GRAVITY, mMotionSample, mGravityRing.timestamp);
+            }
+
+            long frameTimeNanos = System.nanoTime();
+            mSensorTimeOffsetNanos = SystemClock.elapsedRealtimeNanos() - frameTimeNanos;
+            estimateMotion(frameTimeNanos);
+        }
+
+        // Feeds a reading through the filter into the history. Must hold mSimulationLock.
+        private void addMotionSample(int type, float[] values, long timestampNanos) {
+            switch (type) {
+                case Sensor.TYPE_ACCELEROMETER:
+                    updateGravity(values, timestampNanos);
+                    mGravityHistory.add(mFilteredGravity, timestampNanos);
+                    break;
+                case Sensor.TYPE_GRAVITY:
+                    mGravityHistory.add(values, timestampNanos);  // fused readings are already filtered
+                    break;
+            }
+        }
+
+        /**
+         * Debug: steps the board straight from a recorded sensor trace, as fast as it will go
+         * and in the trace's own timebase. Readings go into the histories as they come up, and
+         * a step is taken every SIMULATION_STEP_MS of trace time, but only while the face was
+         * interactive and the board hadn't come to rest, as the frame pump would have. Runs on
+         * the simulation thread in place of the frames, which queue up behind it, and leaves
+         * the board where the trace took it.
+         */
+        private void replaySensorTrace(File file) {
+            SensorTraceReader reader = new SensorTraceReader(file);
+            if (!reader.isValid()) return;
+
+            long stepNanos = TimeUnit.MILLISECONDS.toNanos(SIMULATION_STEP_MS);
+            long nextStepNanos = 0;  // 0 while parked or not interactive
+            boolean visible = true, ambient = false;
+            long firstNanos = 0, lastNanos = 0;
+            int readings = 0, steps = 0;
+            long startNanos = System.nanoTime();
+
+            synchronized (mSimulationLock) {
+                mSensorTimeOffsetNanos = 0;  // the frame and sensor timebases are both the trace's
+            }
+            while (reader.next()) {
+                if (firstNanos == 0) firstNanos = reader.timestamp;
+                lastNanos = reader.timestamp;
+
+                synchronized (mSimulationLock) {
+                    // Catch the board up to this record
+                    while (nextStepNanos != 0 && nextStepNanos <= reader.timestamp) {
+                        board.update(mSimulationClock.advance(nextStepNanos));
+                        steps++;
+                        nextStepNanos = board.isAnimating() ? nextStepNanos + stepNanos : 0;
+                    }
+
+                    if (reader.kind == SensorTraceRecorder.RECORD_LIFECYCLE) {
+                        switch (reader.event) {
+                            case SensorTraceRecorder.VISIBLE:
+                            case SensorTraceRecorder.INVISIBLE:
+                                visible = reader.event == SensorTraceRecorder.VISIBLE;
+                                break;
+                            case SensorTraceRecorder.AMBIENT_ON:
+                            case SensorTraceRecorder.AMBIENT_OFF:
+                                ambient = reader.event == SensorTraceRecorder.AMBIENT_ON;
+                                break;
+                        }
+                        if (!visible || ambient) nextStepNanos = 0;
+
+                    } else {
+                        addMotionSample(reader.type, reader.values, reader.timestamp);
+                        readings++;
+
+                        // The wake check: does this reading get a board at rest moving again?
+                        if (nextStepNanos == 0 && visible && !ambient) {
+                            estimateMotion(reader.timestamp);
+                            if (board.isAnimating()) {
+                                mSimulationClock.reset();
+                                nextStepNanos = reader.timestamp;
+                            }
+                        }
+                    }
+                }
+            }
+
+            synchronized (mSimulationLock) {
+                // Back to the live sensors and frames, from scratch
+                mGravityHistory.clear();
+                mLastAccelerometerTimestamp = 0;
+                mSimulationClock.reset();
+                publishSnapshot(1);
             }
+            postInvalidate();
+            Log.i(TAG, "Replayed " + readings + " sensor readings over "
+                    + TimeUnit.NANOSECONDS.toSeconds(lastNanos - firstNanos) + "s of trace, "
+                    + steps + " steps in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) + "ms");
+        }
+
+        // Sets the motion readings to their estimate at a time in the frame timebase. Must hold mSimulationLock.
+        private void estimateMotion(long frameTimeNanos) {
+            long timeNanos = frameTimeNanos + mSensorTimeOffsetNanos;
+            mGravityHistory.estimate(timeNanos, gravity);
+        }
+
+        void updateGravity(float[] values, long timestampNanos) {
+            // alpha is calculated as t / (t + dT), where t is the low-pass filter's
+            // time-constant and dT the actual interval since the previous sample, so
+            // batched or irregular delivery doesn't change the response. After a long gap
+            // (like between glances) alpha goes to 0 and gravity jumps to the new reading.
+            if (timestampNanos <= mLastAccelerometerTimestamp) return;  // repeated sample
+            float dt = mLastAccelerometerTimestamp == 0 ? Float.MAX_VALUE
+                    : (timestampNanos - mLastAccelerometerTimestamp) / 1e9f;
+            mLastAccelerometerTimestamp = timestampNanos;
+            final float alpha = GRAVITY_TIME_CONSTANT / (GRAVITY_TIME_CONSTANT + dt);
+
+            // Isolate the force of gravity with the low-pass filter.
+            mFilteredGravity[0] = alpha * mFilteredGravity[0] + (1 - alpha) * values[0];
+            mFilteredGravity[1] = alpha * mFilteredGravity[1] + (1 - alpha) * values[1];
+            // mFilteredGravity[2] = alpha * mFilteredGravity[2] + (1 - alpha) * values[2];
         }
 
         /**
-         * Returns whether the {@link #mMainHandler} timer should be running. The timer
-         * should only run when we're visible and in interactive mode.
+         * Returns whether the {@link #mFramePump} should be running. It should only run
+         * when we're visible and in interactive mode.
          */
         private boolean shouldTimerBeRunning() {
             return isVisible() && !isInAmbientMode();
         }
 
+        private boolean isAnimating() {
+            return board.isAnimating();
+        }
+
         @Override
         public void onPeekCardPositionUpdate(Rect rect) {
             super.onPeekCardPositionUpdate(rect);
@@ -447,26 +1089,167 @@ public class IsaacWatchFaceService extends CanvasWatchFaceService implements Sen
 //            mBurnInProtection = properties.getBoolean(PROPERTY_BURN_IN_PROTECTION, false);
         }
 
+        /**
+         * Drives interactive frames off the display vsync instead of a wall-clock Handler loop.
+         * A frame is rendered every {@link #vsyncsPerFrame} vsyncs, as set by the
+         * {@link #mFramePolicy}, and frames that miss their deadline are counted, whether the
+         * vsync came in late or onDraw() ran over budget.
+         */
+        private class FramePump implements Choreographer.FrameCallback {
+
+            Choreographer choreographer;
+            long vsyncPeriodNanos;
+            long frameIntervalMs;
+            int vsyncsPerFrame;
+            boolean running;
+
+            long lastFrameTimeNanos;
+            long drawStartNanos;
+            int frameCount, droppedFrameCount, overrunFrameCount;
+
+            long wakeNanos;  // when the current glance started, 0 once its first frame is drawn
+            int wakeCount;
+            long wakeLatencyTotalNanos, wakeLatencyMaxNanos;
+
+            FramePump() {
+                choreographer = Choreographer.getInstance();
+
+                float refreshRate = ((WindowManager) getSystemService(Context.WINDOW_SERVICE))
+                        .getDefaultDisplay().getRefreshRate();
+                vsyncPeriodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / refreshRate);
+                if (DEBUG_LOGS) Log.v(TAG, "FramePump: " + refreshRate + "Hz display");
+                setFrameInterval(FRAME_INTERVAL_NORMAL_MS);
+            }
+
+            void setFrameInterval(long intervalMs) {
+                frameIntervalMs = intervalMs;
+                vsyncsPerFrame = Math.max(1, Math.round(
+                        (float) TimeUnit.MILLISECONDS.toNanos(intervalMs) / vsyncPeriodNanos));
+                if (DEBUG_LOGS) Log.v(TAG, "FramePump: rendering every " + vsyncsPerFrame + " vsyncs");
+            }
+
+            void start() {
+                if (running) return;
+                running = true;
+                lastFrameTimeNanos = 0;
+
+                // Publish the board as it is now, so the first frame of a glance isn't stale
+                synchronized (mSimulationLock) {
+                    mSimulationClock.reset();
+                    mFramePolicy.reset();
+                    publishSnapshot(1);
+                }
+                setFrameInterval(mFramePolicy.frameIntervalMs);
+                choreographer.postFrameCallback(this);
+            }
+
+            void stop() {
+                if (!running) return;
+                running = false;
+                choreographer.removeFrameCallback(this);
+            }
+
+            @Override
+            public void doFrame(long frameTimeNanos) {
+                if (!running) return;
+
+                if (lastFrameTimeNanos != 0) {
+                    long vsyncs = Math.round((double) (frameTimeNanos - lastFrameTimeNanos) / vsyncPeriodNanos);
+                    if (vsyncs < vsyncsPerFrame) {
+                        // woke up early, wait for the right vsync
+                        choreographer.postFrameCallback(this);
+                        return;
+                    }
+                    long missed = vsyncs / vsyncsPerFrame - 1;
+                    if (missed > 0) {
+                        droppedFrameCount += missed;
+                        if (DEBUG_LOGS) Log.w(TAG, "Dropped " + missed + " frame(s), "
+                                + droppedFrameCount + "/" + frameCount + " so far");
+                    }
+                }
+                lastFrameTimeNanos = frameTimeNanos;
+                frameCount++;
+
+                // Step the board off the UI thread, it invalidates once the snapshot is published
+                mSimulationFrameTimeNanos = frameTimeNanos;
+                if (!mSimulationStepPosted) {
+                    // A step still queued behind a slow one will pick up this frame's time
+                    mSimulationStepPosted = true;
+                    mSimulationHandler.post(mSimulationStep);
+                }
+
+                // Decide on the latest published step, one frame behind the one just requested
+                boolean animating;
+                long intervalMs;
+                synchronized (mSnapshotLock) {
+                    animating = mFrontSnapshot.animating;
+                    intervalMs = mFrontSnapshot.frameIntervalMs;
+                }
+
+                if (!shouldTimerBeRunning()) {
+                    stop();
+                } else if (!animating) {
+                    parkTimer();
+                } else {
+                    if (intervalMs != frameIntervalMs) setFrameInterval(intervalMs);
+
+                    // sleep until half a vsync before the one we want to render on
+                    long delayNanos = (2 * vsyncsPerFrame - 1) * vsyncPeriodNanos / 2;
+                    choreographer.postFrameCallbackDelayed(this, TimeUnit.NANOSECONDS.toMillis(delayNanos));
+                }
+            }
+
+            void onDrawStart() {
+                drawStartNanos = System.nanoTime();
+            }
+
+            void onDrawEnd() {
+                long drawNanos = System.nanoTime() - drawStartNanos;
+                if (drawNanos > vsyncsPerFrame * vsyncPeriodNanos) {
+                    overrunFrameCount++;
+                    if (DEBUG_LOGS) Log.w(TAG, "onDraw() overran its frame: "
+                            + TimeUnit.NANOSECONDS.toMillis(drawNanos) + "ms, "
+                            + overrunFrameCount + "/" + frameCount + " so far");
+                }
+
+                if (wakeNanos != 0 && !mAmbient) {
+                    long latencyNanos = System.nanoTime() - wakeNanos;
+                    wakeNanos = 0;
+                    wakeCount++;
+                    wakeLatencyTotalNanos += latencyNanos;
+                    wakeLatencyMaxNanos = Math.max(wakeLatencyMaxNanos, latencyNanos);
+                    if (DEBUG_LOGS) Log.v(TAG, "Wake to first frame: "
+                            + TimeUnit.NANOSECONDS.toMillis(latencyNanos) + "ms");
+                }
+            }
+
+            // Starts timing a glance, up to the end of its first interactive onDraw()
+            void onWake() {
+                wakeNanos = System.nanoTime();
+            }
+
+            void toDebugLog() {
+                Log.v(TAG, "--> Frames: " + frameCount + ", dropped: " + droppedFrameCount
+                        + ", overran: " + overrunFrameCount);
+                if (wakeCount > 0) {
+                    Log.v(TAG, "--> Wake to first frame avg: "
+                            + TimeUnit.NANOSECONDS.toMillis(wakeLatencyTotalNanos / wakeCount) + "ms, max: "
+                            + TimeUnit.NANOSECONDS.toMillis(wakeLatencyMaxNanos) + "ms over " + wakeCount + " glances");
+                }
+            }
+        }
+
         private boolean shouldReset() {
             if (RESET_CRACK_THRESHOLD > 0 && glances % RESET_CRACK_THRESHOLD == 0) return true;
 
-            mPrevGlance = mCurrentGlance.toMillis(false);
-            mCurrentGlance.setToNow();
+            mPrevGlance = mCurrentGlance;
+            mCurrentGlance = mClock.currentTimeMillis();
 
-            if (mCurrentGlance.toMillis(false) - mPrevGlance > INACTIVITY_RESET_TIME) return true;
+            if (mCurrentGlance - mPrevGlance > INACTIVITY_RESET_TIME) return true;
 
             return false;
         }
 
-        // Checks if watch face should reset, like overnight
-        boolean timelyReset() {
-            boolean reset = false;
-            if (mTimeManager.hour == RESET_HOUR && mLastAmbientHour == RESET_HOUR - 1) {
-                reset = true;
-            }
-            mLastAmbientHour = mTimeManager.hour;
-            return reset;
-        }
 
 
 
@@ -479,19 +1262,28 @@ public class IsaacWatchFaceService extends CanvasWatchFaceService implements Sen
 
             private static final float FRICTION = 1.0f;
             private static final float ACCEL_FACTOR = 0.40f;
+            private static final float REST_DISTANCE = 2.0f;   // px it may jiggle about a spot and still be still
+            private static final int REST_STEPS = 15;          // steps it has to stay put to be at rest, half a second
+            private static final float REST_GRAVITY = 0.25f;   // change in tilt that gets it going again, even from rest
+            private static final float FAST_SPEED_ENTER = 12.0f;  // px/step over which we render at 60 fps
+            private static final float FAST_SPEED_EXIT = 8.0f;    // px/step under which we drop back to 30 fps
 //            private static final float FRICTION = 0.80f;
 //            private static final float ACCEL_FACTOR = 0.45f;
 
             Board parent;
             float x, y;
+            float prevX, prevY;  // position at the previous step, for render interpolation
             float velX, velY;
+            float restX, restY;                // the spot it has been staying put at
+            float restGravityX, restGravityY;  // and the tilt it stayed there under
+            int restSteps;                     // for how many steps
             Paint paint;
 
             Cursor(Board parent_) {
                 parent = parent_;
 
-                x = 0.50f * parent.width;
-                y = 0.01f * parent.height;
+                x = prevX = 0.50f * parent.width;
+                y = prevY = 0.01f * parent.height;
                 velX = velY = 0;
 
                 paint = new Paint();
@@ -500,6 +1292,9 @@ public class IsaacWatchFaceService extends CanvasWatchFaceService implements Sen
             }
 
             void update() {
+                prevX = x;
+                prevY = y;
+
                 velX += ACCEL_FACTOR * -gravity[0];
                 velY += ACCEL_FACTOR * gravity[1];
                 velX *= FRICTION;
@@ -591,6 +1386,39 @@ public class IsaacWatchFaceService extends CanvasWatchFaceService implements Sen
 
                 if (bounce) parent.addBounce(bounceX, bounceY);
 
+                // Only watches where it goes, the physics above are left to themselves
+                if (!isNearRest()) {
+                    restX = x;
+                    restY = y;
+                    restGravityX = gravity[0];
+                    restGravityY = gravity[1];
+                    restSteps = 0;
+                } else if (restSteps < REST_STEPS) {
+                    restSteps++;
+                }
+            }
+
+            float renderX(float alpha) {
+                return prevX + alpha * (x - prevX);
+            }
+
+            float renderY(float alpha) {
+                return prevY + alpha * (y - prevY);
+            }
+
+            float speed() {
+                return (float) Math.sqrt(velX * velX + velY * velY);
+            }
+
+            // Has stayed put for a while, and the wrist hasn't tilted since
+            boolean isAtRest() {
+                return restSteps >= REST_STEPS && isNearRest();
+            }
+
+            private boolean isNearRest() {
+                return Math.abs(x - restX) <= REST_DISTANCE && Math.abs(y - restY) <= REST_DISTANCE
+                        && Math.abs(gravity[0] - restGravityX) < REST_GRAVITY
+                        && Math.abs(gravity[1] - restGravityY) < REST_GRAVITY;
             }
 
         }
@@ -598,122 +1426,215 @@ public class IsaacWatchFaceService extends CanvasWatchFaceService implements Sen
 
         private class TimeManager {
 
-            private static final boolean DEBUG_FAKE_TIME = RANDOM_TIME_PER_GLANCE;
-            private final long DEBUG_FAKE_TIME_INC = TimeUnit.MINUTES.toMillis(RANDOM_MINUTES_INC);
-            private static final long DAY_IN_MILLIS = 86400000;
+            private static final long MINUTE_MILLIS = 60 * 1000;
+            private static final long HOUR_MILLIS   = 60 * MINUTE_MILLIS;
+            private static final long DAY_MILLIS    = 24 * HOUR_MILLIS;
 
-            private Time currentTime;
+            private final Clock clock;
+            private TimeZone zone = TimeZone.getDefault();
+            private long zoneOffset;                         // local minus UTC, refreshed each minute
+            private long millis;
+            private long localDayStart;                      // local midnight, in local millis
+            private long minuteStart, nextMinute;            // UTC span the fields below are good for
             public int year, month, monthDay, hour, minute, second;
 
-            private boolean overnightReset;
-            private int overnightResetHour;
-            private Time nextResetTime;
-
-            TimeManager() {
-                overnightReset = false;
-                overnightResetHour = 0;
-
-                currentTime = new Time();
-                currentTime.setToNow();
+            private final PriorityQueue<TimeEvent> events = new PriorityQueue<>();
+            private long nextEventTime = Long.MAX_VALUE;
+            private long scheduledAfter;  // events are all due after this, unless the clock went back
 
+            TimeManager(Clock clock_) {
+                clock = clock_;
                 setToNow();
             }
 
             public void setToNow() {
-                if (!DEBUG_FAKE_TIME) {
-                    currentTime.setToNow();
-                }
+                millis = clock.currentTimeMillis();
+                tick();
+            }
 
-                updateFields();
-                if (overnightReset) resetCheck();
+            // Per frame this is a compare against the current minute, the calendar fields are only
+            // worked out again once the clock leaves it (or jumps backwards)
+            private void tick() {
+                if (millis >= nextMinute || millis < minuteStart) {
+                    updateFields();
+                    if (millis < scheduledAfter) rescheduleEvents();  // set back, they'd fire late
+                } else {
+                    second = (int) ((millis - minuteStart) / 1000);
+                }
+                if (millis >= nextEventTime) dispatchEvents();
             }
 
             public void setTimeZone(Intent intent) {
-                if (!DEBUG_FAKE_TIME) {
-                    currentTime.clear(intent.getStringExtra("time-zone"));
-                    currentTime.setToNow();
-                }
+                String timeZone = intent.getStringExtra("time-zone");
+                zone = timeZone != null ? TimeZone.getTimeZone(timeZone) : TimeZone.getDefault();
+                millis = clock.currentTimeMillis();
 
                 updateFields();
-                if (overnightReset) resetCheck();
+                rescheduleEvents();  // wall-clock instants moved
+                if (millis >= nextEventTime) dispatchEvents();
             }
 
-            public void addRandomInc() {
-                long rInc = (long) (DEBUG_FAKE_TIME_INC * Math.random());
-                if (DEBUG_LOGS) Log.v(TAG, "Adding randomInc: " + rInc);
-
-                currentTime.set(currentTime.toMillis(false) + rInc);
+            public void onReset() { Log.v(TAG, "onReset"); }
 
-                updateFields();
-                if (overnightReset) resetCheck();
+            // When the current minute ends, keep a copy to tell when the hour and minute have moved on
+            public long nextMinute() {
+                return nextMinute;
             }
 
-            public void resetCheck() {
-                if (currentTime.after(nextResetTime)) {
-                    nextResetTime = computeNextResetTime();
-                    if (DEBUG_LOGS) Log.v(TAG, "Reset check: true");
-                    onReset();
-                }
+            public void setOvernightResetHour(int hour_) {
+                schedule(new DailyEvent(hour_, 0) {
+                    @Override
+                    void onTime() {
+                        if (DEBUG_LOGS) Log.v(TAG, "Reset check: true");
+                        onReset();
+                    }
+                });
             }
 
-            public void onReset() { Log.v(TAG, "onReset"); }
-
-            public void setOvernightResetHour(int hour_) {
-                overnightReset = true;
-                overnightResetHour = hour_;
-                nextResetTime = computeNextResetTime();
+            public void schedule(TimeEvent event) {
+                event.time = nextTime(event);
+                events.add(event);
+                nextEventTime = events.peek().time;
+                scheduledAfter = millis;
             }
 
-            private Time computeNextResetTime() {
-                Time resetTime = new Time();
-                resetTime.set(0, 0, overnightResetHour, monthDay, month, year);  // Set to today's reset time
+            // Fires everything due, each event at most once however far the clock jumped
+            private void dispatchEvents() {
+                while (!events.isEmpty() && events.peek().time <= millis) {
+                    TimeEvent event = events.poll();
+                    event.onTime();
+                    event.time = nextTime(event);
+                    events.add(event);
+                }
+                nextEventTime = events.isEmpty() ? Long.MAX_VALUE : events.peek().time;
+                scheduledAfter = millis;
+            }
 
-                // If already past, add a day
-                if (currentTime.after(resetTime)) {
-                    resetTime.set(resetTime.toMillis(false) + DAY_IN_MILLIS);
+            private void rescheduleEvents() {
+                List<TimeEvent> pending = new ArrayList<>(events);
+                events.clear();
+                for (TimeEvent event : pending) {
+                    event.time = nextTime(event);
+                    events.add(event);
                 }
+                nextEventTime = events.isEmpty() ? Long.MAX_VALUE : events.peek().time;
+                scheduledAfter = millis;
+            }
 
-                if (DEBUG_LOGS) Log.v(TAG, "Next reset time: " + resetTime.format2445());
+            private long nextTime(TimeEvent event) {
+                long next = toUtc(event.nextLocalTime(localDayStart, millis + zoneOffset));
+                return Math.max(next, millis + 1);  // DST fallbacks may repeat an hour
+            }
 
-                return resetTime;
+            // Local wall-clock millis to UTC, using the offset in force at that instant
+            private long toUtc(long local) {
+                return local - zone.getOffset(local - zoneOffset);
             }
 
+            // Offsets only change on minute boundaries, so everything here holds until nextMinute
             private void updateFields() {
-                year = currentTime.year;
-                month = currentTime.month;
-                monthDay = currentTime.monthDay;
-                hour = currentTime.hour;
-                minute = currentTime.minute;
-                second = currentTime.second;
+                zoneOffset = zone.getOffset(millis);
+                long local = millis + zoneOffset;
+                long days = local / DAY_MILLIS;
+                if (local % DAY_MILLIS < 0) days--;
+                localDayStart = days * DAY_MILLIS;
+
+                int dayMillis = (int) (local - localDayStart);
+                hour = (int) (dayMillis / HOUR_MILLIS);
+                minute = (int) (dayMillis / MINUTE_MILLIS % 60);
+                second = dayMillis / 1000 % 60;
+                minuteStart = millis - dayMillis % MINUTE_MILLIS;
+                nextMinute = minuteStart + MINUTE_MILLIS;
+
+                // Civil date from days since the epoch, counting years from March so leap days fall last
+                long z = days + 719468;
+                long era = (z >= 0 ? z : z - 146096) / 146097;
+                int dayOfEra = (int) (z - era * 146097);
+                int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+                int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+                int m = (5 * dayOfYear + 2) / 153;
+                monthDay = dayOfYear - (153 * m + 2) / 5 + 1;
+                month = m < 10 ? m + 2 : m - 10;  // 0-based, like Time
+                year = (int) (era * 400) + yearOfEra + (month < 2 ? 1 : 0);
             }
 
             public void toDebugLog() {
-                Log.v(TAG, "--> Curr time: " + currentTime.format2445());
+                Log.v(TAG, "--> Curr time: " + String.format("%04d%02d%02dT%02d%02d%02d",
+                        year, month + 1, monthDay, hour, minute, second));
             }
 
 
         }
 
 
+        /**
+         * Something to be done at a wall-clock instant. The TimeManager queues these by their
+         * next firing time, so checking the time each frame only compares against the earliest
+         * one; once fired an event is rescheduled to its next occurrence.
+         */
+        private abstract class TimeEvent implements Comparable<TimeEvent> {
+            long time;
 
-        class Board {
+            // First occurrence strictly after nowLocal, both in local wall-clock millis
+            abstract long nextLocalTime(long localDayStart, long nowLocal);
 
-            static final int     MAX_TRIANGLE_COUNT = 15;
+            abstract void onTime();
 
-            int width, height;
-            Cursor cursor;
-            float cursorProjectionX, cursorProjectionY;  // for gradient fills
+            @Override
+            public int compareTo(TimeEvent other) {
+                return time < other.time ? -1 : (time == other.time ? 0 : 1);
+            }
+        }
 
-            List<Bounce> bounces = new ArrayList<>();  // last three bounces
-            List<Triangle> triangles = new ArrayList<>();
-            List<Triangle> triangleUpdateBuffer = new ArrayList<>();
-            List<Triangle> triangleStopUpdatingBuffer = new ArrayList<>();
+        // Fires every hour at the given minute
+        private abstract class HourlyEvent extends TimeEvent {
+            final int minute;
 
-            Paint linePaint;
-            Paint dottedPaint;  // WIP
+            HourlyEvent(int minute_) {
+                minute = minute_;
+            }
 
-            Path cursorPath;
-            Paint cursorPaint;
+            @Override
+            long nextLocalTime(long localDayStart, long nowLocal) {
+                long hourStart = nowLocal - (nowLocal - localDayStart) % TimeManager.HOUR_MILLIS;
+                long next = hourStart + minute * TimeManager.MINUTE_MILLIS;
+                return next > nowLocal ? next : next + TimeManager.HOUR_MILLIS;
+            }
+        }
+
+        // Fires every day at the given hour and minute
+        private abstract class DailyEvent extends TimeEvent {
+            final int hour, minute;
+
+            DailyEvent(int hour_, int minute_) {
+                hour = hour_;
+                minute = minute_;
+            }
+
+            @Override
+            long nextLocalTime(long localDayStart, long nowLocal) {
+                long next = localDayStart + hour * TimeManager.HOUR_MILLIS + minute * TimeManager.MINUTE_MILLIS;
+                return next > nowLocal ? next : next + TimeManager.DAY_MILLIS;
+            }
+        }
+
+
+
+        class Board {
+
+            static final int     MAX_TRIANGLE_COUNT = 15;
+
+            int width, height;
+            Cursor cursor;
+            float cursorProjectionX, cursorProjectionY;  // for gradient fills
+
+            List<Bounce> bounces = new ArrayList<>();  // last three bounces
+            List<Triangle> triangles = new ArrayList<>();
+            List<Triangle> triangleUpdateBuffer = new ArrayList<>();
+            List<Triangle> triangleStopUpdatingBuffer = new ArrayList<>();
+
+            Paint linePaint;
+            Paint dottedPaint;  // WIP
 
             Board() {}
 
@@ -734,20 +1655,13 @@ public class IsaacWatchFaceService extends CanvasWatchFaceService implements Sen
                 dottedPaint.setStyle(Paint.Style.STROKE);
                 dottedPaint.setStrokeWidth(0);  // for pixel perfect dots
 
-                cursorPath = new Path();
-
-                cursorPaint = new Paint();
-                cursorPaint.setColor(Color.WHITE);
-                cursorPaint.setStyle(Paint.Style.FILL);
-                cursorPaint.setAntiAlias(true);
-
                 reset();
             }
 
             void reset() {
 
-                cursor.x = 0.50f * mWidth;
-                cursor.y = 0.01f * mHeight;
+                cursor.x = cursor.prevX = 0.50f * mWidth;
+                cursor.y = cursor.prevY = 0.01f * mHeight;
 
                 triangles.clear();
                 triangleUpdateBuffer.clear();
@@ -759,11 +1673,17 @@ public class IsaacWatchFaceService extends CanvasWatchFaceService implements Sen
                 addBounce(mWidth, 1);  // the 1's are a small trick to avoid closed outline
             }
 
-            void update() {
-                cursor.update();
+            // Iterates the cursor physics, and catches triangle animations up on all the steps
+            void update(int steps) {
+                if (steps == 0) return;  // a zero-step tween would read as the triangles having arrived
+
+                for (int i = 0; i < mSimulationClock.physicsSteps; i++) {
+                    estimateMotion(mSimulationClock.physicsStepTimeNanos(i));
+                    cursor.update();
+                }
 
                 for (Triangle t : triangleUpdateBuffer) {
-                    t.update();
+                    t.update(steps);
                 }
 
                 for (Triangle t : triangleStopUpdatingBuffer) {
@@ -772,52 +1692,58 @@ public class IsaacWatchFaceService extends CanvasWatchFaceService implements Sen
                 triangleStopUpdatingBuffer.clear();
             }
 
-            void render(Canvas canvas, boolean ambientMode) {
-                // @TODO background is drawn before this call, change this at some point
-
-                if (ambientMode) {
-                    for (Triangle t : triangles) {
-                        t.renderOutline(canvas, linePaint);
-                    }
-
-                } else {
-                    update();
-
-                    for (Triangle t : triangles) {
-                        t.render(canvas);
-                    }
+            // Is there anything left to animate on the next frame?
+            boolean isAnimating() {
+                return !triangleUpdateBuffer.isEmpty() || cursor == null || !cursor.isAtRest();
+            }
 
-                    renderTriangleCursor(canvas);
+            void renderAmbient(Canvas canvas) {
+                // @TODO background is drawn before this call, change this at some point
+                for (Triangle t : triangles) {
+                    t.renderOutline(canvas, linePaint);
                 }
-
             }
 
-            void renderTriangleCursor(Canvas canvas) {
+            // Copies what onDraw() needs into s, with the cursor interpolated by alpha
+            void snapshot(BoardSnapshot s, float alpha) {
+                if (cursor == null) {
+                    s.setTriangleCount(0);
+                    s.cursorShader = null;
+                    return;
+                }
+
+                s.ensureCapacity(triangles.size());
+                s.setTriangleCount(triangles.size());
+                for (int i = 0; i < s.triangleCount; i++) {
+                    triangles.get(i).snapshot(s, i);
+                }
 
+                float cursorX = cursor.renderX(alpha);
+                float cursorY = cursor.renderY(alpha);
                 Bounce a = bounces.get(1);
                 Bounce b = bounces.get(2);
 
-                cursorPath.rewind();
-                cursorPath.moveTo(a.x, a.y);
-                cursorPath.lineTo(cursor.x, cursor.y);
-                cursorPath.lineTo(b.x, b.y);
-
                 // gradient fill on projection
                 double dx = b.x - a.x;
                 double dy = b.y - a.y;
-                double dpx = cursor.x - a.x;
-                double dpy = cursor.y - a.y;
+                double dpx = cursorX - a.x;
+                double dpy = cursorY - a.y;
                 double xylen = Math.sqrt(dx * dx + dy * dy);
                 double pl = (dx * dpx + dy * dpy) / xylen;
                 cursorProjectionX = (float) (a.x + pl * dx / xylen);
                 cursorProjectionY = (float) (a.y + pl * dy / xylen);
-                cursorPaint.setShader(new LinearGradient(cursor.x, cursor.y,
+
+                s.cursorPoints[0] = a.x;
+                s.cursorPoints[1] = a.y;
+                s.cursorPoints[2] = cursorX;
+                s.cursorPoints[3] = cursorY;
+                s.cursorPoints[4] = b.x;
+                s.cursorPoints[5] = b.y;
+                s.cursorShader = new LinearGradient(cursorX, cursorY,
                         cursorProjectionX, cursorProjectionY,
                         Color.argb(CURSOR_TIP_ALPHA, currentR, currentG, currentB),
                         Color.argb(COLOR_TRIANGLE_ALPHA, currentR, currentG, currentB),
-                        Shader.TileMode.CLAMP));
-                canvas.drawPath(cursorPath, cursorPaint);
-                cursorPaint.setShader(null);
+                        Shader.TileMode.CLAMP);
             }
 
             void addBounce(int xpos, int ypos) {
@@ -864,6 +1790,49 @@ public class IsaacWatchFaceService extends CanvasWatchFaceService implements Sen
 
 
 
+        /**
+         * Plain-data copy of a board step, everything onDraw() needs and nothing it could
+         * race on. Shaders are immutable, so they are shared with the board rather than copied.
+         */
+        class BoardSnapshot {
+            int triangleCount;
+            float[] trianglePoints;  // start, corner, middle and end x,y per triangle
+            boolean[] triangleCorners;  // whether the corner point is part of the triangle
+            int[] triangleColors;
+            Shader[] triangleShaders;
+
+            float[] cursorPoints = new float[6];  // both bounces and the cursor tip
+            Shader cursorShader;  // null until the board is initialized
+
+            boolean animating;
+            long frameIntervalMs;
+
+            BoardSnapshot() {
+                allocate(2 * Board.MAX_TRIANGLE_COUNT);
+            }
+
+            void ensureCapacity(int count) {
+                if (count > triangleColors.length) allocate(2 * count);
+            }
+
+            // Drops the shaders held past a shrinking count, so those of dead triangles can be collected
+            void setTriangleCount(int count) {
+                for (int i = count; i < triangleCount; i++) {
+                    triangleShaders[i] = null;
+                }
+                triangleCount = count;
+            }
+
+            private void allocate(int capacity) {
+                trianglePoints = new float[8 * capacity];
+                triangleCorners = new boolean[capacity];
+                triangleColors = new int[capacity];
+                triangleShaders = new Shader[capacity];
+            }
+        }
+
+
+
         private int triangleCounter = 0;
 
         class Triangle {
@@ -876,7 +1845,7 @@ public class IsaacWatchFaceService extends CanvasWatchFaceService implements Sen
             Board parent;
 
             Bounce start, middle, end, corner;
-            Path pathFull, pathOutline;
+            Path pathOutline;
             boolean animateVertices, animateColor;
             boolean needsUpdate;
             boolean containsCornerBounce = false;
@@ -930,12 +1899,6 @@ public class IsaacWatchFaceService extends CanvasWatchFaceService implements Sen
                         "middle[" + middle.x + "," + middle.y + "," + middle.side + "] " +
                         "end[" + end.x + "," + end.y + "," + end.side + "]");
 
-                pathFull = new Path();
-                pathFull.moveTo(start.x, start.y);
-                if (containsCornerBounce) pathFull.lineTo(cornerX, cornerY);
-                pathFull.lineTo(middle.x, middle.y);
-                pathFull.lineTo(end.x, end.y);
-
                 pathOutline = new Path();
                 pathOutline.moveTo(start.x, start.y);
                 pathOutline.lineTo(end.x, end.y);
@@ -967,7 +1930,7 @@ public class IsaacWatchFaceService extends CanvasWatchFaceService implements Sen
                 parent.triangleUpdateBuffer.add(this);
             }
 
-            public boolean update() {
+            public boolean update(int steps) {
 
                 if (animateVertices) {
                     float diffX = corner.x - cornerX,
@@ -979,20 +1942,15 @@ public class IsaacWatchFaceService extends CanvasWatchFaceService implements Sen
                         animateVertices = false;
 
                     } else {
-                        cornerX += VERTICES_ANIM_SPEED * diffX;
-                        cornerY += VERTICES_ANIM_SPEED * diffY;
+                        float factor = tweenFactor(VERTICES_ANIM_SPEED, steps);
+                        cornerX += factor * diffX;
+                        cornerY += factor * diffY;
                     }
-
-                    pathFull.rewind();
-                    pathFull.moveTo(start.x, start.y);
-                    if (containsCornerBounce) pathFull.lineTo(cornerX, cornerY);
-                    pathFull.lineTo(middle.x, middle.y);
-                    pathFull.lineTo(end.x, end.y);
                 }
 
                 if (animateColor) {
                     int prevColor = currentColor;
-                    currentColor = interpolateColor(currentColor, targetColor, COLOR_ANIM_SPEED);
+                    currentColor = interpolateColor(currentColor, targetColor, tweenFactor(COLOR_ANIM_SPEED, steps));
 
                     if (prevColor == currentColor) {
                         animateColor = false;
@@ -1007,7 +1965,7 @@ public class IsaacWatchFaceService extends CanvasWatchFaceService implements Sen
                 if (animateGradient) {
                     paint.setShader(null);  // reset gradient fill
                     int prevAlpha = currentTipAlpha;
-                    currentTipAlpha += COLOR_ANIM_SPEED * (COLOR_TRIANGLE_ALPHA - currentTipAlpha);
+                    currentTipAlpha += tweenFactor(COLOR_ANIM_SPEED, steps) * (COLOR_TRIANGLE_ALPHA - currentTipAlpha);
 
                     if (prevAlpha == currentTipAlpha) {
                         animateGradient = false;
@@ -1028,9 +1986,20 @@ public class IsaacWatchFaceService extends CanvasWatchFaceService implements Sen
                 return needsUpdate;
             }
 
-            public void render(Canvas canvas) {
-                canvas.drawPath(pathFull, paint);
-
+            public void snapshot(BoardSnapshot s, int i) {
+                float[] p = s.trianglePoints;
+                int j = 8 * i;
+                p[j]     = start.x;
+                p[j + 1] = start.y;
+                p[j + 2] = cornerX;
+                p[j + 3] = cornerY;
+                p[j + 4] = middle.x;
+                p[j + 5] = middle.y;
+                p[j + 6] = end.x;
+                p[j + 7] = end.y;
+                s.triangleCorners[i] = containsCornerBounce;
+                s.triangleColors[i] = paint.getColor();
+                s.triangleShaders[i] = paint.getShader();
             }
 
             public void renderOutline(Canvas canvas, Paint paint) {
@@ -1152,83 +2121,154 @@ public class IsaacWatchFaceService extends CanvasWatchFaceService implements Sen
 
 
     // Sensors
-    private SensorManager mSensorManager;
+    private final List<Engine> mEngines = new CopyOnWriteArrayList<>();  // iterated on the sensor thread
+    private HandlerThread mSensorThread;
+    private Handler mSensorHandler;
+    private SensorTraceRecorder mTraceRecorder;  // only when DEBUG_RECORD_SENSOR_TRACE
+    private SensorSource mSensorSource;  // the live sensors, or a recorded trace with DEBUG_REPLAY_SENSOR_TRACE and DEBUG_REPLAY_REAL_TIME
     private SensorWrapper mSensorAccelerometer;
-    private float[] gravity = new float[3];
+    private SensorWrapper mSensorGravity;
+    private boolean mUseFusedSensors;
 
-    @Override
-    public void onAccuracyChanged(Sensor sensor, int accuracy) {}
+    /**
+     * Called on the sensor thread with every reading from the {@link SensorSource}, live or
+     * replayed.
+     */
+    void onSensorReading(int type, long timestampNanos, float[] values) {
+        if (mTraceRecorder != null) mTraceRecorder.recordSensor(type, timestampNanos, values);
 
-    @Override
-    public void onSensorChanged(SensorEvent event) {
-        switch (event.sensor.getType()) {
+        switch (type) {
             case Sensor.TYPE_ACCELEROMETER:
-                mSensorAccelerometer.update(event);
-                updateGravity(event);
+                mSensorAccelerometer.update(timestampNanos, values);
+                dispatchMotionSample(type, timestampNanos, values);
+                break;
+            case Sensor.TYPE_GRAVITY:
+                mSensorGravity.update(timestampNanos, values);
+                dispatchMotionSample(type, timestampNanos, values);
                 break;
         }
     }
 
-    void updateGravity(SensorEvent event) {
-        // In this example, alpha is calculated as t / (t + dT),
-        // where t is the low-pass filter's time-constant and
-        // dT is the event delivery rate.
-        final float alpha = 0.8f;
-
-        // Isolate the force of gravity with the low-pass filter.
-        gravity[0] = alpha * gravity[0] + (1 - alpha) * event.values[0];
-        gravity[1] = alpha * gravity[1] + (1 - alpha) * event.values[1];
-        // gravity[2] = alpha * gravity[2] + (1 - alpha) * event.values[2];
+    private void dispatchMotionSample(int type, long timestampNanos, float[] values) {
+        for (Engine engine : mEngines) {
+            engine.onMotionSample(type, timestampNanos, values);
+        }
     }
 
+    // Stamped here but recorded on the sensor thread, the only one that touches the trace
+    void traceLifecycle(final byte event) {
+        if (mTraceRecorder == null) return;
+        final long timestampNanos = SystemClock.elapsedRealtimeNanos();
+        mSensorHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mTraceRecorder.recordLifecycle(event, timestampNanos);
+            }
+        });
+    }
 
+    // Writes out what has been recorded so far, on the sensor thread to keep file IO off the main one
+    void flushSensorTrace() {
+        if (mTraceRecorder == null) return;
+        mSensorHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mTraceRecorder.flush();
+            }
+        });
+    }
 
     private class SensorWrapper {
 
-        SensorEventListener listener;
-        SensorManager manager;
+        private static final float MOTION_TIME_CONSTANT = 0.5f;  // seconds, of the running mean motion is measured against
+
+        SensorSource source;
         String name;
         int type;
-        Sensor sensor;
         boolean isActive, isRegistered;
         int valueCount;
         float[] values;
-
-        SensorWrapper(String name_, int sensorType_, int valueCount_, SensorEventListener listener_, SensorManager manager_) {
-            listener = listener_;
-            manager = manager_;
+        int subscriberCount;  // registered with the hardware while there is any
+        int samplingPeriodUs = SensorManager.SENSOR_DELAY_NORMAL;
+        int maxReportLatencyUs = 0;  // batch in the hardware FIFO for up to this long, 0 for no batching
+
+        // Motion-adaptive rate, see setAdaptiveRate()
+        boolean isAdaptive, isFast;
+        float fastEnergy, slowEnergy;
+        long slowHoldNanos, lastMotionNanos, lastTimestamp;
+        float[] mean;
+
+        SensorWrapper(String name_, int sensorType_, int valueCount_, SensorSource source_) {
+            source = source_;
             name = name_;
             type = sensorType_;
             valueCount = valueCount_;
             values = new float[valueCount];
 
-            // Initialize the sensor
-            sensor = manager.getDefaultSensor(type);
-
             // http://developer.android.com/guide/topics/sensors/sensors_overview.html#sensors-identify
-            if (sensor == null) {
+            if (!source.hasSensor(type)) {
                 if (DEBUG_LOGS) Log.v(TAG, "Sensor " + name + " not available in this device");
                 isActive = false;
                 isRegistered = false;
             } else {
                 isActive = true;
-                isRegistered = true;
+                isRegistered = false;
             }
         }
 
-        boolean register() {
+        /**
+         * Switches to SENSOR_DELAY_GAME, unbatched, as soon as the readings move away from
+         * their running mean by more than fastEnergy, and back to the registered rate once
+         * they have stayed under slowEnergy for slowHoldMs. The rate is picked again from
+         * slow on every registration.
+         */
+        void setAdaptiveRate(float fastEnergy_, float slowEnergy_, long slowHoldMs) {
+            isAdaptive = true;
+            fastEnergy = fastEnergy_;
+            slowEnergy = slowEnergy_;
+            slowHoldNanos = TimeUnit.MILLISECONDS.toNanos(slowHoldMs);
+            mean = new float[valueCount];
+        }
+
+        /**
+         * Engines subscribe to a sensor rather than register it. It is registered with the
+         * hardware on the first subscription and unregistered after the last one, however
+         * many engines share it (previews and the live one), and the service fans the
+         * readings out to them.
+         */
+        synchronized boolean subscribe() {
+            if (subscriberCount++ > 0) return isRegistered;
+            return register();
+        }
+
+        synchronized void unsubscribe() {
+            if (subscriberCount == 0) return;
+            if (--subscriberCount == 0) unregister();
+        }
+
+        // Registration may change from the sensor thread when adapting, hence synchronized
+        synchronized boolean register() {
             if (!isActive) return false;
             if (isRegistered) return true;
-            isRegistered = manager.registerListener(listener, sensor, SensorManager.SENSOR_DELAY_NORMAL);
-            if (DEBUG_LOGS) Log.i(TAG, "Registered " + name + ": " + isRegistered);
+            isRegistered = registerListener();
+            if (DEBUG_LOGS) Log.i(TAG, "Registered " + name + ": " + isRegistered
+                    + ", FIFO: " + source.getFifoMaxEventCount(type) + " events");
             return isRegistered;
         }
 
-        boolean unregister() {
+        private boolean registerListener() {
+            return isFast ?
+                    source.register(type, SensorManager.SENSOR_DELAY_GAME, 0) :
+                    source.register(type, samplingPeriodUs, maxReportLatencyUs);
+        }
+
+        synchronized boolean unregister() {
             if (!isActive) return false;
             if (!isRegistered) return false;
-            manager.unregisterListener(listener);
+            source.unregister(type);
             isRegistered = false;
+            isFast = false;
+            lastTimestamp = 0;
             if (DEBUG_LOGS) Log.i(TAG, "Unregistered " + name);
             return false;
         }
@@ -1244,11 +2284,657 @@ public class IsaacWatchFaceService extends CanvasWatchFaceService implements Sen
             return vals;
         }
 
-        void update(SensorEvent event) {
+        void update(long timestampNanos, float[] values_) {
             for (int i = 0; i < valueCount; i++) {
-                values[i] = event.values[i];
+                values[i] = values_[i];
+            }
+            if (isAdaptive) adaptRate(timestampNanos);
+        }
+
+        private void adaptRate(long timestampNanos) {
+            float dt = lastTimestamp == 0 ? Float.MAX_VALUE : (timestampNanos - lastTimestamp) / 1e9f;
+            lastTimestamp = timestampNanos;
+            float alpha = MOTION_TIME_CONSTANT / (MOTION_TIME_CONSTANT + dt);
+
+            float energy = 0;
+            for (int i = 0; i < valueCount; i++) {
+                mean[i] = alpha * mean[i] + (1 - alpha) * values[i];
+                float d = values[i] - mean[i];
+                energy += d * d;
+            }
+
+            // Hysteresis, so the rate doesn't flip back and forth around a single energy
+            if (!isFast) {
+                if (energy > fastEnergy) {
+                    lastMotionNanos = timestampNanos;
+                    setFast(true);
+                }
+            } else if (energy > slowEnergy) {
+                lastMotionNanos = timestampNanos;
+            } else if (timestampNanos - lastMotionNanos > slowHoldNanos) {
+                setFast(false);
             }
         }
+
+        private synchronized void setFast(boolean fast) {
+            if (!isRegistered) return;
+            isFast = fast;
+            source.unregister(type);
+            isRegistered = registerListener();
+            if (DEBUG_LOGS) Log.i(TAG, name + " rate: " + (isFast ? "fast" : "slow"));
+        }
+    }
+
+
+    /**
+     * Hands sensor samples over from the sensor thread to an engine's simulation without
+     * locking. There is exactly one producer, the sensor thread, and one consumer, whoever
+     * holds the engine's simulation lock. The volatile head publishes the slot contents.
+     * When full, the oldest sample is dropped to make room, so the freshest readings survive
+     * a simulation stall: the producer moves the tail on past it, and a consumer that was
+     * reading that slot sees its own move fail and reads the next one instead.
+     */
+    private class SensorRing {
+        final int mask, stride;
+        final float[] values;
+        final long[] timestamps;
+        volatile int head;  // next slot to write, only advanced by the producer
+        final AtomicInteger tail = new AtomicInteger();  // next slot to read
+        long timestamp;     // of the last polled sample
+        int droppedCount;
+
+        SensorRing(int capacity, int stride_) {  // capacity must be a power of two
+            mask = capacity - 1;
+            stride = stride_;
+            values = new float[capacity * stride];
+            timestamps = new long[capacity];
+        }
+
+        void offer(float[] sample, long timestampNanos) {
+            int h = head;
+            int t = tail.get();
+            // If the consumer moved on in the meantime there is room already
+            if (h - t > mask && tail.compareAndSet(t, t + 1)) droppedCount++;
+            int slot = h & mask;
+            System.arraycopy(sample, 0, values, slot * stride, stride);
+            timestamps[slot] = timestampNanos;
+            head = h + 1;
+        }
+
+        boolean poll(float[] sample) {
+            while (true) {
+                int t = tail.get();
+                if (t == head) return false;
+                int slot = t & mask;
+                System.arraycopy(values, slot * stride, sample, 0, stride);
+                long timestampNanos = timestamps[slot];
+                if (tail.compareAndSet(t, t + 1)) {
+                    timestamp = timestampNanos;
+                    return true;
+                }
+                // The producer dropped it while we were reading, the slot may be half rewritten
+            }
+        }
+    }
+
+
+    /**
+     * The last few readings of a sensor with their timestamps, so its value can be estimated
+     * at any instant rather than taken from whichever reading came last. Between readings
+     * the value is interpolated, and past the newest one extrapolated along the last two, for
+     * up to MAX_EXTRAPOLATION_NANOS. A gap longer than MAX_GAP_NANOS, like between glances,
+     * starts the history over. Only touched by whoever holds the engine's simulation lock.
+     */
+    private class SensorHistory {
+
+        static final int CAPACITY = 8;  // a power of two
+        static final int MASK = CAPACITY - 1;
+        static final long MAX_EXTRAPOLATION_NANOS = 100000000L;  // 100ms, about a FIFO batch
+        static final long MAX_GAP_NANOS = 500000000L;  // 500ms
+
+        final int stride;
+        final float[] values;
+        final long[] timestamps = new long[CAPACITY];
+        int head;  // next slot to write
+        int count;
+
+        SensorHistory(int stride_) {
+            stride = stride_;
+            values = new float[CAPACITY * stride];
+        }
+
+        void clear() {
+            count = 0;
+        }
+
+        void add(float[] sample, long timestampNanos) {
+            if (count > 0) {
+                long newestNanos = timestamps[(head - 1) & MASK];
+                if (timestampNanos <= newestNanos) return;  // repeated sample
+                if (timestampNanos - newestNanos > MAX_GAP_NANOS) count = 0;
+            }
+            System.arraycopy(sample, 0, values, head * stride, stride);
+            timestamps[head] = timestampNanos;
+            head = (head + 1) & MASK;
+            if (count < CAPACITY) count++;
+        }
+
+        // Fills estimate with the value at timeNanos, returns false while there are no readings
+        boolean estimate(long timeNanos, float[] estimate) {
+            if (count == 0) return false;
+            int b = (head - 1) & MASK;  // newest
+            if (count == 1) {
+                System.arraycopy(values, b * stride, estimate, 0, stride);
+                return true;
+            }
+
+            int a = (b - 1) & MASK;
+            if (timeNanos < timestamps[b]) {
+                // Walk back to the two readings around timeNanos, or hold the oldest one
+                for (int n = 2; n < count && timeNanos < timestamps[a]; n++) {
+                    b = a;
+                    a = (a - 1) & MASK;
+                }
+                if (timeNanos < timestamps[a]) timeNanos = timestamps[a];
+            } else {
+                timeNanos = Math.min(timeNanos, timestamps[b] + MAX_EXTRAPOLATION_NANOS);
+            }
+
+            float f = (float) (timeNanos - timestamps[a]) / (timestamps[b] - timestamps[a]);
+            for (int i = 0; i < stride; i++) {
+                float va = values[a * stride + i];
+                estimate[i] = va + f * (values[b * stride + i] - va);
+            }
+            return true;
+        }
+    }
+
+
+    /**
+     * Appends every sensor event and the face's lifecycle events to a binary trace, so real
+     * wrists can be replayed offline. Records are put in a preallocated direct buffer, which
+     * is written out through a FileChannel, opened on the first write, whenever it fills up,
+     * when the screen turns off, and on close. It is only ever used on the sensor thread,
+     * where lifecycle events are posted too, so file IO stays off the main thread and nothing
+     * needs locking.
+     *
+     * Layout, little-endian: the MAGIC and VERSION ints, then records made of a kind byte and
+     * a timestamp long in the elapsedRealtimeNanos() timebase that SensorEvents use, followed
+     * for RECORD_SENSOR by the sensor type int, a value count byte and that many floats, and
+     * for RECORD_LIFECYCLE by the lifecycle event byte.
+     */
+    private class SensorTraceRecorder {
+
+        static final int MAGIC = 0x54535746;  // "FWST"
+        static final int VERSION = 1;
+        static final int BUFFER_BYTES = 64 * 1024;
+
+        static final byte RECORD_SENSOR = 1;
+        static final byte RECORD_LIFECYCLE = 2;
+
+        static final byte SCREEN_ON = 1;
+        static final byte SCREEN_OFF = 2;
+        static final byte AMBIENT_ON = 3;
+        static final byte AMBIENT_OFF = 4;
+        static final byte VISIBLE = 5;
+        static final byte INVISIBLE = 6;
+        static final byte TIME_TICK = 7;
+
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        private final File file;
+        private FileChannel channel;
+        private boolean stopped;
+
+        SensorTraceRecorder(File file_) {
+            file = file_;
+            buffer.putInt(MAGIC).putInt(VERSION);
+        }
+
+        void recordSensor(int type, long timestampNanos, float[] values) {
+            if (stopped) return;
+            int count = values.length;
+            if (buffer.remaining() < 14 + 4 * count) flush();
+            buffer.put(RECORD_SENSOR).putLong(timestampNanos).putInt(type).put((byte) count);
+            for (int i = 0; i < count; i++) {
+                buffer.putFloat(values[i]);
+            }
+        }
+
+        void recordLifecycle(byte event, long timestampNanos) {
+            if (stopped) return;
+            if (buffer.remaining() < 10) flush();
+            buffer.put(RECORD_LIFECYCLE).putLong(timestampNanos).put(event);
+        }
+
+        void flush() {
+            if (stopped) return;
+            buffer.flip();
+            try {
+                if (channel == null) {
+                    channel = new FileOutputStream(file, true).getChannel();
+                    if (DEBUG_LOGS) Log.v(TAG, "Recording sensor trace to " + file);
+                }
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Couldn't write sensor trace, recording stopped", e);
+                abandon();
+            }
+            buffer.clear();
+        }
+
+        void close() {
+            flush();
+            abandon();
+        }
+
+        private void abandon() {
+            stopped = true;
+            if (channel == null) return;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Couldn't close sensor trace", e);
+            }
+            channel = null;
+        }
+    }
+
+
+    /**
+     * Where the faces' sensor readings come from: the device's own sensors, or a trace
+     * recorded from them. Either way, readings are handed to {@link #onSensorReading} on
+     * the sensor thread.
+     */
+    private interface SensorSource {
+        boolean hasSensor(int type);
+        int getFifoMaxEventCount(int type);
+        boolean register(int type, int samplingPeriodUs, int maxReportLatencyUs);
+        void unregister(int type);
+        void unregisterAll();
+    }
+
+
+    /**
+     * Readings from the device's own sensors, through the SensorManager. The non-wakeup
+     * variant of each sensor is preferred: none of the faces needs to wake the CPU, and
+     * whatever is batched while it sleeps is delivered on its next wakeup.
+     */
+    private class LiveSensorSource implements SensorSource, SensorEventListener {
+
+        final SensorManager manager;
+
+        LiveSensorSource(SensorManager manager_) {
+            manager = manager_;
+        }
+
+        private Sensor sensorFor(int type) {
+            Sensor sensor = manager.getDefaultSensor(type, false);
+            return sensor != null ? sensor : manager.getDefaultSensor(type);
+        }
+
+        @Override
+        public boolean hasSensor(int type) {
+            return sensorFor(type) != null;
+        }
+
+        @Override
+        public int getFifoMaxEventCount(int type) {
+            Sensor sensor = sensorFor(type);
+            return sensor == null ? 0 : sensor.getFifoMaxEventCount();
+        }
+
+        @Override
+        public boolean register(int type, int samplingPeriodUs, int maxReportLatencyUs) {
+            Sensor sensor = sensorFor(type);
+            if (sensor == null) return false;
+            return manager.registerListener(this, sensor, samplingPeriodUs, maxReportLatencyUs, mSensorHandler);
+        }
+
+        @Override
+        public void unregister(int type) {
+            Sensor sensor = sensorFor(type);
+            if (sensor != null) manager.unregisterListener(this, sensor);
+        }
+
+        @Override
+        public void unregisterAll() {
+            manager.unregisterListener(this);
+        }
+
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {}
+
+        @Override
+        public void onSensorChanged(SensorEvent event) {
+            onSensorReading(event.sensor.getType(), event.timestamp, event.values);
+        }
+    }
+
+
+    /**
+     * Reads back a trace written by {@link SensorTraceRecorder}, one record at a time. The
+     * file is memory-mapped, and the fields of the last record read are left in place of
+     * returning an object, so reading doesn't allocate.
+     */
+    private class SensorTraceReader {
+
+        private final float[][] scratch = new float[256][];  // by value count
+        private ByteBuffer trace;
+
+        // The last record read
+        byte kind;
+        long timestamp;
+        int type;           // of a RECORD_SENSOR
+        float[] values;
+        byte event;         // of a RECORD_LIFECYCLE
+
+        SensorTraceReader(File file) {
+            try {
+                FileChannel channel = new FileInputStream(file).getChannel();
+                try {
+                    trace = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                } finally {
+                    channel.close();
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Couldn't open sensor trace " + file, e);
+                return;
+            }
+            trace.order(ByteOrder.LITTLE_ENDIAN);
+            if (trace.remaining() < 8 || trace.getInt() != SensorTraceRecorder.MAGIC
+                    || trace.getInt() != SensorTraceRecorder.VERSION) {
+                Log.e(TAG, "Not a version " + SensorTraceRecorder.VERSION + " sensor trace: " + file);
+                trace = null;
+            }
+        }
+
+        boolean isValid() {
+            return trace != null;
+        }
+
+        void rewind() {
+            trace.position(8);
+        }
+
+        void mark() {
+            trace.mark();
+        }
+
+        void reset() {
+            trace.reset();
+        }
+
+        // Reads the next record into the fields above, false at the end of the trace
+        boolean next() {
+            if (trace.remaining() < 9) return false;
+            kind = trace.get();
+            timestamp = trace.getLong();
+            switch (kind) {
+                case SensorTraceRecorder.RECORD_SENSOR:
+                    if (trace.remaining() < 5) return false;
+                    type = trace.getInt();
+                    int count = trace.get() & 0xff;
+                    if (trace.remaining() < 4 * count) return false;
+                    if (scratch[count] == null) scratch[count] = new float[count];
+                    values = scratch[count];
+                    for (int i = 0; i < count; i++) {
+                        values[i] = trace.getFloat();
+                    }
+                    return true;
+                case SensorTraceRecorder.RECORD_LIFECYCLE:
+                    if (trace.remaining() < 1) return false;
+                    event = trace.get();
+                    return true;
+                default:
+                    Log.e(TAG, "Corrupt sensor trace at byte " + (trace.position() - 9));
+                    return false;
+            }
+        }
+    }
+
+
+    /**
+     * Plays a trace written by {@link SensorTraceRecorder} back in place of the live sensors,
+     * at the pace it was recorded, so the face can be watched going through real wrist motion.
+     * Timestamps are shifted to start at the current elapsedRealtimeNanos(), the timebase the
+     * simulation estimates readings in. To get through hours of a trace in seconds, the
+     * engines step their models straight from it instead, see DEBUG_REPLAY_REAL_TIME.
+     *
+     * Only the sensor types found in the trace are available, at whatever rate they were
+     * recorded: requested rates and latencies are ignored. Readings of types that aren't
+     * registered are skipped, as the live sensors would have dropped them, and so are the
+     * lifecycle records. Playback starts on the first registration and stops at the end of
+     * the trace.
+     */
+    private class ReplaySensorSource implements SensorSource, Runnable {
+
+        private final SensorTraceReader reader;
+        private final SparseBooleanArray available = new SparseBooleanArray();
+        private final SparseBooleanArray registered = new SparseBooleanArray();
+        private long firstTimestamp, offsetNanos, startNanos;
+        private boolean started;
+        private int deliveredCount;
+
+        ReplaySensorSource(File file) {
+            reader = new SensorTraceReader(file);
+            if (reader.isValid()) scan();
+        }
+
+        // Finds which sensors the trace holds readings of, and when it starts
+        private void scan() {
+            int count = 0;
+            while (reader.next()) {
+                if (count++ == 0) firstTimestamp = reader.timestamp;
+                if (reader.kind == SensorTraceRecorder.RECORD_SENSOR) available.put(reader.type, true);
+            }
+            reader.rewind();
+            if (DEBUG_LOGS) Log.v(TAG, "Sensor trace: " + count + " records of " + available.size() + " sensors");
+        }
+
+        @Override
+        public boolean hasSensor(int type) {
+            return available.get(type);
+        }
+
+        @Override
+        public int getFifoMaxEventCount(int type) {
+            return 0;
+        }
+
+        // Registrations come from the main thread as well as the sensor one, which also reads them
+        @Override
+        public synchronized boolean register(int type, int samplingPeriodUs, int maxReportLatencyUs) {
+            if (!available.get(type)) return false;
+            registered.put(type, true);
+            if (!started) {
+                started = true;
+                startNanos = SystemClock.elapsedRealtimeNanos();
+                offsetNanos = startNanos - firstTimestamp;
+                mSensorHandler.post(this);
+            }
+            return true;
+        }
+
+        @Override
+        public synchronized void unregister(int type) {
+            registered.delete(type);
+        }
+
+        @Override
+        public synchronized void unregisterAll() {
+            registered.clear();
+        }
+
+        private synchronized boolean isRegistered(int type) {
+            return registered.get(type);
+        }
+
+        // Not synchronized: delivering may register again, from inside a SensorWrapper's own lock
+        @Override
+        public void run() {
+            long nowNanos = SystemClock.elapsedRealtimeNanos();
+            while (true) {
+                reader.mark();
+                if (!reader.next()) {
+                    Log.i(TAG, "Replayed " + deliveredCount + " sensor readings in "
+                            + TimeUnit.NANOSECONDS.toMillis(nowNanos - startNanos) + "ms");
+                    return;
+                }
+                long timestampNanos = reader.timestamp + offsetNanos;
+                if (timestampNanos > nowNanos) {
+                    reader.reset();  // not due yet, read it again then
+                    mSensorHandler.postDelayed(this, (timestampNanos - nowNanos + 999999) / 1000000);
+                    return;
+                }
+                if (reader.kind == SensorTraceRecorder.RECORD_SENSOR && isRegistered(reader.type)) {
+                    onSensorReading(reader.type, timestampNanos, reader.values);
+                    deliveredCount++;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Where the faces read the wall-clock time from. Normally the system clock, but with the
+     * debug clock options a {@link VirtualClock} that can be moved around or run fast.
+     */
+    private interface Clock {
+        long currentTimeMillis();
+    }
+
+    private class RealClock implements Clock {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Runs off the elapsed realtime at a given rate from a given start: 1 keeps pace with the
+     * real clock, 60 makes an hour go by every minute, and 0 freezes it so the time only moves
+     * when set or advanced, as fast as the caller likes. A frozen clock never reads the
+     * realtime at all.
+     */
+    private class VirtualClock implements Clock {
+        private long baseMillis;    // virtual time at baseRealtime
+        private long baseRealtime;
+        private final float rate;
+
+        VirtualClock(long startMillis, float rate_) {
+            rate = rate_;
+            set(startMillis);
+        }
+
+        @Override
+        public synchronized long currentTimeMillis() {
+            if (rate == 0) return baseMillis;
+            return baseMillis + (long) ((SystemClock.elapsedRealtime() - baseRealtime) * rate);
+        }
+
+        public synchronized void set(long millis) {
+            baseMillis = millis;
+            if (rate != 0) baseRealtime = SystemClock.elapsedRealtime();
+        }
+
+        public synchronized void advance(long deltaMillis) {
+            set(currentTimeMillis() + deltaMillis);
+        }
+    }
+
+
+    /**
+     * A set of glyphs rasterized once, for one paint, into a single alpha bitmap. Drawing a text
+     * with it blits a cell per character instead of shaping the text each frame. An alpha bitmap
+     * is drawn in the color of the paint it is drawn with, so one atlas serves every color of
+     * the same typeface, size and anti-aliasing. Glyphs go by their own advances, unkerned.
+     */
+    private class GlyphAtlas {
+        private final Bitmap bitmap;
+        private final int ascent;                  // baseline, from the top of the cells
+        private final int[] glyphIndex;            // by character, -1 for those not in the atlas
+        private final int[] cellLeft, cellWidth;
+        private final int[] originX;               // pen position within the cell
+        private final float[] advance;
+        private final Rect src = new Rect(), dst = new Rect();
+
+        GlyphAtlas(String glyphs, Paint paint) {
+            Paint p = new Paint(paint);
+            p.setTextAlign(Paint.Align.LEFT);
+            p.setColor(Color.WHITE);
+
+            int count = glyphs.length();
+            cellLeft = new int[count];
+            cellWidth = new int[count];
+            originX = new int[count];
+            advance = new float[count];
+
+            char last = 0;
+            for (int i = 0; i < count; i++) last = (char) Math.max(last, glyphs.charAt(i));
+            glyphIndex = new int[last + 1];
+            Arrays.fill(glyphIndex, -1);
+
+            Paint.FontMetricsInt metrics = p.getFontMetricsInt();
+            ascent = -metrics.top;
+            int height = Math.max(metrics.bottom - metrics.top, 1);
+
+            Rect bounds = new Rect();
+            int x = 0;
+            for (int i = 0; i < count; i++) {
+                glyphIndex[glyphs.charAt(i)] = i;
+                advance[i] = p.measureText(glyphs, i, i + 1);
+                p.getTextBounds(glyphs, i, i + 1, bounds);
+                originX[i] = Math.max(0, -bounds.left) + 1;  // a pixel of margin for anti-aliasing
+                cellWidth[i] = originX[i] + Math.max(bounds.right, (int) Math.ceil(advance[i])) + 1;
+                cellLeft[i] = x;
+                x += cellWidth[i];
+            }
+
+            bitmap = Bitmap.createBitmap(Math.max(x, 1), height, Bitmap.Config.ALPHA_8);
+            Canvas canvas = new Canvas(bitmap);
+            for (int i = 0; i < count; i++) {
+                canvas.drawText(glyphs, i, i + 1, cellLeft[i] + originX[i], ascent, p);
+            }
+        }
+
+        float measure(char[] text, int start, int count) {
+            float width = 0;
+            for (int i = start; i < start + count; i++) {
+                int g = glyph(text[i]);
+                if (g >= 0) width += advance[g];
+            }
+            return width;
+        }
+
+        // Like drawText() with Paint.Align.RIGHT, the text ends at x
+        void drawRight(Canvas canvas, char[] text, int start, int count, float x, float y, Paint paint) {
+            draw(canvas, text, start, count, x - measure(text, start, count), y, paint);
+        }
+
+        void draw(Canvas canvas, char[] text, int start, int count, float x, float y, Paint paint) {
+            int top = Math.round(y) - ascent;
+            int height = bitmap.getHeight();
+            for (int i = start; i < start + count; i++) {
+                int g = glyph(text[i]);
+                if (g < 0) continue;
+
+                int left = Math.round(x) - originX[g];  // whole pixels, so cells are copied unfiltered
+                src.set(cellLeft[g], 0, cellLeft[g] + cellWidth[g], height);
+                dst.set(left, top, left + cellWidth[g], top + height);
+                canvas.drawBitmap(bitmap, src, dst, paint);
+                x += advance[g];
+            }
+        }
+
+        void recycle() {
+            bitmap.recycle();
+        }
+
+        private int glyph(char c) {
+            return c < glyphIndex.length ? glyphIndex[c] : -1;
+        }
     }
 
-}
\ No newline at end of file
+}